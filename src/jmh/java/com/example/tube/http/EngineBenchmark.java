@@ -0,0 +1,147 @@
+package com.example.tube.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests/second through each {@link ServerEngine} with a handler that returns a fixed 1 KiB JSON
+ * body, so the numbers are engine overhead (parse, dispatch, write) rather than application work.
+ * Clients are raw sockets: {@code keepAlive} reuses one connection per thread, {@code newConnection}
+ * opens one per request.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class EngineBenchmark {
+
+    private static final byte[] REQUEST = ("GET /api/line/central/status HTTP/1.1\r\n"
+            + "Host: localhost\r\nAccept: application/json\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({"jdk", "nio"})
+        public String engine;
+
+        ServerEngine server;
+        ExecutorService executor;
+        int port;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            byte[] json = new byte[1024];
+            Arrays.fill(json, (byte) 'x');
+            json[0] = '"';
+            json[json.length - 1] = '"';
+            ByteBuffer heap = ByteBuffer.wrap(json);
+            ByteBuffer direct = ByteBuffer.allocateDirect(json.length).put(json).flip().asReadOnlyBuffer();
+
+            executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+            server = ServerEngine.of(engine);
+            port = server.start(new InetSocketAddress("127.0.0.1", 0), ex -> {
+                ex.setResponseHeader("Content-Type", "application/json");
+                ex.send(200, ex.prefersDirectBuffers() ? direct.duplicate() : heap.duplicate());
+            }, executor);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            server.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        Socket socket;
+        InputStream in;
+        OutputStream out;
+        final byte[] buf = new byte[8192];
+
+        @Setup(Level.Iteration)
+        public void connect(Server server) throws IOException {
+            socket = new Socket("127.0.0.1", server.port);
+            socket.setTcpNoDelay(true);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public int keepAlive(Client client) throws IOException {
+        client.out.write(REQUEST);
+        return readResponse(client.in, client.buf);
+    }
+
+    @Benchmark
+    public int newConnection(Server server) throws IOException {
+        try (Socket s = new Socket("127.0.0.1", server.port)) {
+            s.setTcpNoDelay(true);
+            s.getOutputStream().write(REQUEST);
+            return readResponse(s.getInputStream(), new byte[8192]);
+        }
+    }
+
+    /** Reads one response (head + Content-Length body); returns the status code. */
+    private static int readResponse(InputStream in, byte[] buf) throws IOException {
+        int n = 0, headEnd = -1;
+        while (headEnd < 0) {
+            int r = in.read(buf, n, buf.length - n);
+            if (r < 0) throw new IOException("connection closed mid-response");
+            n += r;
+            for (int i = Math.max(3, n - r); i < n; i++) {
+                if (buf[i] == '\n' && buf[i - 1] == '\r' && buf[i - 2] == '\n' && buf[i - 3] == '\r') { headEnd = i + 1; break; }
+            }
+        }
+        String head = new String(buf, 0, headEnd, StandardCharsets.US_ASCII);
+        int status = Integer.parseInt(head.substring(9, 12));
+        long remaining = contentLength(head) - (n - headEnd);
+        while (remaining > 0) {
+            int r = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (r < 0) throw new IOException("connection closed mid-body");
+            remaining -= r;
+        }
+        return status;
+    }
+
+    private static long contentLength(String head) {
+        for (String line : head.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                return Long.parseLong(line.substring(colon + 1).trim());
+            }
+        }
+        return 0;
+    }
+}
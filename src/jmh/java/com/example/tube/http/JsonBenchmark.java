@@ -0,0 +1,45 @@
+package com.example.tube.http;
+
+import com.example.tube.dto.LineStatusResponse;
+import com.example.tube.dto.UnplannedDisruptionsResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** {@link Json#serialize} (bytes + ETag) of the two response shapes, as done once per data version by {@link BodyCache}. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonBenchmark {
+
+    private final LineStatusResponse line = new LineStatusResponse(
+            "central", "Central", "Minor Delays", true, false,
+            List.of("Central Line: Minor delays between White City and Liverpool Street due to an earlier signal failure at Bank."),
+            "https://api.tfl.gov.uk/Line/central/Status");
+
+    private final UnplannedDisruptionsResponse unplanned =
+            new UnplannedDisruptionsResponse(4, Collections.nCopies(4, line));
+
+    @Benchmark
+    public JsonBody lineStatus() {
+        return Json.serialize(line);
+    }
+
+    @Benchmark
+    public JsonBody unplanned() {
+        return Json.serialize(unplanned);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.tube.http;
+
+import com.example.tube.dto.LineStatusResponse;
+import com.example.tube.otel.Metrics;
+import com.example.tube.ratelimit.IpRateLimiter;
+import com.example.tube.service.TubeStatusService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting a typical {@code GET /api/line/central/status} from the engine to the service.
+ * Run with {@code -prof gc} and compare {@code gc.alloc.rate.norm} (bytes/op):
+ * <ul>
+ *   <li>{@code parse}: route match, lineId check, query and date parsing, client IP</li>
+ *   <li>{@code parseLegacy}: the same steps the old way (split, regex, HashMap query, split XFF)</li>
+ *   <li>{@code handle}: the whole {@link Router#handle} with a stub service, rate limiter and
+ *       cached body, i.e. everything except the engine's own request/response objects</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoutingBenchmark {
+
+    private final FakeExchange plain = new FakeExchange("/api/line/central/status", null);
+    private final FakeExchange dated = new FakeExchange("/api/line/central/status", "from=2024-05-01&to=2024-05-03");
+
+    private RouteTable routes;
+    private Router router;
+
+    @Setup
+    public void setup() {
+        routes = new RouteTable().add("/healthz", (ex, vars) -> {})
+                .add("/api/disruptions/unplanned", (ex, vars) -> {})
+                .add("/api/line/{lineId}/status", (ex, vars) -> ((FakeExchange) ex).lineId = vars[0]);
+
+        var response = CompletableFuture.completedFuture(
+                new LineStatusResponse("central", "Central", "Good Service", false, false, List.of(), "http://tfl/Line/central/Status"));
+        var service = new TubeStatusService(null, "http://tfl") {
+            @Override
+            public CompletableFuture<LineStatusResponse> getLineStatusAsync(String lineId, LocalDate from, LocalDate to) {
+                return response;
+            }
+        };
+        var limiter = new IpRateLimiter(Integer.MAX_VALUE, Duration.ofSeconds(1));
+        router = new Router(service, limiter, Metrics.noop());
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) throws IOException {
+        FakeExchange ex = dated;
+        routes.dispatch(ex);
+        bh.consume(TubeStatusService.isLineId(ex.lineId));
+        String q = ex.rawQuery();
+        bh.consume(Router.parseDate(Query.get(q, "from")));
+        bh.consume(Router.parseDate(Query.get(q, "to")));
+        bh.consume(firstForwarded(ex.requestHeader("X-Forwarded-For")));
+    }
+
+    @Benchmark
+    public void parseLegacy(Blackhole bh) {
+        FakeExchange ex = dated;
+        String[] parts = ex.path().split("/");
+        bh.consume("status".equalsIgnoreCase(parts[4]));
+        bh.consume(parts[3].matches("^[a-z0-9-]+$"));
+        Map<String, String> q = Query.parse(ex.rawQuery());
+        bh.consume(LocalDate.parse(q.get("from")));
+        bh.consume(LocalDate.parse(q.get("to")));
+        bh.consume(ex.requestHeader("X-Forwarded-For").split(",")[0].trim());
+    }
+
+    @Benchmark
+    public void handle() throws IOException {
+        router.handle(plain);
+    }
+
+    private static String firstForwarded(String xff) {
+        int comma = xff.indexOf(',');
+        return (comma < 0 ? xff : xff.substring(0, comma)).trim();
+    }
+
+    /** Engine-free exchange: headers are fixed and responses are dropped. */
+    private static final class FakeExchange implements Exchange {
+        private static final InetSocketAddress REMOTE = new InetSocketAddress("10.0.0.7", 51234);
+
+        private final String path;
+        private final String query;
+        String lineId;
+
+        FakeExchange(String path, String query) {
+            this.path = path;
+            this.query = query;
+        }
+
+        @Override public String method() { return "GET"; }
+
+        @Override public String path() { return path; }
+
+        @Override public String rawQuery() { return query; }
+
+        @Override
+        public String requestHeader(String name) {
+            return "X-Forwarded-For".equalsIgnoreCase(name) ? "203.0.113.9, 10.0.0.1" : null;
+        }
+
+        @Override public InetSocketAddress remoteAddress() { return REMOTE; }
+
+        @Override public void setResponseHeader(String name, String value) { }
+
+        @Override public void send(int status, ByteBuffer body) { }
+
+        @Override public ResponseStream stream(int status) { throw new UnsupportedOperationException("not benchmarked"); }
+
+        @Override public void close() { }
+    }
+}
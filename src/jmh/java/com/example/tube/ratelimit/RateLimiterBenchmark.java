@@ -0,0 +1,68 @@
+package com.example.tube.ratelimit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link IpRateLimiter#tryAcquire} from 8 threads. {@code shared}: every thread hits one client key
+ * (one segment lock); {@code distinct}: each thread is its own client; {@code spread}: each call is
+ * one of 10k clients, so keys are spread over all segments.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class RateLimiterBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Limiter {
+        @Param({"shared", "distinct", "spread"})
+        public String keys;
+
+        final IpRateLimiter limiter = new IpRateLimiter(Integer.MAX_VALUE, Duration.ofSeconds(1));
+        final AtomicInteger threads = new AtomicInteger();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        String[] ips;
+        int next;
+
+        @Setup
+        public void setup(Limiter l) {
+            int t = l.threads.getAndIncrement();
+            ips = switch (l.keys) {
+                case "shared" -> new String[]{"203.0.113.9"};
+                case "distinct" -> new String[]{"10.0.0." + t};
+                default -> {
+                    String[] a = new String[10_000];
+                    for (int i = 0; i < a.length; i++) a[i] = "10." + t + "." + (i >> 8) + "." + (i & 0xff);
+                    yield a;
+                }
+            };
+        }
+    }
+
+    @Benchmark
+    public RateLimitDecision tryAcquire(Limiter l, Client c) {
+        String ip = c.ips[c.next];
+        if (++c.next == c.ips.length) c.next = 0;
+        return l.limiter.tryAcquire(ip);
+    }
+}
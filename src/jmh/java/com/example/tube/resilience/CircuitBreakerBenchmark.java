@@ -0,0 +1,55 @@
+package com.example.tube.resilience;
+
+import com.example.tube.otel.Metrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A closed breaker shared by 8 threads: {@link CircuitBreaker#acquirePermission} plus the
+ * success report every upstream call makes, in {@code cb.mode=consecutive} and {@code window}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class CircuitBreakerBenchmark {
+
+    @Param({"consecutive", "window"})
+    public String mode;
+
+    private CircuitBreaker cb;
+
+    @Setup
+    public void setup() {
+        cb = "window".equals(mode)
+                ? new CircuitBreaker(new OutcomeWindow(100, 20, 50, 100, Duration.ofSeconds(1)), Duration.ofSeconds(30), 2, Metrics.noop())
+                : new CircuitBreaker(5, Duration.ofSeconds(30), 2);
+    }
+
+    @Benchmark
+    public void acquirePermission() {
+        cb.acquirePermission();
+    }
+
+    @Benchmark
+    public void acquireAndReport() {
+        cb.acquirePermission();
+        cb.onSuccess(1_000_000L);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.tube.service;
+
+import com.example.tube.dto.LineStatusResponse;
+import com.example.tube.tfl.Line;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Per-line mapping and the planned-work filter, over every line of a real /Line/Mode/tube/Status payload. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MappingBenchmark {
+
+    private final LineMapper mapper = new LineMapper();
+    private Line[] lines;
+    private List<List<String>> reasons;
+
+    @Setup
+    public void load() throws IOException {
+        try (InputStream in = MappingBenchmark.class.getResourceAsStream("/tfl/tube-status.json")) {
+            lines = new ObjectMapper().readValue(in, Line[].class);
+        }
+        reasons = Arrays.stream(lines)
+                .map(l -> mapper.toResponse(l, "http://tfl/Line/Mode/tube/Status", false).reasons())
+                .toList();
+    }
+
+    @Benchmark
+    public void toResponse(Blackhole bh) {
+        for (Line l : lines) bh.consume(mapper.toResponse(l, "http://tfl/Line/Mode/tube/Status", false));
+    }
+
+    @Benchmark
+    public void looksPlanned(Blackhole bh) {
+        for (int i = 0; i < reasons.size(); i++) bh.consume(TubeStatusService.looksPlanned(reasons.get(i)));
+    }
+
+    @Benchmark
+    public void unplannedFilter(Blackhole bh) {
+        for (Line l : lines) {
+            LineStatusResponse r = mapper.toResponse(l, "http://tfl/Line/Mode/tube/Status", false);
+            if (r.disrupted() && !TubeStatusService.looksPlanned(r.reasons())) bh.consume(r);
+        }
+    }
+}
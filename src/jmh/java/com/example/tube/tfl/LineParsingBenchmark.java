@@ -0,0 +1,51 @@
+package com.example.tube.tfl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a real /Line/Mode/tube/Status payload (~15 KB, every tube line) into {@code Line[]}:
+ * Jackson databind ({@code tfl.parser=databind}) vs {@link LineStreamParser} ({@code tfl.parser=streaming}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LineParsingBenchmark {
+
+    private final ObjectMapper om = new ObjectMapper();
+    private final LineStreamParser streaming = new LineStreamParser();
+    private byte[] payload;
+
+    @Setup
+    public void load() throws IOException {
+        try (InputStream in = LineParsingBenchmark.class.getResourceAsStream("/tfl/tube-status.json")) {
+            payload = in.readAllBytes();
+        }
+    }
+
+    @Benchmark
+    public Line[] databind() throws IOException {
+        return om.readValue(payload, Line[].class);
+    }
+
+    @Benchmark
+    public Line[] streaming() throws IOException {
+        return streaming.parse(payload);
+    }
+}
@@ -1,25 +1,89 @@
 package com.example.tube;
 
+import com.example.tube.cache.StaleWhileRevalidateCache;
+import com.example.tube.concurrent.AdmissionExecutor;
 import com.example.tube.config.AppConfig;
+import com.example.tube.http.AdmissionControl;
+import com.example.tube.http.ContentEncoding;
 import com.example.tube.http.Router;
+import com.example.tube.http.ServerEngine;
+import com.example.tube.http.StatusEventStream;
+import com.example.tube.log.Level;
+import com.example.tube.log.Log;
+import com.example.tube.log.Logger;
 import com.example.tube.otel.Metrics;
 import com.example.tube.otel.Telemetry;
 import com.example.tube.resilience.CircuitBreaker;
+import com.example.tube.resilience.ConcurrencyLimiter;
+import com.example.tube.resilience.HedgePolicy;
+import com.example.tube.resilience.LatencyTracker;
+import com.example.tube.resilience.OutcomeWindow;
+import com.example.tube.resilience.RetryBudget;
 import com.example.tube.resilience.RetryPolicy;
 import com.example.tube.ratelimit.IpRateLimiter;
+import com.example.tube.ratelimit.LeasedQuotaRateLimiter;
+import com.example.tube.ratelimit.QuotaCoordinator;
+import com.example.tube.ratelimit.RateLimiterBackend;
+import com.example.tube.service.BatchPolicy;
+import com.example.tube.service.LineSnapshotPoller;
+import com.example.tube.service.LineStatusChanges;
 import com.example.tube.service.TflClient;
 import com.example.tube.service.TubeStatusService;
-import com.sun.net.httpserver.HttpServer;
+import com.example.tube.slo.LatencyObjective;
+import com.example.tube.slo.SloMonitor;
+import com.example.tube.tfl.Line;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.URI;
 import java.net.http.HttpClient;
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class App {
+    private static final Logger log = Log.get(App.class);
+
     public static void main(String[] args) throws Exception {
+        Running app = start(new AppConfig("config/application.properties"));
+        Runtime.getRuntime().addShutdownHook(new Thread(app::close));
+    }
+
+    /** A started service: the bound HTTP port, and {@link #close()} to stop serving and release threads and ports. */
+    public static final class Running implements AutoCloseable {
+        private final int port;
+        private final Deque<Runnable> stops;
+
+        private Running(int port, Deque<Runnable> stops) {
+            this.port = port;
+            this.stops = stops;
+        }
+
+        public int port() {
+            return port;
+        }
+
+        /** Runs the shutdown steps in reverse order of startup. */
+        @Override
+        public synchronized void close() {
+            while (!stops.isEmpty()) {
+                try {
+                    stops.pop().run();
+                } catch (RuntimeException e) {
+                    log.warn("shutdown step failed", "error", e.toString());
+                }
+            }
+        }
+    }
 
-        AppConfig cfg = new AppConfig("config/application.properties");
+    /** Wires and starts the whole service from {@code cfg} (what {@link #main} runs; also used by the load harness). */
+    public static Running start(AppConfig cfg) throws IOException {
+        Deque<Runnable> stops = new ArrayDeque<>();
+        Log.setLevel(Level.valueOf(cfg.getString("log.level", "INFO").toUpperCase()));
 
         int port = cfg.getInt("server.port", 8080);
 
@@ -27,44 +91,248 @@ public class App {
                 .connectTimeout(Duration.ofMillis(200))
                 .build();
 
-        CircuitBreaker cb = new CircuitBreaker(
-                cfg.getInt("cb.failureThreshold", 5),
-                Duration.ofSeconds(cfg.getInt("cb.openDurationSeconds", 30)),
-                cfg.getInt("cb.halfOpenPermits", 2)
+        // otel.prometheusPort=0: no scrape endpoint (metrics are still recorded, into a no-op meter)
+        int prometheusPort = cfg.getInt("otel.prometheusPort", 9464);
+        Metrics metrics;
+        if (prometheusPort > 0) {
+            var otel = Telemetry.initPrometheus(prometheusPort);
+            stops.push(otel::close);
+            metrics = new Metrics(otel.getMeter("tube-status-simple"));
+        } else {
+            metrics = Metrics.noop();
+        }
+        metrics.counter("log_events_dropped_total", "Log events dropped because the log buffer was full", Log::dropped);
+
+        Duration cbOpen = Duration.ofSeconds(cfg.getInt("cb.openDurationSeconds", 30));
+        int cbHalfOpenPermits = cfg.getInt("cb.halfOpenPermits", 2);
+        CircuitBreaker cb = "window".equalsIgnoreCase(cfg.getString("cb.mode", "consecutive"))
+                ? new CircuitBreaker(
+                        new OutcomeWindow(
+                                cfg.getInt("cb.window.size", 100),
+                                cfg.getInt("cb.window.minCalls", 20),
+                                cfg.getInt("cb.window.failureRatePercent", 50),
+                                cfg.getInt("cb.window.slowCallRatePercent", 80),
+                                Duration.ofMillis(cfg.getInt("cb.window.slowCallMs", 250))),
+                        cbOpen, cbHalfOpenPermits, metrics)
+                : new CircuitBreaker(cfg.getInt("cb.failureThreshold", 5), cbOpen, cbHalfOpenPermits, metrics);
+        metrics.gauge("circuit_breaker_state", "Circuit breaker state (0=closed, 1=open, 2=half-open)", "1",
+                () -> cb.state().ordinal());
+        metrics.counter("circuit_breaker_open_seconds_total", "Time the circuit breaker has spent OPEN", "s", cb::openSeconds);
+
+        RetryBudget retryBudget = new RetryBudget(
+                cfg.getInt("retry.budgetPercent", 10) / 100.0,
+                cfg.getInt("retry.budgetMaxTokens", 20)
         );
+        metrics.gauge("upstream_retry_budget_tokens", "Retry tokens currently available", "1", retryBudget::tokens);
 
+        ScheduledExecutorService retryScheduler =
+                Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("retry-scheduler").factory());
+        stops.push(retryScheduler::shutdownNow);
         RetryPolicy retry = new RetryPolicy(
                 cfg.getInt("retry.maxAttempts", 3),
-                cfg.getInt("retry.baseDelayMs", 200)
+                cfg.getInt("retry.baseDelayMs", 200),
+                retryBudget,
+                retryScheduler,
+                metrics
         );
 
-        var otel = Telemetry.initPrometheus(cfg.getInt("otel.prometheusPort", 9464));
-        var meter = otel.getMeter("tube-status-simple");
-        var metrics = new Metrics(meter);
+        HedgePolicy hedge = HedgePolicy.disabled();
+        if (cfg.getBoolean("hedge.enabled", false)) {
+            ScheduledExecutorService hedgeScheduler =
+                    Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("hedge-scheduler").factory());
+            stops.push(hedgeScheduler::shutdownNow);
+            hedge = new HedgePolicy(
+                    new LatencyTracker(1024, 50, cfg.getInt("hedge.percentile", 90)),
+                    Duration.ofMillis(cfg.getInt("hedge.minDelayMs", 20)),
+                    new RetryBudget(cfg.getInt("hedge.maxPercent", 10) / 100.0, cfg.getInt("hedge.maxBurst", 10)),
+                    hedgeScheduler
+            );
+        }
+
+        ConcurrencyLimiter concurrency = ConcurrencyLimiter.unlimited();
+        if (cfg.getBoolean("tfl.concurrency.enabled", true)) {
+            concurrency = new ConcurrencyLimiter(
+                    cfg.getInt("tfl.concurrency.initialLimit", 20),
+                    cfg.getInt("tfl.concurrency.minLimit", 2),
+                    cfg.getInt("tfl.concurrency.maxLimit", 200),
+                    Duration.ofMillis(cfg.getInt("tfl.concurrency.latencyThresholdMs", 250)),
+                    cfg.getInt("tfl.concurrency.backoffPercent", 90) / 100.0
+            );
+            metrics.gauge("upstream_concurrency_limit", "Current adaptive limit on in-flight TfL calls", "1", concurrency::limit);
+            metrics.gauge("upstream_inflight", "TfL calls currently in flight", "1", concurrency::inFlight);
+        }
+
+        BatchPolicy batching = BatchPolicy.disabled();
+        if (cfg.getBoolean("tfl.batch.enabled", false)) {
+            ScheduledExecutorService batchScheduler =
+                    Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("batch-scheduler").factory());
+            stops.push(batchScheduler::shutdownNow);
+            batching = new BatchPolicy(
+                    Duration.ofMillis(cfg.getInt("tfl.batch.windowMs", 2)),
+                    cfg.getInt("tfl.batch.maxSize", 10),
+                    batchScheduler
+            );
+        }
 
         TflClient tfl = new TflClient(
                 httpClient,
                 cb,
                 retry,
                 cfg.getString("tfl.baseUrl"),
-                metrics
+                metrics,
+                Duration.ofMillis(cfg.getInt("tfl.timeoutMs", 300)),
+                hedge,
+                "streaming".equalsIgnoreCase(cfg.getString("tfl.parser", "streaming")),
+                concurrency,
+                batching
         );
-        TubeStatusService service = new TubeStatusService(tfl, cfg.getString("tfl.baseUrl"));
 
-        IpRateLimiter limiter =
-                new IpRateLimiter(
-                        cfg.getInt("ratelimit.maxRequests", 100),
-                        Duration.ofSeconds(cfg.getInt("ratelimit.windowSeconds", 60))
+        StaleWhileRevalidateCache<Line[]> cache = null;
+        if (cfg.getBoolean("cache.enabled", true)) {
+            ExecutorService refresh = Executors.newFixedThreadPool(2, Thread.ofPlatform().daemon().name("cache-refresh-", 0).factory());
+            stops.push(refresh::shutdownNow);
+            cache = new StaleWhileRevalidateCache<>(
+                    Duration.ofMillis(cfg.getInt("cache.freshTtlMs", 5000)),
+                    Duration.ofMillis(cfg.getInt("cache.staleWindowMs", 30000)),
+                    cfg.getInt("cache.maxEntries", 1000),
+                    refresh,
+                    metrics
+            );
+        }
+
+        LineSnapshotPoller snapshots = null;
+        LineStatusChanges changes = null;
+        StatusEventStream events = null;
+        if (cfg.getBoolean("snapshot.enabled", false)) {
+            snapshots = new LineSnapshotPoller(
+                    tfl,
+                    Duration.ofMillis(cfg.getInt("snapshot.pollIntervalMs", 15000)),
+                    Duration.ofMillis(cfg.getInt("snapshot.maxAgeMs", 120000)),
+                    metrics
+            );
+            changes = new LineStatusChanges(cfg.getString("tfl.baseUrl"), cfg.getInt("changes.logVersions", 1000));
+            snapshots.addListener(changes::onSnapshot);
+            if (cfg.getBoolean("sse.enabled", true)) {
+                ExecutorService sseWriters = Executors.newVirtualThreadPerTaskExecutor();
+                stops.push(sseWriters::shutdownNow);
+                events = new StatusEventStream(
+                        changes,
+                        sseWriters,
+                        cfg.getInt("sse.maxConnections", 10000),
+                        cfg.getInt("sse.maxQueuedEvents", 16),
+                        metrics
                 );
+                stops.push(events::close);
+                long heartbeatMs = cfg.getInt("sse.heartbeatSeconds", 15) * 1000L;
+                ScheduledExecutorService sseScheduler =
+                        Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("sse-heartbeat").factory());
+                stops.push(sseScheduler::shutdownNow);
+                sseScheduler.scheduleAtFixedRate(events::heartbeat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+            }
+            snapshots.start();
+            stops.push(snapshots::stop);
+        }
+        boolean asyncUpstream = "async".equalsIgnoreCase(cfg.getString("tfl.clientMode", "blocking"));
+        TubeStatusService service =
+                new TubeStatusService(tfl, cfg.getString("tfl.baseUrl"), cache, snapshots, asyncUpstream);
+
+        int maxRequests = cfg.getInt("ratelimit.maxRequests", 100);
+        Duration window = Duration.ofSeconds(cfg.getInt("ratelimit.windowSeconds", 60));
+        int burst = cfg.getInt("ratelimit.burst", maxRequests);
+        int maxKeys = cfg.getInt("ratelimit.maxKeys", IpRateLimiter.DEFAULT_MAX_KEYS);
+        long sweepMs = cfg.getInt("ratelimit.sweepIntervalMs", 10000);
+        ScheduledExecutorService rateLimitScheduler =
+                Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("ratelimit-scheduler").factory());
+        stops.push(rateLimitScheduler::shutdownNow);
+
+        IpRateLimiter localLimiter = new IpRateLimiter(maxRequests, window, burst, maxKeys);
+        rateLimitScheduler.scheduleWithFixedDelay(localLimiter::sweep, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+        metrics.gauge("ratelimit_keys", "Client keys currently tracked by the rate limiter", "1", localLimiter::size);
+        metrics.counter("ratelimit_keys_evicted_idle_total", "Rate-limiter keys dropped after their bucket refilled", localLimiter::idleEvictions);
+        metrics.counter("ratelimit_keys_evicted_capacity_total", "Active rate-limiter keys evicted because the key table was full", localLimiter::capacityEvictions);
+
+        int coordinatorPort = cfg.getInt("ratelimit.coordinator.port", 0);
+        if (coordinatorPort > 0) {
+            IpRateLimiter clusterLimits = new IpRateLimiter(maxRequests, window, burst, maxKeys);
+            rateLimitScheduler.scheduleWithFixedDelay(clusterLimits::sweep, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+            var coordinator = new QuotaCoordinator(clusterLimits, QuotaCoordinator.maxPermitsFor(
+                    cfg.getInt("ratelimit.leaseSize", 10), cfg.getInt("ratelimit.localCredit", 2)));
+            coordinator.start(new InetSocketAddress(cfg.getString("ratelimit.coordinator.bindAddress", "127.0.0.1"), coordinatorPort));
+            stops.push(coordinator::stop);
+        }
+
+        RateLimiterBackend limiter = localLimiter;
+        if ("leased".equalsIgnoreCase(cfg.getString("ratelimit.backend", "local"))) {
+            var leased = new LeasedQuotaRateLimiter(
+                    URI.create(cfg.getString("ratelimit.coordinator.url", "http://127.0.0.1:9470")),
+                    HttpClient.newBuilder().connectTimeout(Duration.ofMillis(200)).build(),
+                    burst,
+                    cfg.getInt("ratelimit.leaseSize", 10),
+                    cfg.getInt("ratelimit.localCredit", 2),
+                    Duration.ofMillis(cfg.getInt("ratelimit.leaseTtlMs", 2000)),
+                    Duration.ofMillis(cfg.getInt("ratelimit.syncIntervalMs", 50)),
+                    maxKeys,
+                    localLimiter,
+                    rateLimitScheduler
+            );
+            leased.start();
+            stops.push(leased::close);
+            metrics.gauge("ratelimit_leases", "Client keys with a quota lease on this node", "1", leased::size);
+            metrics.counter("ratelimit_quota_sync_failures_total", "Failed quota syncs with the coordinator", leased::syncFailures);
+            metrics.counter("ratelimit_lease_overflow_total", "Decisions made locally because the lease table was full", leased::overflows);
+            limiter = leased;
+        }
 
-        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
-        server.setExecutor(Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors())));
+        boolean admissionEnabled = cfg.getBoolean("admission.enabled", true);
+        AdmissionExecutor executor = serverExecutor(cfg.getString("server.executor", "platform"),
+                admissionEnabled ? cfg.getInt("admission.maxQueueDepth", 200) : 0);
+        stops.push(executor::shutdownNow);
+        metrics.gauge("http_server_queue_depth", "Requests accepted but not yet picked up by a handler thread", "1", executor::queueDepth);
+        metrics.gauge("http_server_active_handlers", "Request handlers currently running", "1", executor::running);
 
-        int windowSeconds = cfg.getInt("ratelimit.windowSeconds", 60);
-        new Router(service, limiter,windowSeconds,metrics).register(server);
+        AdmissionControl admission = AdmissionControl.disabled();
+        if (admissionEnabled) {
+            admission = new AdmissionControl(
+                    executor,
+                    Duration.ofMillis(cfg.getInt("admission.queueDeadlineMs", 1000)),
+                    cfg.getInt("admission.maxRunning", 0),
+                    cfg.getInt("admission.retryAfterSeconds", 1),
+                    metrics
+            );
+        }
+
+        ContentEncoding encoding = new ContentEncoding(cfg.getInt("compression.minBytes", 1024), metrics);
+
+        SloMonitor slo = new SloMonitor(
+                cfg.getDouble("slo.availabilityPercent", 99.9),
+                LatencyObjective.parseAll(cfg.getString("slo.latency", "95:200,99:500"))
+        );
+        slo.registerGauges(metrics);
+        long sloIntervalMs = cfg.getInt("slo.intervalSeconds", 60) * 1000L;
+        ScheduledExecutorService sloScheduler =
+                Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("slo-scheduler").factory());
+        stops.push(sloScheduler::shutdownNow);
+        sloScheduler.scheduleAtFixedRate(slo::rotate, sloIntervalMs, sloIntervalMs, TimeUnit.MILLISECONDS);
+
+        Router router = new Router(service, limiter, metrics, admission, slo, changes, events, encoding);
+
+        ServerEngine engine = ServerEngine.of(cfg.getString("server.engine", "jdk"));
+        int bound = engine.start(new InetSocketAddress(port), router::handle, executor);
+        stops.push(engine::stop);
+        log.info("Listening", "url", "http://localhost:" + bound, "engine", cfg.getString("server.engine", "jdk"));
+        return new Running(bound, stops);
+    }
 
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(0)));
-        server.start();
-        System.out.println("Listening on http://localhost:" + port);
+    /**
+     * "platform": fixed pool of max(4, cores) threads (original behaviour) whose queue holds at most
+     * {@code maxQueued} requests (0 = unbounded); further requests are rejected on entry.
+     * "virtual": one virtual thread per exchange, so handlers blocked on TfL don't pin a carrier.
+     */
+    private static AdmissionExecutor serverExecutor(String mode, int maxQueued) {
+        return switch (mode.toLowerCase()) {
+            case "virtual" -> new AdmissionExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            case "platform" -> new AdmissionExecutor(Math.max(4, Runtime.getRuntime().availableProcessors()), maxQueued);
+            default -> throw new IllegalArgumentException("server.executor must be 'platform' or 'virtual': " + mode);
+        };
     }
 }
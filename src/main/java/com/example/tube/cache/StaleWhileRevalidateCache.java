@@ -0,0 +1,134 @@
+package com.example.tube.cache;
+
+import com.example.tube.concurrent.Futures;
+import com.example.tube.otel.Metrics;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * In-memory cache of upstream responses keyed by upstream path.
+ *
+ * <p>Each entry is served as-is while it is younger than the fresh TTL. During the
+ * following stale window the cached value is still returned immediately, but a single
+ * background refresh is started so the next caller sees fresh data. Older entries are
+ * treated as a miss.
+ *
+ * <p>Concurrent misses (and refreshes) for the same key share one in-flight upstream
+ * call, so a burst of identical requests turns into a single TfL request.
+ *
+ * <p>Failures are never cached; a failed load is reported to every waiting caller and
+ * the next request tries again.
+ */
+public final class StaleWhileRevalidateCache<V> {
+
+    private final long freshNanos;
+    private final long staleNanos;
+    private final int maxEntries;
+    private final Executor refreshExecutor;
+    private final Metrics metrics;
+
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private record Entry<V>(V value, long loadedAtNanos) {}
+
+    public StaleWhileRevalidateCache(Duration freshTtl,
+                                     Duration staleWindow,
+                                     int maxEntries,
+                                     Executor refreshExecutor,
+                                     Metrics metrics) {
+        this.freshNanos = freshTtl.toNanos();
+        this.staleNanos = staleWindow.toNanos();
+        this.maxEntries = maxEntries;
+        this.refreshExecutor = refreshExecutor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the cached value for {@code key}, loading it through {@code loader} when
+     * it is missing or expired. The loader is only invoked by one caller at a time per key.
+     */
+    public CompletableFuture<V> get(String key, Supplier<CompletableFuture<V>> loader) {
+        Entry<V> e = entries.get(key);
+        if (e != null) {
+            long age = System.nanoTime() - e.loadedAtNanos;
+            if (age < freshNanos) {
+                metrics.cacheHits.add(1);
+                return CompletableFuture.completedFuture(e.value);
+            }
+            if (age < freshNanos + staleNanos) {
+                metrics.cacheStale.add(1);
+                refreshInBackground(key, loader);
+                return CompletableFuture.completedFuture(e.value);
+            }
+        }
+        metrics.cacheMisses.add(1);
+        return load(key, loader, null);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void refreshInBackground(String key, Supplier<CompletableFuture<V>> loader) {
+        if (inFlight.containsKey(key)) return;
+        load(key, loader, refreshExecutor);
+    }
+
+    /**
+     * Starts (or joins) the single in-flight load for {@code key}. When {@code executor}
+     * is null the loader runs on the calling thread.
+     */
+    private CompletableFuture<V> load(String key, Supplier<CompletableFuture<V>> loader, Executor executor) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            metrics.cacheCoalesced.add(1);
+            return existing;
+        }
+
+        Runnable run = () -> {
+            CompletableFuture<V> source;
+            try {
+                source = loader.get();
+            } catch (RuntimeException ex) {
+                source = CompletableFuture.failedFuture(ex);
+            }
+            source.whenComplete((value, err) -> {
+                if (err == null) store(key, value);
+                inFlight.remove(key, mine);
+                if (err == null) mine.complete(value);
+                else mine.completeExceptionally(Futures.unwrap(err));
+            });
+        };
+
+        if (executor == null) {
+            run.run();
+        } else {
+            try {
+                executor.execute(run);
+            } catch (RuntimeException rejected) {
+                inFlight.remove(key, mine);
+                mine.completeExceptionally(rejected);
+            }
+        }
+        return mine;
+    }
+
+    private void store(String key, V value) {
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            evictExpired();
+            if (entries.size() >= maxEntries) return; // full of live entries; serve uncached
+        }
+        entries.put(key, new Entry<>(value, System.nanoTime()));
+    }
+
+    private void evictExpired() {
+        long now = System.nanoTime();
+        entries.values().removeIf(e -> now - e.loadedAtNanos >= freshNanos + staleNanos);
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.tube.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server executor that knows how long each task queued and how many are waiting or running.
+ * <p>
+ * Every submitted task is stamped on entry; when it starts, the time it spent queued is made
+ * available to the task itself through {@link #currentQueueNanos()}, so request handlers can
+ * decide to shed work whose client has likely given up. Queue depth counts tasks accepted but
+ * not yet started, for any delegate (a fixed pool queues, virtual threads start immediately).
+ * <p>
+ * The fixed pool built by {@link #AdmissionExecutor(int, int)} holds at most {@code maxQueued}
+ * waiting tasks. A task that finds the queue full is rejected on entry: it runs at once on the
+ * submitting (server dispatcher) thread with {@link #currentRejected()} set, so the handler answers
+ * 503 without first waiting behind everything already queued. The shed response is small and never
+ * waits on upstream, so a flood of rejections creates no threads and queues nothing.
+ */
+public final class AdmissionExecutor implements Executor {
+
+    /** [0] = nanoseconds the current task queued, [1] = 1 if it was rejected on entry. */
+    private static final ThreadLocal<long[]> QUEUED = ThreadLocal.withInitial(() -> new long[2]);
+
+    private final ExecutorService delegate;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+
+    public AdmissionExecutor(ExecutorService delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Fixed pool of {@code threads} platform threads.
+     *
+     * @param maxQueued waiting tasks beyond which new ones are rejected on entry; 0 = unbounded
+     */
+    public AdmissionExecutor(int threads, int maxQueued) {
+        this.delegate = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                maxQueued > 0 ? new ArrayBlockingQueue<>(maxQueued) : new LinkedBlockingQueue<>(),
+                this::reject);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        queued.incrementAndGet();
+        delegate.execute(new Queued(task, System.nanoTime()));
+    }
+
+    private void reject(Runnable r, ThreadPoolExecutor pool) {
+        queued.decrementAndGet();
+        if (pool.isShutdown()) return;
+        run(((Queued) r).task, 0, true);
+    }
+
+    private void run(Runnable task, long queuedNanos, boolean rejected) {
+        running.incrementAndGet();
+        long[] slot = QUEUED.get();
+        slot[0] = queuedNanos;
+        slot[1] = rejected ? 1 : 0;
+        try {
+            task.run();
+        } finally {
+            slot[0] = 0;
+            slot[1] = 0;
+            running.decrementAndGet();
+        }
+    }
+
+    /** Time the task running on this thread spent queued; 0 outside an admission-executor task. */
+    public static long currentQueueNanos() {
+        return QUEUED.get()[0];
+    }
+
+    /** True while running a task that arrived at a full queue. */
+    public static boolean currentRejected() {
+        return QUEUED.get()[1] != 0;
+    }
+
+    public int queueDepth() {
+        return queued.get();
+    }
+
+    public int running() {
+        return running.get();
+    }
+
+    public void shutdownNow() {
+        delegate.shutdownNow();
+    }
+
+    private final class Queued implements Runnable {
+        final Runnable task;
+        final long enqueuedAt;
+
+        Queued(Runnable task, long enqueuedAt) {
+            this.task = task;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            AdmissionExecutor.this.run(task, System.nanoTime() - enqueuedAt, false);
+        }
+    }
+}
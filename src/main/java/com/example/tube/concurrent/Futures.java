@@ -0,0 +1,48 @@
+package com.example.tube.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Small helpers for moving between the blocking and {@link CompletableFuture} call styles
+ * without losing the original exception types that the HTTP layer maps to status codes.
+ */
+public final class Futures {
+
+    private Futures() {}
+
+    /** Runs {@code call} on the current thread and captures its result or failure in a future. */
+    public static <T> CompletableFuture<T> now(Supplier<T> call) {
+        try {
+            return CompletableFuture.completedFuture(call.get());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /** Waits for {@code f}, rethrowing the original runtime exception instead of a wrapper. */
+    public static <T> T join(CompletableFuture<T> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } catch (ExecutionException e) {
+            throw asRuntime(unwrap(e));
+        }
+    }
+
+    /** Strips {@link CompletionException} / {@link ExecutionException} layers. */
+    public static Throwable unwrap(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    public static RuntimeException asRuntime(Throwable t) {
+        return (t instanceof RuntimeException re) ? re : new CompletionException(t);
+    }
+}
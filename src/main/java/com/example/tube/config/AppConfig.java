@@ -3,6 +3,7 @@ package com.example.tube.config;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Map;
 import java.util.Properties;
 
 public final class AppConfig {
@@ -17,6 +18,12 @@ public final class AppConfig {
         }
     }
 
+    /** File values with {@code overrides} applied on top; -D and environment variables still take precedence. */
+    public AppConfig(String path, Map<String, String> overrides) {
+        this(path);
+        props.putAll(overrides);
+    }
+
     public String getString(String key) {
         return getString(key, null);
     }
@@ -30,4 +37,12 @@ public final class AppConfig {
     public int getInt(String key, int def) {
         return Integer.parseInt(getString(key, String.valueOf(def)));
     }
+
+    public double getDouble(String key, double def) {
+        return Double.parseDouble(getString(key, String.valueOf(def)));
+    }
+
+    public boolean getBoolean(String key, boolean def) {
+        return Boolean.parseBoolean(getString(key, String.valueOf(def)));
+    }
 }
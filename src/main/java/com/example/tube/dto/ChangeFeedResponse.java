@@ -0,0 +1,12 @@
+package com.example.tube.dto;
+
+import java.util.List;
+
+/**
+ * Changes after the client's version, up to {@code version}. With {@code resync} the client's
+ * version is no longer in the log (or unknown), {@code changes} is empty and {@code lines}
+ * holds the full current state instead; either way the client continues from {@code version}.
+ */
+public record ChangeFeedResponse(
+        long version, boolean resync,
+        List<LineStatusDelta> changes, List<LineStatusResponse> lines) {}
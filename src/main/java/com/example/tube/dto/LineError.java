@@ -0,0 +1,4 @@
+package com.example.tube.dto;
+
+/** Why one line of a batch request has no status; {@code status} is the HTTP code it would get on its own. */
+public record LineError(String lineId, int status, String error, String message) {}
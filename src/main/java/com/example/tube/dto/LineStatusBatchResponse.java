@@ -0,0 +1,6 @@
+package com.example.tube.dto;
+
+import java.util.List;
+
+/** Statuses for the requested lines that resolved, in request order, plus one entry per line that did not. */
+public record LineStatusBatchResponse(int count, List<LineStatusResponse> lines, List<LineError> errors) {}
@@ -0,0 +1,11 @@
+package com.example.tube.dto;
+
+import java.util.List;
+
+/**
+ * One line's new status as of {@code version} in the change feed; with {@code removed} the line
+ * left the upstream snapshot and {@code status} is null.
+ */
+public record LineStatusDelta(
+        long version, String lineId, String lineName, String status,
+        boolean disrupted, List<String> reasons, boolean removed) {}
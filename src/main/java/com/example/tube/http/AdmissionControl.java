@@ -0,0 +1,64 @@
+package com.example.tube.http;
+
+import com.example.tube.concurrent.AdmissionExecutor;
+import com.example.tube.otel.Metrics;
+
+import java.time.Duration;
+
+/**
+ * Decides, when a request handler starts, whether the server should do the work at all.
+ * <p>
+ * A request is shed if the executor rejected it on entry because its queue was full (see
+ * {@link AdmissionExecutor#AdmissionExecutor(int, int)}; it is answered without waiting in the
+ * queue), if it already waited in the queue past {@code queueDeadline} (its client has probably
+ * given up), or if more than {@code maxRunning} handlers are already running. Priority requests
+ * (health checks) are never shed.
+ */
+public final class AdmissionControl {
+
+    private final AdmissionExecutor executor;
+    private final long deadlineNanos;
+    private final int maxRunning;
+    private final int retryAfterSeconds;
+    private final Metrics metrics;
+
+    /**
+     * @param maxRunning 0 = no limit on concurrently running handlers
+     */
+    public AdmissionControl(AdmissionExecutor executor,
+                            Duration queueDeadline,
+                            int maxRunning,
+                            int retryAfterSeconds,
+                            Metrics metrics) {
+        this.executor = executor;
+        this.deadlineNanos = queueDeadline.toNanos();
+        this.maxRunning = maxRunning;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.metrics = metrics;
+    }
+
+    /** Admits everything and records nothing. */
+    public static AdmissionControl disabled() {
+        return new AdmissionControl(null, Duration.ZERO, 0, 1, null);
+    }
+
+    /** @return null to admit, otherwise the shed reason ("deadline", "queue" or "concurrency") */
+    String check(boolean priority) {
+        if (executor == null) return null;
+        long waited = AdmissionExecutor.currentQueueNanos();
+        metrics.serverQueueWaitMs.record(waited / 1_000_000.0);
+        if (priority) return null;
+
+        String reason = null;
+        if (AdmissionExecutor.currentRejected()) reason = "queue";
+        else if (deadlineNanos > 0 && waited > deadlineNanos) reason = "deadline";
+        else if (maxRunning > 0 && executor.running() > maxRunning) reason = "concurrency";
+
+        if (reason != null) metrics.httpShed.add(1, Metrics.reasonAttrs(reason));
+        return reason;
+    }
+
+    int retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.tube.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the serialized JSON for the most recent response object of each route key.
+ *
+ * <p>The service returns the same response instance for as long as its upstream data is
+ * unchanged, so an identity check is enough to decide whether the cached bytes (and ETag)
+ * are still valid. A new instance replaces the entry and is serialized once.
+ */
+final class BodyCache {
+    private static final int MAX_ENTRIES = 1000;
+
+    private record Entry(Object source, JsonBody body) {}
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    JsonBody body(String key, Object response) {
+        Entry e = entries.get(key);
+        if (e != null && e.source == response) return e.body;
+
+        return put(key, response);
+    }
+
+    /**
+     * For keys that determine the content, such as a change-feed delta between two versions:
+     * serialized once per key even though each request brings a new response instance.
+     */
+    JsonBody bodyForKey(String key, Object response) {
+        Entry e = entries.get(key);
+        return (e != null) ? e.body : put(key, response);
+    }
+
+    private JsonBody put(String key, Object response) {
+        JsonBody body = Json.serialize(response);
+        if (entries.size() >= MAX_ENTRIES) entries.clear(); // bounded; cheap to rebuild
+        entries.put(key, new Entry(response, body));
+        return body;
+    }
+}
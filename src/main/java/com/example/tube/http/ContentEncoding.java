@@ -0,0 +1,112 @@
+package com.example.tube.http;
+
+import com.example.tube.otel.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@code Accept-Encoding} negotiation and response compression using the JDK's zlib codecs.
+ *
+ * <p>Bodies smaller than the configured threshold are always sent uncompressed; for tiny
+ * payloads the header overhead and CPU cost outweigh the saving. One instance is created per
+ * service and shared by its {@link Router} and {@link Json}.
+ */
+public final class ContentEncoding {
+
+    public enum Coding {
+        IDENTITY(null), GZIP("gzip"), DEFLATE("deflate");
+
+        final String token;
+
+        Coding(String token) { this.token = token; }
+    }
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final int minBytes;
+    private final Metrics metrics;
+
+    public ContentEncoding(int minBytes, Metrics metrics) {
+        this.minBytes = minBytes;
+        this.metrics = metrics;
+    }
+
+    /** 1 KiB threshold, no metrics. */
+    public static ContentEncoding defaults() {
+        return new ContentEncoding(1024, Metrics.noop());
+    }
+
+    boolean worthCompressing(int length) {
+        return length >= minBytes;
+    }
+
+    /**
+     * Picks the coding to use for a response. gzip wins over deflate on equal weight;
+     * codings with {@code q=0} are never chosen. Identity is always acceptable here since
+     * we never answer 406.
+     */
+    static Coding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) return Coding.IDENTITY;
+
+        double gzip = -1, deflate = -1, any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String p = part.trim();
+            if (p.isEmpty()) continue;
+            int semi = p.indexOf(';');
+            String name = (semi < 0 ? p : p.substring(0, semi)).trim().toLowerCase(Locale.ROOT);
+            double q = (semi < 0) ? 1.0 : qValue(p.substring(semi + 1));
+            switch (name) {
+                case "gzip", "x-gzip" -> gzip = q;
+                case "deflate" -> deflate = q;
+                case "*" -> any = q;
+                default -> { }
+            }
+        }
+        if (gzip < 0) gzip = any;
+        if (deflate < 0) deflate = any;
+
+        if (gzip > 0 && gzip >= deflate) return Coding.GZIP;
+        if (deflate > 0) return Coding.DEFLATE;
+        return Coding.IDENTITY;
+    }
+
+    private static double qValue(String params) {
+        for (String param : params.split(";")) {
+            String kv = param.trim();
+            if (kv.startsWith("q=") || kv.startsWith("Q=")) {
+                try { return Double.parseDouble(kv.substring(2).trim()); }
+                catch (NumberFormatException e) { return 0; }
+            }
+        }
+        return 1.0;
+    }
+
+    /** Compresses {@code raw} with {@code coding}, recording ratio and CPU time. */
+    byte[] encode(byte[] raw, Coding coding) {
+        long cpuStart = cpuTimeNanos();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+        try (OutputStream out = (coding == Coding.GZIP) ? new GZIPOutputStream(buf) : new DeflaterOutputStream(buf)) {
+            out.write(raw);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory streams; not expected
+        }
+        byte[] encoded = buf.toByteArray();
+
+        var attrs = Metrics.encodingAttrs(coding.token);
+        metrics.compressionCpuMs.record((cpuTimeNanos() - cpuStart) / 1_000_000.0, attrs);
+        metrics.compressionRatio.record(encoded.length == 0 ? 1.0 : (double) raw.length / encoded.length, attrs);
+        return encoded;
+    }
+
+    private static long cpuTimeNanos() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.tube.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * One HTTP request/response as seen by {@link Router}, independent of the server engine.
+ * <p>
+ * A response is sent exactly once, from any thread (async routes complete on upstream
+ * threads); {@link #close()} releases the exchange and is safe to call after sending.
+ */
+public interface Exchange {
+
+    String method();
+
+    /** Request path, without the query string. */
+    String path();
+
+    /** Raw (undecoded) query string, or null. */
+    String rawQuery();
+
+    /** First value of a request header (case-insensitive name), or null. */
+    String requestHeader(String name);
+
+    InetSocketAddress remoteAddress();
+
+    void setResponseHeader(String name, String value);
+
+    /** Sends status, headers and {@code body}; a null body sends no body at all (e.g. 304). */
+    void send(int status, ByteBuffer body) throws IOException;
+
+    void close();
+
+    /**
+     * Sends status and headers without a length and returns the open body, for responses
+     * that are written over time. Instead of {@link #send}, not in addition to it.
+     */
+    ResponseStream stream(int status) throws IOException;
+
+    /** True if the engine writes direct buffers without copying (prefer {@link JsonBody#direct}). */
+    default boolean prefersDirectBuffers() {
+        return false;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.tube.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/** {@link ServerEngine} on the JDK's built-in {@link HttpServer}. */
+public final class JdkServerEngine implements ServerEngine {
+
+    static {
+        // HttpServer reads this once; without it small keep-alive responses sit behind Nagle + delayed ACK (~40 ms each)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private HttpServer server;
+
+    @Override
+    public synchronized int start(InetSocketAddress address, Handler handler, Executor executor) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/", ex -> handler.handle(new JdkExchange(ex)));
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (server != null) server.stop(0);
+        server = null;
+    }
+
+    private static final class JdkExchange implements Exchange {
+        private final HttpExchange ex;
+
+        JdkExchange(HttpExchange ex) {
+            this.ex = ex;
+        }
+
+        @Override public String method() { return ex.getRequestMethod(); }
+
+        @Override public String path() { return ex.getRequestURI().getPath(); }
+
+        @Override public String rawQuery() { return ex.getRequestURI().getRawQuery(); }
+
+        @Override public String requestHeader(String name) { return ex.getRequestHeaders().getFirst(name); }
+
+        @Override public InetSocketAddress remoteAddress() { return ex.getRemoteAddress(); }
+
+        @Override public void setResponseHeader(String name, String value) { ex.getResponseHeaders().set(name, value); }
+
+        @Override
+        public void send(int status, ByteBuffer body) throws IOException {
+            if (body == null || !body.hasRemaining()) { // 0 would mean chunked to HttpServer
+                ex.sendResponseHeaders(status, -1);
+                return;
+            }
+            ex.sendResponseHeaders(status, body.remaining());
+            try (OutputStream os = ex.getResponseBody()) {
+                if (body.hasArray()) {
+                    os.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+                } else {
+                    byte[] copy = new byte[body.remaining()];
+                    body.duplicate().get(copy);
+                    os.write(copy);
+                }
+            }
+        }
+
+        @Override
+        public ResponseStream stream(int status) throws IOException {
+            ex.sendResponseHeaders(status, 0); // chunked
+            OutputStream os = ex.getResponseBody();
+            return new ResponseStream() {
+                @Override
+                public void write(ByteBuffer data) throws IOException {
+                    if (data.hasArray()) {
+                        os.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                    } else {
+                        byte[] copy = new byte[data.remaining()];
+                        data.duplicate().get(copy);
+                        os.write(copy);
+                    }
+                    os.flush();
+                }
+
+                @Override
+                public void close() {
+                    try {
+                        os.close();
+                    } catch (IOException ignored) {
+                        // client already gone
+                    }
+                    ex.close();
+                }
+            };
+        }
+
+        @Override public void close() { ex.close(); }
+    }
+}
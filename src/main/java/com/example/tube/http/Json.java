@@ -1,37 +1,109 @@
 package com.example.tube.http;
 
 import com.example.tube.dto.ApiError;
+import com.example.tube.http.ContentEncoding.Coding;
+import com.example.tube.log.Log;
+import com.example.tube.log.Logger;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.sun.net.httpserver.HttpExchange;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 
+/**
+ * JSON serialization, plus response writing that compresses through the service's
+ * {@link ContentEncoding}.
+ */
 public class Json {
+    private static final Logger log = Log.get(Json.class);
     private static final ObjectMapper om = new ObjectMapper().findAndRegisterModules();
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final String TEXT = "text/plain; charset=utf-8";
 
-    public static void sendJson(HttpExchange ex, int status, Object body) {
+    private final ContentEncoding encoding;
+
+    public Json(ContentEncoding encoding) {
+        this.encoding = encoding;
+    }
+
+    public static JsonBody serialize(Object body) {
         try {
-            byte[] bytes = om.writeValueAsBytes(body);
-            ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
-            ex.sendResponseHeaders(status, bytes.length);
-            try (OutputStream os = ex.getResponseBody()) {
-                os.write(bytes);
-            }
-            System.out.println("Json.sendJson wrote " + bytes.length + " bytes status=" + status);
+            return new JsonBody(om.writeValueAsBytes(body));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void sendJson(Exchange ex, int status, Object body) {
+        try {
+            sendBytes(ex, status, JSON, om.writeValueAsBytes(body));
+        } catch (Exception e) {
+            log.error("Json.sendJson failed", e);
+            ex.close();
+        }
+    }
+
+    /** Sends a pre-serialized body with its ETag, using its cached compressed variant if negotiated. */
+    public void sendJson(Exchange ex, int status, JsonBody body) {
+        Coding coding = negotiate(ex);
+        byte[] encoded = body.encoded(coding, encoding);
+        if (encoded == null) coding = Coding.IDENTITY;
+        byte[] sent = encoded != null ? encoded : body.bytes();
+
+        ex.setResponseHeader("ETag", body.etag(coding));
+        write(ex, status, JSON, coding, ex.prefersDirectBuffers() ? body.direct(coding, sent) : ByteBuffer.wrap(sent));
+    }
+
+    /** 304 Not Modified: validator headers only, no body. */
+    public void sendNotModified(Exchange ex, JsonBody body) {
+        try {
+            Coding coding = negotiate(ex);
+            if (body.encoded(coding, encoding) == null) coding = Coding.IDENTITY;
+            ex.setResponseHeader("ETag", body.etag(coding));
+            ex.setResponseHeader("Vary", "Accept-Encoding");
+            ex.send(304, null);
+        } catch (IOException ioe) {
+            if (!isClientAbort(ioe)) log.error("Json.sendNotModified failed", ioe);
+        } finally {
+            ex.close();
+        }
+    }
+
+    /** Sends a body that is not cached; compressed per request when negotiated and large enough. */
+    private void sendBytes(Exchange ex, int status, String contentType, byte[] raw) {
+        Coding coding = negotiate(ex);
+        byte[] out = raw;
+        if (coding != Coding.IDENTITY && encoding.worthCompressing(raw.length)) {
+            byte[] encoded = encoding.encode(raw, coding);
+            if (encoded.length < raw.length) out = encoded;
+            else coding = Coding.IDENTITY;
+        } else {
+            coding = Coding.IDENTITY;
+        }
+        write(ex, status, contentType, coding, ByteBuffer.wrap(out));
+    }
+
+    private static Coding negotiate(Exchange ex) {
+        return ContentEncoding.negotiate(ex.requestHeader("Accept-Encoding"));
+    }
+
+    private static void write(Exchange ex, int status, String contentType, Coding coding, ByteBuffer body) {
+        try {
+            ex.setResponseHeader("Content-Type", contentType);
+            ex.setResponseHeader("Vary", "Accept-Encoding");
+            if (coding != Coding.IDENTITY) ex.setResponseHeader("Content-Encoding", coding.token);
+            int length = body.remaining();
+            ex.send(status, body);
+            if (log.isDebugEnabled()) log.debug("response written", "bytes", length, "status", status);
         } catch (IOException ioe) {
             // Client went away. Not a server bug.
             if (isClientAbort(ioe)) {
-                System.out.println("Client aborted connection while writing response (status=" + status + ")");
+                if (log.isDebugEnabled()) log.debug("client aborted connection while writing response", "status", status);
                 return;
             }
-            System.out.println("Json.sendJson FAILED: IOException: " + ioe.getMessage());
-            ioe.printStackTrace(System.out);
-        } catch (Exception e) {
-            System.out.println("Json.sendJson FAILED: " + e.getClass().getSimpleName() + ": " + e.getMessage());
-            e.printStackTrace(System.out);
+            log.error("Json.sendJson failed", ioe, "status", status);
         } finally {
             ex.close();
         }
@@ -48,21 +120,11 @@ public class Json {
 
 
 
-    public static void sendText(HttpExchange ex, int status, String text) {
-        try {
-            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
-            ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
-            ex.sendResponseHeaders(status, bytes.length);
-            try (OutputStream os = ex.getResponseBody()) {
-                os.write(bytes);
-            }
-        } catch (IOException ignored) {
-        } finally {
-            ex.close();
-        }
+    public void sendText(Exchange ex, int status, String text) {
+        sendBytes(ex, status, TEXT, text.getBytes(StandardCharsets.UTF_8));
     }
 
-    public static void sendError(HttpExchange ex, int status, String error, String message) {
-        sendJson(ex, status, new ApiError(Instant.now(), status, error, message, ex.getRequestURI().getPath()));
+    public void sendError(Exchange ex, int status, String error, String message) {
+        sendJson(ex, status, new ApiError(Instant.now(), status, error, message, ex.path()));
     }
 }
@@ -0,0 +1,106 @@
+package com.example.tube.http;
+
+import com.example.tube.http.ContentEncoding.Coding;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A response object serialized once to JSON, together with a strong ETag derived from
+ * the bytes. Instances are immutable and shared between requests.
+ *
+ * <p>Compressed variants are produced on first use and kept with the body, so each
+ * payload version is compressed at most once per coding. Each variant has its own strong
+ * ETag ({@code "<hash>-gzip"}), as required for different representations.
+ */
+public final class JsonBody {
+    private static final byte[] NOT_COMPRESSED = new byte[0];
+
+    private final byte[] bytes;
+    private final String hash;
+    private final String etag;
+
+    private volatile byte[] gzip;
+    private volatile byte[] deflate;
+    private final AtomicReferenceArray<ByteBuffer> direct = new AtomicReferenceArray<>(Coding.values().length);
+
+    JsonBody(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = hash(bytes);
+        this.etag = "\"" + hash + "\"";
+    }
+
+    public byte[] bytes() { return bytes; }
+
+    public String etag() { return etag; }
+
+    /** ETag of the representation sent with {@code coding}. */
+    public String etag(Coding coding) {
+        return (coding == Coding.IDENTITY) ? etag : "\"" + hash + "-" + coding.token + "\"";
+    }
+
+    /**
+     * The body encoded with {@code coding}, or null if it should go out uncompressed
+     * (below the size threshold, or compression would not make it smaller).
+     */
+    byte[] encoded(Coding coding, ContentEncoding encoding) {
+        if (coding == Coding.IDENTITY || !encoding.worthCompressing(bytes.length)) return null;
+
+        byte[] v = (coding == Coding.GZIP) ? gzip : deflate;
+        if (v == null) {
+            synchronized (this) {
+                v = (coding == Coding.GZIP) ? gzip : deflate;
+                if (v == null) {
+                    byte[] enc = encoding.encode(bytes, coding);
+                    v = (enc.length < bytes.length) ? enc : NOT_COMPRESSED;
+                    if (coding == Coding.GZIP) gzip = v; else deflate = v;
+                }
+            }
+        }
+        return (v == NOT_COMPRESSED) ? null : v;
+    }
+
+    /**
+     * Read-only direct copy of the bytes sent for {@code coding} ({@link #encoded} or the identity
+     * bytes), created once so engines that write direct buffers never copy the body per response.
+     * Callers must {@code duplicate()} before changing its position.
+     */
+    ByteBuffer direct(Coding coding, byte[] sent) {
+        ByteBuffer b = direct.get(coding.ordinal());
+        if (b == null) {
+            b = ByteBuffer.allocateDirect(sent.length).put(sent).flip().asReadOnlyBuffer();
+            if (!direct.compareAndSet(coding.ordinal(), null, b)) b = direct.get(coding.ordinal());
+        }
+        return b;
+    }
+
+    /**
+     * True if an {@code If-None-Match} header value matches any representation of this
+     * body. Uses the weak comparison required for GET (RFC 9110 13.1.2).
+     */
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            String t = tag.trim();
+            if (t.equals("*")) return true;
+            if (t.startsWith("W/")) t = t.substring(2);
+            if (t.length() < 2 || t.charAt(0) != '"' || t.charAt(t.length() - 1) != '"') continue;
+            String opaque = t.substring(1, t.length() - 1);
+            if (opaque.equals(hash)) return true;
+            if (opaque.startsWith(hash) && opaque.charAt(hash.length()) == '-') return true;
+        }
+        return false;
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return HexFormat.of().formatHex(digest, 0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // SHA-256 is mandatory on every JRE
+        }
+    }
+}
@@ -0,0 +1,561 @@
+package com.example.tube.http;
+
+import com.example.tube.log.Log;
+import com.example.tube.log.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server on a single NIO selector thread.
+ * <p>
+ * The selector thread accepts, reads into a pooled direct buffer per connection and parses the
+ * request head; the handler runs on the supplied executor. Responses are written by the handler
+ * thread with one gathering write of the serialized head plus the (usually cached, direct) body,
+ * and only a write that cannot complete immediately is handed back to the selector. Connections
+ * are persistent unless the client asks otherwise; pipelined requests are buffered and served in
+ * order, one at a time. Request bodies up to the buffer size are read and ignored (the API is
+ * GET-only); chunked request bodies are rejected. A streamed response ({@link Exchange#stream})
+ * has no length and ends when the connection closes; its writer parks until each write drains.
+ */
+public final class NioServerEngine implements ServerEngine {
+    private static final Logger log = Log.get(NioServerEngine.class);
+
+    static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED = 1024;
+    private static final long IDLE_TIMEOUT_NANOS = 30_000_000_000L;
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread loop;
+    private volatile boolean running;
+    private Handler handler;
+    private Executor executor;
+
+    private volatile long dateSecond;
+    private volatile byte[] dateHeader;
+
+    @Override
+    public synchronized int start(InetSocketAddress address, Handler handler, Executor executor) throws IOException {
+        this.handler = handler;
+        this.executor = executor;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        loop = Thread.ofPlatform().name("nio-selector").start(this::run);
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (selector != null) selector.wakeup();
+        try {
+            if (loop != null) loop.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long lastIdleSweep = System.nanoTime();
+        try {
+            while (running) {
+                selector.select(1000);
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) task.run();
+
+                var it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Conn c = (Conn) key.attachment();
+                    if (key.isWritable()) c.onWritable();
+                    if (key.isValid() && key.isReadable()) c.onReadable();
+                }
+
+                long now = System.nanoTime();
+                if (now - lastIdleSweep > 1_000_000_000L) {
+                    lastIdleSweep = now;
+                    for (SelectionKey key : selector.keys()) {
+                        if (key.attachment() instanceof Conn c) c.closeIfIdle(now);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("selector loop failed", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Conn c) c.close();
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = serverChannel.accept()) != null) {
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Conn c = new Conn(ch, acquireBuffer());
+            c.key = ch.register(selector, SelectionKey.OP_READ, c);
+        }
+    }
+
+    /** Runs {@code task} on the selector thread (interest-op changes from handler threads). */
+    private void onSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer b = pool.poll();
+        if (b == null) return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        pooled.decrementAndGet();
+        return b;
+    }
+
+    private void releaseBuffer(ByteBuffer b) {
+        b.clear();
+        if (pooled.incrementAndGet() <= MAX_POOLED) pool.add(b);
+        else pooled.decrementAndGet();
+    }
+
+    private byte[] dateHeader() {
+        long second = System.currentTimeMillis() / 1000;
+        byte[] h = dateHeader;
+        if (h == null || second != dateSecond) {
+            String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC));
+            h = ("Date: " + date + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            dateHeader = h;
+            dateSecond = second;
+        }
+        return h;
+    }
+
+    /** One client connection. All buffer and state changes happen under the connection's lock. */
+    private final class Conn {
+        final SocketChannel ch;
+        ByteBuffer in; // write mode: [0, position) holds unparsed bytes
+        SelectionKey key;
+        boolean inFlight;
+        boolean closed;
+        ByteBuffer[] pending;
+        boolean closeAfterPending;
+        boolean streaming;
+        CompletableFuture<Void> drained; // streaming: completes when pending has been written
+        long lastActive = System.nanoTime();
+
+        Conn(SocketChannel ch, ByteBuffer in) {
+            this.ch = ch;
+            this.in = in;
+        }
+
+        /** Selector thread. */
+        void onReadable() {
+            NioExchange next;
+            synchronized (this) {
+                if (closed) return;
+                int n;
+                try {
+                    n = ch.read(in);
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+                if (n < 0) {
+                    if (inFlight && !streaming) key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    else close();
+                    return;
+                }
+                lastActive = System.nanoTime();
+                if (inFlight) {
+                    if (!in.hasRemaining()) key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    return;
+                }
+                next = parseNext();
+            }
+            if (next != null) dispatch(next);
+        }
+
+        /** Selector thread. */
+        void onWritable() {
+            NioExchange next = null;
+            synchronized (this) {
+                if (closed || pending == null) return;
+                try {
+                    if (!writeFully(pending)) return;
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+                pending = null;
+                key.interestOps(SelectionKey.OP_READ);
+                if (streaming) {
+                    drained.complete(null);
+                    return;
+                }
+                next = completeResponse(closeAfterPending);
+            }
+            if (next != null) dispatch(next);
+        }
+
+        /** Handler thread: try to write the whole response now; leave the rest to the selector. */
+        void write(ByteBuffer[] buffers, boolean keepAlive) throws IOException {
+            NioExchange next;
+            synchronized (this) {
+                if (closed) return;
+                try {
+                    if (!writeFully(buffers)) {
+                        pending = buffers;
+                        closeAfterPending = !keepAlive;
+                        onSelector(() -> {
+                            if (key.isValid()) key.interestOps(SelectionKey.OP_WRITE);
+                        });
+                        return;
+                    }
+                } catch (IOException e) {
+                    close();
+                    throw e;
+                }
+                next = completeResponse(!keepAlive);
+            }
+            if (next != null) dispatch(next);
+        }
+
+        /** Handler or writer thread, streamed response: write now, or park (outside the lock) until the selector drains it. */
+        void writeStream(ByteBuffer[] buffers) throws IOException {
+            CompletableFuture<Void> wait;
+            synchronized (this) {
+                if (closed) throw new IOException("connection closed");
+                streaming = true;
+                try {
+                    if (writeFully(buffers)) return;
+                } catch (IOException e) {
+                    close();
+                    throw e;
+                }
+                pending = buffers;
+                drained = wait = new CompletableFuture<>();
+                onSelector(() -> {
+                    if (key.isValid()) key.interestOps(SelectionKey.OP_WRITE);
+                });
+            }
+            try {
+                wait.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IOException("interrupted while writing", e);
+            } catch (ExecutionException e) {
+                throw new IOException("connection closed", e.getCause());
+            }
+        }
+
+        private boolean writeFully(ByteBuffer[] buffers) throws IOException {
+            ByteBuffer last = buffers[buffers.length - 1];
+            while (last.hasRemaining()) {
+                if (ch.write(buffers) == 0) return false;
+            }
+            lastActive = System.nanoTime();
+            return true;
+        }
+
+        /** Response finished: close, or serve the next pipelined request, or resume reading. */
+        private NioExchange completeResponse(boolean close) {
+            if (close) {
+                close();
+                return null;
+            }
+            inFlight = false;
+            if (closed) return null;
+            NioExchange next = parseNext();
+            if (next == null && !closed && (key.interestOps() & SelectionKey.OP_READ) == 0) {
+                onSelector(() -> {
+                    if (key.isValid()) key.interestOps(SelectionKey.OP_READ);
+                });
+            }
+            return next;
+        }
+
+        private void dispatch(NioExchange ex) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        handler.handle(ex);
+                    } catch (Exception e) {
+                        log.error("handler failed", e);
+                        ex.close();
+                    }
+                });
+            } catch (RuntimeException e) {
+                close();
+            }
+        }
+
+        /**
+         * Parses one complete request head from the buffer (consuming it) or returns null if more
+         * bytes are needed. Malformed or oversized requests get an error response and close.
+         */
+        private NioExchange parseNext() {
+            int end = headEnd();
+            if (end < 0) {
+                if (!in.hasRemaining()) reject(431, "Request Header Fields Too Large");
+                return null;
+            }
+            String head = decodeAscii(0, end);
+            String[] lines = head.split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                reject(400, "Bad Request");
+                return null;
+            }
+
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) continue;
+                headers.putIfAbsent(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+            }
+
+            int consumed = end + 4;
+            if (headers.containsKey("transfer-encoding")) {
+                reject(501, "Not Implemented");
+                return null;
+            }
+            String length = headers.get("content-length");
+            if (length != null) {
+                long bodyLength;
+                try {
+                    bodyLength = Long.parseLong(length);
+                } catch (NumberFormatException e) {
+                    reject(400, "Bad Request");
+                    return null;
+                }
+                if (bodyLength < 0 || consumed + bodyLength > in.capacity()) {
+                    reject(413, "Content Too Large");
+                    return null;
+                }
+                if (consumed + bodyLength > in.position()) return null; // body not fully read yet
+                consumed += (int) bodyLength;
+            }
+
+            boolean http10 = requestLine[2].equals("HTTP/1.0");
+            String connection = headers.getOrDefault("connection", "");
+            boolean keepAlive = http10 ? connection.equalsIgnoreCase("keep-alive") : !connection.equalsIgnoreCase("close");
+
+            in.flip().position(consumed);
+            in.compact();
+            inFlight = true;
+
+            String target = requestLine[1];
+            int q = target.indexOf('?');
+            return new NioExchange(this, requestLine[0], q < 0 ? target : target.substring(0, q),
+                    q < 0 ? null : target.substring(q + 1), headers, keepAlive, http10);
+        }
+
+        private int headEnd() {
+            int limit = in.position();
+            for (int i = 3; i < limit; i++) {
+                if (in.get(i) == '\n' && in.get(i - 1) == '\r' && in.get(i - 2) == '\n' && in.get(i - 3) == '\r') return i - 3;
+            }
+            return -1;
+        }
+
+        private String decodeAscii(int from, int to) {
+            byte[] b = new byte[to - from];
+            in.get(from, b);
+            return new String(b, StandardCharsets.ISO_8859_1);
+        }
+
+        private void reject(int status, String reason) {
+            inFlight = true;
+            byte[] resp = ("HTTP/1.1 " + status + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            try {
+                ch.write(ByteBuffer.wrap(resp));
+            } catch (IOException ignored) {
+            }
+            close();
+        }
+
+        void closeIfIdle(long now) {
+            synchronized (this) {
+                if (!inFlight && pending == null && now - lastActive > IDLE_TIMEOUT_NANOS) close();
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                if (drained != null) drained.completeExceptionally(new IOException("connection closed"));
+                if (key != null) key.cancel();
+                try {
+                    ch.close();
+                } catch (IOException ignored) {
+                }
+                releaseBuffer(in);
+                in = null;
+            }
+        }
+    }
+
+    private final class NioExchange implements Exchange {
+        private final Conn conn;
+        private final String method;
+        private final String path;
+        private final String rawQuery;
+        private final Map<String, String> requestHeaders;
+        private final boolean keepAlive;
+        private final boolean http10;
+        private final List<String[]> responseHeaders = new ArrayList<>(8);
+        private volatile boolean sent;
+
+        NioExchange(Conn conn, String method, String path, String rawQuery,
+                    Map<String, String> requestHeaders, boolean keepAlive, boolean http10) {
+            this.conn = conn;
+            this.method = method;
+            this.path = path;
+            this.rawQuery = rawQuery;
+            this.requestHeaders = requestHeaders;
+            this.keepAlive = keepAlive;
+            this.http10 = http10;
+        }
+
+        @Override public String method() { return method; }
+
+        @Override public String path() { return path; }
+
+        @Override public String rawQuery() { return rawQuery; }
+
+        @Override public String requestHeader(String name) { return requestHeaders.get(name.toLowerCase()); }
+
+        @Override
+        public InetSocketAddress remoteAddress() {
+            try {
+                return (InetSocketAddress) conn.ch.getRemoteAddress();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public synchronized void setResponseHeader(String name, String value) {
+            for (String[] h : responseHeaders) {
+                if (h[0].equalsIgnoreCase(name)) {
+                    h[1] = value;
+                    return;
+                }
+            }
+            responseHeaders.add(new String[]{name, value});
+        }
+
+        @Override
+        public void send(int status, ByteBuffer body) throws IOException {
+            if (sent) throw new IllegalStateException("response already sent");
+            sent = true;
+
+            ByteBuffer head = head(status, body, keepAlive);
+            boolean withBody = body != null && body.hasRemaining() && !"HEAD".equals(method);
+            conn.write(withBody ? new ByteBuffer[]{head, body.duplicate()} : new ByteBuffer[]{head}, keepAlive);
+        }
+
+        @Override
+        public ResponseStream stream(int status) throws IOException {
+            if (sent) throw new IllegalStateException("response already sent");
+            sent = true;
+
+            conn.writeStream(new ByteBuffer[]{head(status, null, false)});
+            return new ResponseStream() {
+                @Override
+                public void write(ByteBuffer data) throws IOException {
+                    conn.writeStream(new ByteBuffer[]{data});
+                }
+
+                @Override
+                public void close() {
+                    conn.close();
+                }
+            };
+        }
+
+        /** Status line and headers; no Content-Length without a body (304, streams). */
+        private ByteBuffer head(int status, ByteBuffer body, boolean keepAlive) {
+            StringBuilder sb = new StringBuilder(256);
+            sb.append(http10 ? "HTTP/1.0 " : "HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+            synchronized (this) {
+                for (String[] h : responseHeaders) sb.append(h[0]).append(": ").append(h[1]).append("\r\n");
+            }
+            if (body != null) sb.append("Content-Length: ").append(body.remaining()).append("\r\n");
+            if (!keepAlive) sb.append("Connection: close\r\n");
+            else if (http10) sb.append("Connection: keep-alive\r\n");
+
+            byte[] date = dateHeader();
+            byte[] headBytes = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+            ByteBuffer head = ByteBuffer.allocate(headBytes.length + date.length + CRLF.length);
+            head.put(headBytes).put(date).put(CRLF).flip();
+            return head;
+        }
+
+        @Override
+        public void close() {
+            if (!sent) conn.close();
+        }
+
+        @Override
+        public boolean prefersDirectBuffers() {
+            return true;
+        }
+    }
+
+    private static String reason(int status) {
+        return switch (status) {
+            case 200 -> "OK";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 429 -> "Too Many Requests";
+            case 500 -> "Internal Server Error";
+            case 503 -> "Service Unavailable";
+            default -> "Status";
+        };
+    }
+}
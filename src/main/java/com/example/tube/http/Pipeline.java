@@ -0,0 +1,58 @@
+package com.example.tube.http;
+
+import com.example.tube.otel.Stage;
+
+import java.util.List;
+
+/**
+ * A route's handling as an explicit chain: filters run in order, each timed as its {@link Stage};
+ * a filter that has already answered (429, 400, ...) stops the chain, otherwise the terminal
+ * handler produces the response. Anything thrown goes to {@code onError}. The terminal's own
+ * stages (cache, upstream, map, serialize) are added to {@link RequestContext#stages} by the code
+ * that runs them.
+ */
+final class Pipeline {
+
+    /** Does its part and returns true to continue, or sends the response and returns false. */
+    @FunctionalInterface
+    interface Filter {
+        boolean apply(RequestContext req) throws Exception;
+    }
+
+    @FunctionalInterface
+    interface Handler {
+        void handle(RequestContext req) throws Exception;
+    }
+
+    @FunctionalInterface
+    interface ErrorHandler {
+        void handle(RequestContext req, Throwable t);
+    }
+
+    record Step(Stage stage, Filter filter) {}
+
+    private final Step[] steps;
+    private final Handler terminal;
+    private final ErrorHandler onError;
+
+    Pipeline(List<Step> steps, Handler terminal, ErrorHandler onError) {
+        this.steps = steps.toArray(new Step[0]);
+        this.terminal = terminal;
+        this.onError = onError;
+    }
+
+    void run(RequestContext req) {
+        try {
+            for (Step step : steps) {
+                req.enter(step.stage);
+                boolean proceed = step.filter.apply(req);
+                req.exit();
+                if (!proceed) return;
+            }
+            terminal.handle(req);
+        } catch (Throwable t) {
+            req.exit();
+            onError.handle(req, t);
+        }
+    }
+}
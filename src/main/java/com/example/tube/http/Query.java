@@ -1,15 +1,13 @@
 package com.example.tube.http;
 
-import java.net.URI;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Query {
-    public static Map<String, String> parse(URI uri) {
+    public static Map<String, String> parse(String q) {
         Map<String, String> out = new HashMap<>();
-        String q = uri.getRawQuery();
         if (q == null || q.isBlank()) return out;
         for (String pair : q.split("&")) {
             if (pair.isBlank()) continue;
@@ -19,5 +17,43 @@ public class Query {
         }
         return out;
     }
+
+    /**
+     * Value of the last {@code name} parameter in raw query {@code q} ("" if present without '='), or null.
+     * Scans in place; only the returned value is allocated (and decoded only if it contains escapes).
+     * Same result as {@code parse(q).get(name)}, including for escaped names and duplicate keys.
+     */
+    public static String get(String q, String name) {
+        if (q == null) return null;
+        String found = null;
+        int n = q.length();
+        int start = 0;
+        while (start < n) {
+            int amp = q.indexOf('&', start);
+            if (amp < 0) amp = n;
+            int eq = q.indexOf('=', start);
+            int keyEnd = (eq < 0 || eq > amp) ? amp : eq;
+            if (keyEnd - start == name.length() && q.startsWith(name, start)) {
+                found = keyEnd == amp ? "" : decRange(q, keyEnd + 1, amp);
+            } else if (keyEnd > start && needsDecode(q, start, keyEnd) && name.equals(decRange(q, start, keyEnd))) {
+                found = keyEnd == amp ? "" : decRange(q, keyEnd + 1, amp);
+            }
+            start = amp + 1;
+        }
+        return found;
+    }
+
+    private static String decRange(String q, int from, int to) {
+        return needsDecode(q, from, to) ? dec(q.substring(from, to)) : q.substring(from, to);
+    }
+
+    private static boolean needsDecode(String q, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = q.charAt(i);
+            if (c == '%' || c == '+') return true;
+        }
+        return false;
+    }
+
     private static String dec(String s) { return URLDecoder.decode(s, StandardCharsets.UTF_8); }
 }
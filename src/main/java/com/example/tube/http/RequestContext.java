@@ -0,0 +1,98 @@
+package com.example.tube.http;
+
+import com.example.tube.otel.Stage;
+import com.example.tube.otel.StageTimer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * One request moving through a {@link Pipeline}: the exchange, path variables, values parsed by
+ * earlier filters and per-stage timings. Times the request from dispatch to {@link #send} (the
+ * socket write is the {@link Stage#WRITE} stage) and records it once into its {@link RouteMetrics},
+ * wherever the response is sent from (handler thread or an upstream completion).
+ */
+final class RequestContext implements Exchange {
+    private final Exchange ex;
+    private final RouteMetrics route;
+    private final long start = System.nanoTime();
+
+    final String[] vars;
+    final StageTimer stages = new StageTimer();
+
+    // the pipeline stage running now, closed by exit() or by a filter answering the request itself
+    private Stage open;
+    private long openedAt;
+
+    // set by the line-status parse filters
+    String lineId;
+    List<String> lineIds;
+    LocalDate from;
+    LocalDate to;
+
+    // set by the change-feed parse filter
+    long since;
+
+    RequestContext(Exchange ex, String[] vars, RouteMetrics route) {
+        this.ex = ex;
+        this.vars = vars;
+        this.route = route;
+    }
+
+    void enter(Stage stage) {
+        open = stage;
+        openedAt = System.nanoTime();
+    }
+
+    void exit() {
+        if (open == null) return;
+        stages.add(open, System.nanoTime() - openedAt);
+        open = null;
+    }
+
+    @Override public String method() { return ex.method(); }
+
+    @Override public String path() { return ex.path(); }
+
+    @Override public String rawQuery() { return ex.rawQuery(); }
+
+    @Override public String requestHeader(String name) { return ex.requestHeader(name); }
+
+    @Override public InetSocketAddress remoteAddress() { return ex.remoteAddress(); }
+
+    @Override public void setResponseHeader(String name, String value) { ex.setResponseHeader(name, value); }
+
+    @Override public boolean prefersDirectBuffers() { return ex.prefersDirectBuffers(); }
+
+    @Override
+    public void send(int status, ByteBuffer body) throws IOException {
+        exit();
+        long writeStart = System.nanoTime();
+        try {
+            ex.send(status, body);
+        } finally {
+            long end = System.nanoTime();
+            stages.add(Stage.WRITE, end - writeStart);
+            route.record(ex.method(), status, end - start, stages);
+        }
+    }
+
+    /** Recorded when the stream opens; how long it then stays open is not request latency. */
+    @Override
+    public ResponseStream stream(int status) throws IOException {
+        exit();
+        long writeStart = System.nanoTime();
+        try {
+            return ex.stream(status);
+        } finally {
+            long end = System.nanoTime();
+            stages.add(Stage.WRITE, end - writeStart);
+            route.record(ex.method(), status, end - start, stages);
+        }
+    }
+
+    @Override public void close() { ex.close(); }
+}
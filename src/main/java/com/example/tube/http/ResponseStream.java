@@ -0,0 +1,18 @@
+package com.example.tube.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An open, unbounded response body (e.g. Server-Sent Events) from {@link Exchange#stream}.
+ * Writes are not thread-safe; one writer at a time. A write may park the calling thread until
+ * the client has taken the bytes, so write from a thread that may block (virtual threads).
+ */
+public interface ResponseStream {
+
+    /** Writes and flushes {@code data}; throws once the client has gone away. */
+    void write(ByteBuffer data) throws IOException;
+
+    /** Ends the response and releases the connection; safe to call more than once. */
+    void close();
+}
@@ -0,0 +1,51 @@
+package com.example.tube.http;
+
+import com.example.tube.otel.Metrics;
+import com.example.tube.otel.Stage;
+import com.example.tube.otel.StageTimer;
+import com.example.tube.slo.RouteRecorder;
+import io.opentelemetry.api.common.Attributes;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Everything recorded for one route, with the metric {@link Attributes} built once: per stage up
+ * front, and per GET status code on first use. Other methods (405 paths) build theirs per request.
+ */
+final class RouteMetrics {
+    private static final Stage[] STAGES = Stage.values();
+
+    final String route;
+    private final RouteRecorder recorder;
+    private final Metrics metrics;
+    private final Attributes[] stageAttrs = new Attributes[STAGES.length];
+    private final AtomicReferenceArray<Attributes> getAttrs = new AtomicReferenceArray<>(600);
+
+    RouteMetrics(String route, RouteRecorder recorder, Metrics metrics) {
+        this.route = route;
+        this.recorder = recorder;
+        this.metrics = metrics;
+        for (Stage s : STAGES) stageAttrs[s.ordinal()] = Metrics.stageAttrs(route, s);
+    }
+
+    void record(String method, int status, long nanos, StageTimer stages) {
+        recorder.record(status, nanos);
+
+        Attributes attrs = httpAttrs(method, status);
+        metrics.httpRequests.add(1, attrs);
+        metrics.httpLatencyMs.record(nanos / 1_000_000.0, attrs);
+        for (Stage s : STAGES) {
+            if (stages.ran(s)) metrics.stageLatencyMs.record(stages.get(s) / 1_000_000.0, stageAttrs[s.ordinal()]);
+        }
+    }
+
+    private Attributes httpAttrs(String method, int status) {
+        if (!"GET".equals(method) || status < 0 || status >= 600) return Metrics.httpAttrs(route, method, status);
+        Attributes a = getAttrs.get(status);
+        if (a == null) {
+            a = Metrics.httpAttrs(route, method, status);
+            getAttrs.set(status, a); // racing threads build equal values
+        }
+        return a;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.tube.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Path patterns such as {@code /api/line/{lineId}/status}, compiled once into literal and
+ * variable segments. Matching walks the request path with {@code indexOf}/{@code regionMatches}
+ * (no split, no regex); the only allocations on a match are the captured variables.
+ * <p>
+ * Literal segments compare case-insensitively; routes are tried in registration order.
+ */
+final class RouteTable {
+
+    @FunctionalInterface
+    interface Handler {
+        void handle(Exchange ex, String[] vars) throws IOException;
+    }
+
+    private static final String[] NO_VARS = new String[0];
+
+    /** {@code segments[i] == null} marks a path variable. */
+    private record Route(String[] segments, int vars, Handler handler) {}
+
+    private final List<Route> routes = new ArrayList<>();
+
+    RouteTable add(String pattern, Handler handler) {
+        if (!pattern.startsWith("/")) throw new IllegalArgumentException("pattern must start with '/': " + pattern);
+        String[] segments = pattern.substring(1).split("/", -1);
+        int vars = 0;
+        for (int i = 0; i < segments.length; i++) {
+            String s = segments[i];
+            if (s.startsWith("{") && s.endsWith("}")) { segments[i] = null; vars++; }
+            else if (s.isEmpty() || s.indexOf('{') >= 0) throw new IllegalArgumentException("bad segment in " + pattern);
+        }
+        routes.add(new Route(segments, vars, handler));
+        return this;
+    }
+
+    /** Runs the first matching route's handler; returns false if no route matched. */
+    boolean dispatch(Exchange ex) throws IOException {
+        String path = ex.path();
+        for (int i = 0, n = routes.size(); i < n; i++) {
+            Route r = routes.get(i);
+            String[] vars = match(r, path);
+            if (vars != null) {
+                r.handler.handle(ex, vars);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] match(Route r, String path) {
+        int n = path.length();
+        int pos = 0;
+        int start0 = -1, end0 = -1; // first variable, captured by offset so a failed match allocates nothing
+        String[] vars = null;
+        int v = 0;
+
+        for (String lit : r.segments) {
+            if (pos >= n || path.charAt(pos) != '/') return null;
+            pos++;
+            int end = path.indexOf('/', pos);
+            if (end < 0) end = n;
+            if (lit == null) {
+                if (end == pos) return null;
+                if (v == 0) { start0 = pos; end0 = end; }
+                else {
+                    if (vars == null) vars = new String[r.vars];
+                    vars[v] = path.substring(pos, end);
+                }
+                v++;
+            } else if (end - pos != lit.length() || !path.regionMatches(true, pos, lit, 0, lit.length())) {
+                return null;
+            }
+            pos = end;
+        }
+        if (pos != n) return null;
+        if (r.vars == 0) return NO_VARS;
+        if (vars == null) vars = new String[r.vars];
+        vars[0] = path.substring(start0, end0);
+        return vars;
+    }
+}
@@ -1,168 +1,370 @@
 package com.example.tube.http;
 
-import com.example.tube.dto.LineStatusResponse;
-import com.example.tube.dto.UnplannedDisruptionsResponse;
+import com.example.tube.concurrent.Futures;
+import com.example.tube.dto.ChangeFeedResponse;
 import com.example.tube.errors.BadRequestException;
 import com.example.tube.errors.UpstreamUnavailableException;
-import com.example.tube.ratelimit.IpRateLimiter;
+import com.example.tube.log.Log;
+import com.example.tube.log.Logger;
+import com.example.tube.ratelimit.RateLimitDecision;
+import com.example.tube.ratelimit.RateLimiterBackend;
 import com.example.tube.resilience.HttpStatusException;
+import com.example.tube.service.LineStatusChanges;
 import com.example.tube.service.TubeStatusService;
-import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpServer;
+import com.example.tube.slo.SloMonitor;
 import com.example.tube.otel.Metrics;
-import io.opentelemetry.api.common.Attributes;
+import com.example.tube.otel.Stage;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.time.LocalDate;
-import java.time.format.DateTimeParseException;
-import java.util.Map;
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class Router {
+    private static final Logger log = Log.get(Router.class);
+    private static final String[] NO_VARS = new String[0];
+
     private final TubeStatusService service;
-    private final IpRateLimiter limiter;
-    private final int rateLimitWindowSeconds;
+    private final RateLimiterBackend limiter;
     private final Metrics metrics;
+    private final AdmissionControl admission;
+    private final SloMonitor slo;
+    private final LineStatusChanges changes; // null = no change source (snapshot mode off)
+    private final StatusEventStream events;  // null = no change source or streaming disabled
+    private final Json json;
+    private final BodyCache bodies = new BodyCache();
+    private final RouteTable routes;
+    private final RouteMetrics unmatched;
 
     public Router(TubeStatusService service,
-                  IpRateLimiter limiter,
-                  int rateLimitWindowSeconds,
+                  RateLimiterBackend limiter,
                   Metrics metrics
+    ) {
+        this(service, limiter, metrics, AdmissionControl.disabled());
+    }
+
+    public Router(TubeStatusService service,
+                  RateLimiterBackend limiter,
+                  Metrics metrics,
+                  AdmissionControl admission
+    ) {
+        this(service, limiter, metrics, admission, SloMonitor.defaults());
+    }
+
+    public Router(TubeStatusService service,
+                  RateLimiterBackend limiter,
+                  Metrics metrics,
+                  AdmissionControl admission,
+                  SloMonitor slo
+    ) {
+        this(service, limiter, metrics, admission, slo, null, null);
+    }
+
+    public Router(TubeStatusService service,
+                  RateLimiterBackend limiter,
+                  Metrics metrics,
+                  AdmissionControl admission,
+                  SloMonitor slo,
+                  LineStatusChanges changes,
+                  StatusEventStream events
+    ) {
+        this(service, limiter, metrics, admission, slo, changes, events, ContentEncoding.defaults());
+    }
+
+    public Router(TubeStatusService service,
+                  RateLimiterBackend limiter,
+                  Metrics metrics,
+                  AdmissionControl admission,
+                  SloMonitor slo,
+                  LineStatusChanges changes,
+                  StatusEventStream events,
+                  ContentEncoding encoding
     ) {
         this.service = service;
         this.limiter = limiter;
-        this.rateLimitWindowSeconds = rateLimitWindowSeconds;
         this.metrics = metrics;
+        this.admission = admission;
+        this.slo = slo;
+        this.changes = changes;
+        this.events = events;
+        this.json = new Json(encoding);
+
+        Pipeline.Step admit = new Pipeline.Step(Stage.ADMISSION, this::admit);
+        Pipeline.Step rateLimit = new Pipeline.Step(Stage.RATE_LIMIT, this::rateLimit);
+        Pipeline.Step getOnly = new Pipeline.Step(Stage.PARSE, this::getOnly);
+
+        this.routes = new RouteTable()
+                .add("/healthz", route("/healthz", false, this::healthz,
+                        new Pipeline.Step(Stage.ADMISSION, req -> { admission.check(true); return true; }),
+                        rateLimit))
+                .add("/debug/slo", route("/debug/slo", false, req -> json.sendJson(req, 200, slo.report()),
+                        rateLimit, getOnly))
+                .add("/api/disruptions/unplanned", route("/api/disruptions/unplanned", true, this::unplanned,
+                        admit, rateLimit, getOnly))
+                .add("/api/line/{lineId}/status", route("/api/line/{lineId}/status", true, this::lineStatus,
+                        admit, rateLimit, new Pipeline.Step(Stage.PARSE, this::parseLineStatus)))
+                .add("/api/lines/status", route("/api/lines/status", true, this::linesStatus,
+                        admit, rateLimit, new Pipeline.Step(Stage.PARSE, this::parseLinesStatus)))
+                .add("/api/stream/status", route("/api/stream/status", false, this::streamStatus,
+                        admit, rateLimit, getOnly))
+                .add("/api/changes", route("/api/changes", true, this::changesSince,
+                        admit, rateLimit, new Pipeline.Step(Stage.PARSE, this::parseSince)));
+        this.unmatched = new RouteMetrics("unmatched", slo.route("unmatched", false), metrics);
     }
 
-    public void register(HttpServer server) {
-        server.createContext("/healthz", this::healthz);
-        server.createContext("/api/disruptions/unplanned", this::unplanned);
-        server.createContext("/api/line", this::lineRoutes); // /api/line/{id}/status
+    /**
+     * Builds {@code route} as filters then {@code terminal}, each request getting a
+     * {@link RequestContext} that records it; {@code countsTowardSlo} for API routes.
+     */
+    private RouteTable.Handler route(String route, boolean countsTowardSlo, Pipeline.Handler terminal, Pipeline.Step... steps) {
+        RouteMetrics rm = new RouteMetrics(route, slo.route(route, countsTowardSlo), metrics);
+        Pipeline pipeline = new Pipeline(List.of(steps), terminal, this::sendFailure);
+        return (ex, vars) -> pipeline.run(new RequestContext(ex, vars, rm));
     }
 
-    private void healthz(HttpExchange ex) throws IOException {
-        long start = System.nanoTime();
-        int status = 200;
-        String route = "/healthz";
+    /** Entry point for every {@link ServerEngine}; dispatches on the request path. */
+    public void handle(Exchange ex) throws IOException {
+        if (routes.dispatch(ex)) return;
 
-        try {
-            if (!rateLimit(ex)) { status = 429; return; }
-            metrics.rateLimited.add(1);
-            Json.sendText(ex, 200, "ok");
-        } catch (Exception e) {
-            status = 500;
-            Json.sendError(ex, 500, "Internal Server Error", e.getMessage());
-        } finally {
-            double ms = (System.nanoTime() - start) / 1_000_000.0;
-            var attrs = Metrics.httpAttrs(route, ex.getRequestMethod(), status);
-            metrics.httpRequests.add(1, attrs);
-            metrics.httpLatencyMs.record(ms, attrs);
+        ex = new RequestContext(ex, NO_VARS, unmatched);
+        String path = ex.path();
+        if (path.startsWith("/api/line")) {
+            json.sendError(ex, 404, "Not Found", "Expected /api/line/{lineId}/status");
+        } else {
+            json.sendError(ex, 404, "Not Found", "No route for " + path);
         }
     }
 
+    private void healthz(RequestContext req) {
+        json.sendText(req, 200, "ok");
+    }
 
-    private void unplanned(HttpExchange ex) throws IOException {
-        if (!rateLimit(ex)) return;
-        if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) { Json.sendError(ex, 405, "Method Not Allowed", "Only GET"); return; }
-        try {
-            UnplannedDisruptionsResponse r = service.getAllUnplannedDisruptions();
-            Json.sendJson(ex, 200, r);
-        } catch (UpstreamUnavailableException e) {
-            Json.sendError(ex, 503, "Service Unavailable", e.getMessage());
-        } catch (Exception e) {
-            Json.sendError(ex, 500, "Internal Server Error", e.getMessage());
+    private void unplanned(RequestContext req) {
+        respond(req, "unplanned", service.getAllUnplannedDisruptionsAsync(req.stages));
+    }
+
+    private void lineStatus(RequestContext req) {
+        respond(req, "line/" + req.lineId + "/" + req.from + "/" + req.to,
+                service.getLineStatusAsync(req.lineId, req.from, req.to, req.stages));
+    }
+
+    private void linesStatus(RequestContext req) {
+        respond(req, "lines/" + String.join(",", req.lineIds) + "/" + req.from + "/" + req.to,
+                service.getLinesStatusAsync(req.lineIds, req.from, req.to, req.stages));
+    }
+
+    /** Deltas since the client's version, or a resync with the full state; up-to-date polls revalidate with 304. */
+    private void changesSince(RequestContext req) {
+        if (changes == null) {
+            json.sendError(req, 503, "Service Unavailable", "Change feed needs snapshot mode (snapshot.enabled=true)");
+            return;
+        }
+        ChangeFeedResponse r = changes.since(req.since);
+        if (r.resync() || r.changes().isEmpty()) {
+            // keyed by kind, not by the client's since: up-to-date and resync responses are shared per version
+            respond(req, r.resync() ? "changes/resync" : "changes/current", false, CompletableFuture.completedFuture(r));
+        } else {
+            // a new instance per poll, but the same content for the same since and version
+            respond(req, "changes/" + req.since + "/" + r.version(), true, CompletableFuture.completedFuture(r));
+        }
+    }
+
+    /** Server-Sent Events: current state, then every line status change as it is detected. */
+    private void streamStatus(RequestContext req) throws IOException {
+        if (events == null) {
+            json.sendError(req, 503, "Service Unavailable", "Status stream needs snapshot mode (snapshot.enabled=true)");
+            return;
+        }
+        if (!events.subscribe(req)) {
+            req.setResponseHeader("Retry-After", "5");
+            json.sendError(req, 503, "Service Unavailable", "Too many event-stream connections; retry later");
+        }
+    }
+
+    private boolean getOnly(RequestContext req) {
+        if ("GET".equalsIgnoreCase(req.method())) return true;
+        json.sendError(req, 405, "Method Not Allowed", "Only GET");
+        return false;
+    }
+
+    /** GET only, a valid line id and optional from/to dates (a bad date throws {@link BadRequestException}). */
+    private boolean parseLineStatus(RequestContext req) {
+        if (!getOnly(req)) return false;
+        String lineId = req.vars[0];
+        if (!TubeStatusService.isLineId(lineId)) {
+            json.sendError(req, 400, "Bad Request", "lineId must be like 'central'");
+            if (log.isDebugEnabled()) log.debug("response sent", "status", 400);
+            return false;
         }
+
+        String query = req.rawQuery();
+        req.lineId = lineId;
+        req.from = parseDate(Query.get(query, "from"));
+        req.to = parseDate(Query.get(query, "to"));
+        return true;
     }
 
-    private void lineRoutes(HttpExchange ex) throws IOException {
+    /** GET only; {@code since} is the last version the client has seen, 0 (or absent) for none. */
+    private boolean parseSince(RequestContext req) {
+        if (!getOnly(req)) return false;
+        String since = Query.get(req.rawQuery(), "since");
         try {
-            if (!rateLimit(ex)) return;
-            if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) {
-                Json.sendError(ex, 405, "Method Not Allowed", "Only GET supported");
-                System.out.println("RESP 405 sent");
-                return;
-            }
-            String[] parts = ex.getRequestURI().getPath().split("/");
-            if (parts.length < 5) {
-                Json.sendError(ex, 404, "Not Found", "Expected /api/line/{lineId}/status");
-                System.out.println("RESP 404 sent");
-                return;
-            }
+            req.since = (since == null || since.isBlank()) ? 0 : Long.parseLong(since);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("since must be a version number");
+        }
+        return true;
+    }
 
-            String lineId = parts[3];
-            String tail = parts[4];
-            if (!"status".equalsIgnoreCase(tail)) {
-                Json.sendError(ex, 404, "Not Found", "Expected /api/line/{lineId}/status");
-                System.out.println("RESP 404 sent");
-                return;
-            }
-            if (!lineId.matches("^[a-z0-9-]+$")) {
-                Json.sendError(ex, 400, "Bad Request", "lineId must be like 'central'");
-                System.out.println("RESP 400 sent");
-                return;
+    /**
+     * GET only, {@code ids} as a comma-separated list of at most {@link TubeStatusService#MAX_BATCH_LINES}
+     * distinct ids, and optional from/to dates. Malformed ids are left for the service to report per line.
+     */
+    private boolean parseLinesStatus(RequestContext req) {
+        if (!getOnly(req)) return false;
+
+        String query = req.rawQuery();
+        String ids = Query.get(query, "ids");
+        List<String> lineIds = new ArrayList<>();
+        if (ids != null) {
+            for (String id : ids.split(",")) {
+                id = id.trim();
+                if (!id.isEmpty() && !lineIds.contains(id)) lineIds.add(id);
             }
+        }
+        if (lineIds.isEmpty()) {
+            json.sendError(req, 400, "Bad Request", "ids is required, e.g. ids=central,victoria");
+            return false;
+        }
+        if (lineIds.size() > TubeStatusService.MAX_BATCH_LINES) {
+            json.sendError(req, 400, "Bad Request", "At most " + TubeStatusService.MAX_BATCH_LINES + " line ids per request");
+            return false;
+        }
+
+        req.lineIds = lineIds;
+        req.from = parseDate(Query.get(query, "from"));
+        req.to = parseDate(Query.get(query, "to"));
+        return true;
+    }
 
-            Map<String, String> q = Query.parse(ex.getRequestURI());
-            LocalDate from = parseDate(q.get("from"));
-            LocalDate to = parseDate(q.get("to"));
+    /**
+     * Completes the exchange when {@code result} completes. In blocking mode the future is
+     * already done and this runs inline; in async mode it runs on the completing thread and
+     * the handler thread has long been released.
+     */
+    private void respond(RequestContext req, String bodyKey, CompletableFuture<?> result) {
+        respond(req, bodyKey, false, result);
+    }
 
+    /** As above; {@code keyIdentifiesBody} when every response for {@code bodyKey} has the same content. */
+    private void respond(RequestContext req, String bodyKey, boolean keyIdentifiesBody, CompletableFuture<?> result) {
+        result.whenComplete((r, err) -> {
+            if (err != null) {
+                sendFailure(req, Futures.unwrap(err));
+                return;
+            }
             try {
-                LineStatusResponse r = service.getLineStatus(lineId, from, to);
-                Json.sendJson(ex, 200, r);
-            } catch (HttpStatusException hs) {
-                int code = hs.statusCode();
-                int outCode = (code >= 400 && code < 500) ? 400 : 503;
-                Json.sendError(ex, outCode, outCode == 400 ? "Bad Request" : "Service Unavailable", hs.getMessage());
-                System.out.println("RESP " + outCode + " sent (HttpStatusException)");
-            } catch (UpstreamUnavailableException e) {
-                Json.sendError(ex, 503, "Service Unavailable", e.getMessage());
-                System.out.println("RESP 503 sent (UpstreamUnavailableException)");
-            } catch (BadRequestException e) {
-                Json.sendError(ex, 400, "Bad Request", e.getMessage());
-                System.out.println("RESP 400 sent (BadRequestException)");
+                long start = System.nanoTime();
+                JsonBody body = keyIdentifiesBody ? bodies.bodyForKey(bodyKey, r) : bodies.body(bodyKey, r);
+                req.stages.add(Stage.SERIALIZE, System.nanoTime() - start);
+                sendCached(req, body);
             } catch (Exception e) {
-                Json.sendError(ex, 500, "Internal Server Error", e.getMessage());
-                System.out.println("RESP 500 sent (Exception)");
+                sendFailure(req, e);
             }
-        } catch (Throwable t) {
-            Json.sendError(
-                    ex,
-                    500,
-                    "Internal Server Error",
-                    t.getClass().getSimpleName() + ": " + t.getMessage()
-            );
-            System.out.println("RESP 500 sent (Throwable)");
+        });
+    }
+
+    private void sendFailure(Exchange ex, Throwable t) {
+        if (t instanceof HttpStatusException hs) {
+            int code = hs.statusCode();
+            int outCode = (code >= 400 && code < 500) ? 400 : 503;
+            json.sendError(ex, outCode, outCode == 400 ? "Bad Request" : "Service Unavailable", hs.getMessage());
+            if (log.isDebugEnabled()) log.debug("response sent", "status", outCode, "cause", "HttpStatusException");
+        } else if (t instanceof UpstreamUnavailableException) {
+            json.sendError(ex, 503, "Service Unavailable", t.getMessage());
+            if (log.isDebugEnabled()) log.debug("response sent", "status", 503, "cause", "UpstreamUnavailableException");
+        } else if (t instanceof BadRequestException) {
+            json.sendError(ex, 400, "Bad Request", t.getMessage());
+            if (log.isDebugEnabled()) log.debug("response sent", "status", 400, "cause", "BadRequestException");
+        } else if (t instanceof Exception) {
+            json.sendError(ex, 500, "Internal Server Error", t.getMessage());
+            log.error("unhandled exception", t, "status", 500);
+        } else {
+            json.sendError(ex, 500, "Internal Server Error", t.getClass().getSimpleName() + ": " + t.getMessage());
+            log.error("unhandled throwable", t, "status", 500);
         }
+    }
 
+    /** 200 with the pre-serialized body, or 304 if the client already holds this version. */
+    private void sendCached(Exchange ex, JsonBody body) {
+        if (body.matches(ex.requestHeader("If-None-Match"))) {
+            json.sendNotModified(ex, body);
+        } else {
+            json.sendJson(ex, 200, body);
+        }
     }
 
-    private LocalDate parseDate(String s) {
+    /** Strict yyyy-MM-dd (same dates {@link LocalDate#parse} accepts for 4-digit years), or null if absent. */
+    static LocalDate parseDate(String s) {
         if (s == null || s.isBlank()) return null;
-        try { return LocalDate.parse(s); }
-        catch (DateTimeParseException e) { throw new BadRequestException("Invalid date. Use yyyy-MM-dd"); }
+        if (s.length() == 10 && s.charAt(4) == '-' && s.charAt(7) == '-') {
+            int y = digits(s, 0, 4), m = digits(s, 5, 7), d = digits(s, 8, 10);
+            if (y >= 0 && m >= 0 && d >= 0) {
+                try { return LocalDate.of(y, m, d); }
+                catch (DateTimeException ignored) { /* e.g. 2024-02-30 */ }
+            }
+        }
+        throw new BadRequestException("Invalid date. Use yyyy-MM-dd");
+    }
+
+    private static int digits(String s, int from, int to) {
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
     }
 
-    private boolean rateLimit(HttpExchange ex) throws IOException {
-        String key = clientIp(ex);
-        boolean allowed = limiter.allow(key);
+    /** Sheds the request with 503 + Retry-After if admission control says the server is overloaded. */
+    private boolean admit(RequestContext ex) {
+        String reason = admission.check(false);
+        if (reason == null) return true;
+
+        ex.setResponseHeader("Retry-After", String.valueOf(admission.retryAfterSeconds()));
+        json.sendError(ex, 503, "Service Unavailable", "Server overloaded (" + reason + "); retry later");
+        return false;
+    }
 
-        if (allowed) {
+    private boolean rateLimit(RequestContext ex) {
+        RateLimitDecision d = limiter.tryAcquire(clientIp(ex));
+
+        ex.setResponseHeader("X-RateLimit-Limit", String.valueOf(d.limit()));
+        ex.setResponseHeader("X-RateLimit-Remaining", String.valueOf(d.remaining()));
+        ex.setResponseHeader("X-RateLimit-Reset", String.valueOf(d.resetSeconds()));
+
+        if (d.allowed()) {
             return true;
         }
 
-        ex.getResponseHeaders().set("Retry-After", String.valueOf(rateLimitWindowSeconds));
-        ex.getResponseHeaders().set("X-RateLimit-Remaining", "0");
-
-        Json.sendError(ex, 429, "Too Many Requests", "Rate limit exceeded");
+        metrics.rateLimited.add(1);
+        ex.setResponseHeader("Retry-After", String.valueOf(d.retryAfterSeconds()));
+        json.sendError(ex, 429, "Too Many Requests", "Rate limit exceeded");
         return false;
     }
 
 
-    private String clientIp(HttpExchange ex) {
-        String xff = ex.getRequestHeaders().getFirst("X-Forwarded-For");
-        if (xff != null && !xff.isBlank()) return xff.split(",")[0].trim();
-        InetSocketAddress remote = ex.getRemoteAddress();
+    private String clientIp(Exchange ex) {
+        String xff = ex.requestHeader("X-Forwarded-For");
+        if (xff != null && !xff.isBlank()) {
+            int comma = xff.indexOf(',');
+            return (comma < 0 ? xff : xff.substring(0, comma)).trim();
+        }
+        InetSocketAddress remote = ex.remoteAddress();
         if (remote != null && remote.getAddress() != null) return remote.getAddress().getHostAddress();
         return "unknown";
     }
@@ -0,0 +1,31 @@
+package com.example.tube.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+/**
+ * Accepts connections, parses requests and hands each one to a {@link Handler} on {@code executor}.
+ * {@link JdkServerEngine} (com.sun.net.httpserver) is the default; {@link NioServerEngine} is a
+ * selector-based HTTP/1.1 implementation with keep-alive and pooled direct buffers.
+ */
+public interface ServerEngine {
+
+    @FunctionalInterface
+    interface Handler {
+        void handle(Exchange ex) throws IOException;
+    }
+
+    /** Starts serving; returns the bound port. */
+    int start(InetSocketAddress address, Handler handler, Executor executor) throws IOException;
+
+    void stop();
+
+    static ServerEngine of(String name) {
+        return switch (name.toLowerCase()) {
+            case "jdk" -> new JdkServerEngine();
+            case "nio" -> new NioServerEngine();
+            default -> throw new IllegalArgumentException("server.engine must be 'jdk' or 'nio': " + name);
+        };
+    }
+}
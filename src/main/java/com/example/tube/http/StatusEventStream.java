@@ -0,0 +1,215 @@
+package com.example.tube.http;
+
+import com.example.tube.log.Log;
+import com.example.tube.log.Logger;
+import com.example.tube.otel.Metrics;
+import com.example.tube.service.LineStatusChanges;
+import io.opentelemetry.api.common.Attributes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server-Sent Events fan-out of {@link LineStatusChanges}. Each change is serialized once into
+ * an SSE frame and the same bytes are queued for every subscriber, so the cost of a change is
+ * one serialization plus a queue insert per connection. An idle subscriber holds only its open
+ * connection and an empty queue; no thread.
+ *
+ * <p>A subscriber's queue is drained by a writer task (virtual thread) that exists only while
+ * there is something to write. Backpressure: a subscriber that falls more than
+ * {@code maxQueuedEvents} frames behind is disconnected rather than buffered without bound;
+ * it reconnects and starts again from the current state, which every new subscriber receives
+ * first as a {@code snapshot} event.
+ *
+ * <p>Each change is a {@code status} event with the lines that changed and/or a {@code removed}
+ * event with the ids of lines that left the snapshot, both carrying the change's version as id.
+ */
+public final class StatusEventStream {
+    private static final Logger log = Log.get(StatusEventStream.class);
+
+    private static final Attributes DROPPED_SLOW = Metrics.reasonAttrs("slow");
+    private static final Attributes DROPPED_LIMIT = Metrics.reasonAttrs("limit");
+    private static final ByteBuffer HEARTBEAT = frame(": keep-alive\n\n");
+
+    private final LineStatusChanges changes;
+    private final Executor writers;
+    private final int maxConnections;
+    private final int maxQueuedEvents;
+    private final Metrics metrics;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connections = new AtomicInteger();
+    /** Orders a new subscriber's snapshot against change events (held while broadcasting a change). */
+    private final Object order = new Object();
+    private volatile SnapshotFrame snapshot = new SnapshotFrame(-1, null);
+
+    private record SnapshotFrame(long version, ByteBuffer frame) {}
+
+    public StatusEventStream(LineStatusChanges changes, Executor writers, int maxConnections, int maxQueuedEvents, Metrics metrics) {
+        this.changes = changes;
+        this.writers = writers;
+        this.maxConnections = maxConnections;
+        this.maxQueuedEvents = maxQueuedEvents;
+        this.metrics = metrics;
+
+        changes.addListener(this::publish);
+        metrics.gauge("sse_connections", "Open Server-Sent Events connections", "1", connections::get);
+    }
+
+    /**
+     * Opens the event stream on {@code ex} and queues the current state; returns false (nothing
+     * sent) if the connection limit is reached.
+     */
+    public boolean subscribe(Exchange ex) throws IOException {
+        if (connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            metrics.sseDropped.add(1, DROPPED_LIMIT);
+            return false;
+        }
+        ResponseStream out;
+        try {
+            ex.setResponseHeader("Content-Type", "text/event-stream; charset=utf-8");
+            ex.setResponseHeader("Cache-Control", "no-cache");
+            ex.setResponseHeader("X-Accel-Buffering", "no"); // don't let a reverse proxy hold events back
+            out = ex.stream(200);
+        } catch (IOException | RuntimeException e) {
+            connections.decrementAndGet();
+            throw e;
+        }
+
+        synchronized (order) {
+            // Any change after the snapshot's version is published after we release the lock and is
+            // queued behind the snapshot; one the snapshot already includes is skipped by publish.
+            SnapshotFrame snap = snapshotFrame();
+            Subscriber s = new Subscriber(out, snap.version);
+            subscribers.add(s);
+            s.offer(snap.frame);
+        }
+        return true;
+    }
+
+    /** Keeps idle connections (and proxies in between) alive, and finds clients that have gone away. */
+    public void heartbeat() {
+        broadcast(HEARTBEAT);
+    }
+
+    public void close() {
+        for (Subscriber s : subscribers) s.close();
+    }
+
+    private void broadcast(ByteBuffer frame) {
+        for (Subscriber s : subscribers) s.offer(frame);
+    }
+
+    private void publish(LineStatusChanges.Change c) {
+        ByteBuffer status = c.lines().isEmpty() ? null : event(c.version(), "status", c.lines());
+        ByteBuffer removed = c.removed().isEmpty() ? null : event(c.version(), "removed", c.removed());
+        synchronized (order) {
+            for (Subscriber s : subscribers) {
+                if (c.version() <= s.snapshotVersion) continue; // already in the snapshot it was sent
+                if (status != null) s.offer(status);
+                if (removed != null) s.offer(removed);
+            }
+        }
+    }
+
+    /** The full current state, serialized once per version. */
+    private SnapshotFrame snapshotFrame() {
+        LineStatusChanges.Change current = changes.current();
+        SnapshotFrame f = snapshot;
+        if (f.version != current.version()) {
+            f = new SnapshotFrame(current.version(), event(current.version(), "snapshot", current.lines()));
+            snapshot = f;
+        }
+        return f;
+    }
+
+    private static ByteBuffer event(long version, String type, Object payload) {
+        String data = new String(Json.serialize(payload).bytes(), StandardCharsets.UTF_8);
+        return frame("id: " + version + "\nevent: " + type + "\ndata: " + data + "\n\n");
+    }
+
+    private static ByteBuffer frame(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    private final class Subscriber {
+        private final ResponseStream out;
+        private final long snapshotVersion;
+        private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+        private boolean draining; // guarded by this
+        private boolean closed;   // guarded by this
+
+        Subscriber(ResponseStream out, long snapshotVersion) {
+            this.out = out;
+            this.snapshotVersion = snapshotVersion;
+        }
+
+        void offer(ByteBuffer frame) {
+            boolean drop;
+            synchronized (this) {
+                if (closed) return;
+                drop = queue.size() >= maxQueuedEvents;
+                if (drop) {
+                    closed = true;
+                } else {
+                    queue.add(frame.duplicate());
+                    if (draining) return;
+                    draining = true;
+                }
+            }
+            if (drop) {
+                metrics.sseDropped.add(1, DROPPED_SLOW);
+                log.debug("dropping slow event-stream client", "maxQueued", maxQueuedEvents);
+                release();
+                return;
+            }
+            try {
+                writers.execute(this::drain);
+            } catch (RuntimeException e) { // executor shut down
+                close();
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                ByteBuffer next;
+                synchronized (this) {
+                    next = closed ? null : queue.poll();
+                    if (next == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    out.write(next);
+                } catch (IOException | RuntimeException e) {
+                    close(); // client went away
+                    return;
+                }
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
+            release();
+        }
+
+        private void release() {
+            synchronized (this) {
+                queue.clear();
+            }
+            if (subscribers.remove(this)) connections.decrementAndGet();
+            out.close();
+        }
+    }
+}
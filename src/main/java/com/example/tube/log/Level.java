@@ -0,0 +1,3 @@
+package com.example.tube.log;
+
+public enum Level { TRACE, DEBUG, INFO, WARN, ERROR, OFF }
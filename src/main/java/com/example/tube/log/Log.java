@@ -0,0 +1,126 @@
+package com.example.tube.log;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous, leveled, structured logging.
+ *
+ * <p>Callers format nothing: a {@link Logger} captures the message and key/value fields into
+ * an event and offers it to a lock-free ring buffer. One daemon thread drains the buffer,
+ * renders each event as a logfmt line and writes it to stdout. Request threads therefore
+ * never contend on {@code System.out}'s lock.
+ *
+ * <p>If the buffer is full the event is dropped and {@link #dropped()} is incremented; logging
+ * must never slow down or block request handling.
+ *
+ * <p>An idle drainer parks until a producer unparks it; producers only pay for the unpark
+ * when the drainer has announced it is going to sleep.
+ */
+public final class Log {
+    private static final int CAPACITY = 16_384;
+    // only a safety net: producers unpark the drainer as soon as there is work
+    private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final RingBuffer<LogEvent> buffer = new RingBuffer<>(CAPACITY);
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final PrintStream out = new PrintStream(System.out, false);
+
+    private static final Thread drainer = new Thread(Log::drainLoop, "log-drainer");
+
+    private static volatile int threshold = Level.INFO.ordinal();
+    private static volatile boolean sleeping;
+
+    static {
+        drainer.setDaemon(true);
+        drainer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    private Log() {}
+
+    public static Logger get(Class<?> type) {
+        return new Logger(type.getSimpleName());
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    /** Events discarded because the ring buffer was full. */
+    public static long dropped() {
+        return dropped.get();
+    }
+
+    static boolean enabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    static void enqueue(LogEvent e) {
+        if (!buffer.offer(e)) dropped.incrementAndGet();
+        else if (sleeping) LockSupport.unpark(drainer);
+    }
+
+    private static void drainLoop() {
+        while (true) {
+            if (drainAvailable()) continue;
+            sleeping = true;
+            // re-check after announcing: an event offered before the flag was visible is drained now
+            if (!drainAvailable()) LockSupport.parkNanos(IDLE_PARK_NANOS);
+            sleeping = false;
+        }
+    }
+
+    /** Writes everything currently buffered; true if anything was written. */
+    private static synchronized boolean drainAvailable() {
+        boolean any = false;
+        LogEvent e;
+        while ((e = buffer.poll()) != null) {
+            out.println(render(e));
+            any = true;
+        }
+        if (any) out.flush();
+        return any;
+    }
+
+    /** Drains whatever is buffered; used at shutdown so the last events are not lost. */
+    public static void flush() {
+        drainAvailable();
+    }
+
+    private static String render(LogEvent e) {
+        StringBuilder sb = new StringBuilder(128)
+                .append(Instant.ofEpochMilli(e.epochMillis()))
+                .append(' ').append(e.level())
+                .append(' ').append(e.logger())
+                .append(" [").append(e.thread()).append("] ")
+                .append(e.msg());
+        Object[] f = e.fields();
+        for (int i = 0; i + 1 < f.length; i += 2) {
+            sb.append(' ').append(f[i]).append('=');
+            appendValue(sb, f[i + 1]);
+        }
+        if (e.error() != null) {
+            sb.append(" error=");
+            appendValue(sb, e.error().toString());
+            StringWriter trace = new StringWriter();
+            e.error().printStackTrace(new PrintWriter(trace));
+            sb.append(System.lineSeparator()).append(trace.toString().stripTrailing());
+        }
+        return sb.toString();
+    }
+
+    private static void appendValue(StringBuilder sb, Object v) {
+        String s = String.valueOf(v);
+        if (s.isEmpty() || s.indexOf(' ') >= 0 || s.indexOf('"') >= 0 || s.indexOf('=') >= 0) {
+            sb.append('"').append(s.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        } else {
+            sb.append(s);
+        }
+    }
+}
@@ -0,0 +1,3 @@
+package com.example.tube.log;
+
+record LogEvent(long epochMillis, Level level, String logger, String thread, String msg, Object[] fields, Throwable error) {}
@@ -0,0 +1,67 @@
+package com.example.tube.log;
+
+/**
+ * Named logger handing events to the asynchronous {@link Log} drainer.
+ *
+ * <p>Fields are passed as alternating key/value arguments and rendered as {@code key=value}
+ * on the drainer thread, never on the caller. Fixed-arity overloads avoid a varargs array;
+ * hot-path callers should still guard with {@link #isDebugEnabled()} so that disabled
+ * levels cost only a field read (no boxing, no string building).
+ */
+public final class Logger {
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    private final String name;
+
+    Logger(String name) {
+        this.name = name;
+    }
+
+    public boolean isDebugEnabled() { return Log.enabled(Level.DEBUG); }
+
+    public boolean isInfoEnabled() { return Log.enabled(Level.INFO); }
+
+    public void debug(String msg) {
+        if (Log.enabled(Level.DEBUG)) emit(Level.DEBUG, msg, null, NO_FIELDS);
+    }
+
+    public void debug(String msg, String k1, Object v1) {
+        if (Log.enabled(Level.DEBUG)) emit(Level.DEBUG, msg, null, new Object[]{k1, v1});
+    }
+
+    public void debug(String msg, String k1, Object v1, String k2, Object v2) {
+        if (Log.enabled(Level.DEBUG)) emit(Level.DEBUG, msg, null, new Object[]{k1, v1, k2, v2});
+    }
+
+    public void info(String msg) {
+        if (Log.enabled(Level.INFO)) emit(Level.INFO, msg, null, NO_FIELDS);
+    }
+
+    public void info(String msg, String k1, Object v1) {
+        if (Log.enabled(Level.INFO)) emit(Level.INFO, msg, null, new Object[]{k1, v1});
+    }
+
+    public void info(String msg, String k1, Object v1, String k2, Object v2) {
+        if (Log.enabled(Level.INFO)) emit(Level.INFO, msg, null, new Object[]{k1, v1, k2, v2});
+    }
+
+    public void warn(String msg, String k1, Object v1) {
+        if (Log.enabled(Level.WARN)) emit(Level.WARN, msg, null, new Object[]{k1, v1});
+    }
+
+    public void warn(String msg, String k1, Object v1, String k2, Object v2) {
+        if (Log.enabled(Level.WARN)) emit(Level.WARN, msg, null, new Object[]{k1, v1, k2, v2});
+    }
+
+    public void error(String msg, Throwable t) {
+        if (Log.enabled(Level.ERROR)) emit(Level.ERROR, msg, t, NO_FIELDS);
+    }
+
+    public void error(String msg, Throwable t, String k1, Object v1) {
+        if (Log.enabled(Level.ERROR)) emit(Level.ERROR, msg, t, new Object[]{k1, v1});
+    }
+
+    private void emit(Level level, String msg, Throwable t, Object[] kv) {
+        Log.enqueue(new LogEvent(System.currentTimeMillis(), level, name, Thread.currentThread().getName(), msg, kv, t));
+    }
+}
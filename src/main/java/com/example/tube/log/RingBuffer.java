@@ -0,0 +1,59 @@
+package com.example.tube.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer / single-consumer queue (Vyukov-style sequence slots).
+ *
+ * <p>Producers claim a slot with one CAS and never wait: if the buffer is full,
+ * {@link #offer} returns false and the caller drops the element. Only the drainer thread
+ * calls {@link #poll}.
+ */
+final class RingBuffer<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> items;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // consumer-owned
+
+    RingBuffer(int capacityPowerOfTwo) {
+        if (Integer.bitCount(capacityPowerOfTwo) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacityPowerOfTwo);
+        }
+        this.mask = capacityPowerOfTwo - 1;
+        this.items = new AtomicReferenceArray<>(capacityPowerOfTwo);
+        this.sequences = new AtomicLongArray(capacityPowerOfTwo);
+        for (int i = 0; i < capacityPowerOfTwo; i++) sequences.set(i, i);
+    }
+
+    boolean offer(E e) {
+        long pos;
+        while (true) {
+            pos = tail.get();
+            int idx = (int) (pos & mask);
+            long seq = sequences.get(idx);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+            } else if (seq < pos) {
+                return false; // slot still holds an undrained element: full
+            }
+            // else another producer claimed pos; reload tail
+        }
+        int idx = (int) (pos & mask);
+        items.lazySet(idx, e);
+        sequences.set(idx, pos + 1); // publish
+        return true;
+    }
+
+    E poll() {
+        int idx = (int) (head & mask);
+        if (sequences.get(idx) != head + 1) return null; // not yet published
+        E e = items.get(idx);
+        items.lazySet(idx, null);
+        sequences.set(idx, head + mask + 1); // free for the producer one lap ahead
+        head++;
+        return e;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.tube.otel;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-memory, lock-free latency histogram with percentile queries (HdrHistogram-style buckets).
+ * <p>
+ * Values up to 255 ns are counted exactly; above that each power of two is split into 128
+ * linear sub-buckets, so a reported percentile is at most ~0.8% above the true value. Values are
+ * capped at 2^40 ns (~18 minutes). Recording is one atomic increment; queries and {@link #add merges}
+ * scan ~4k counters and are meant for reports and periodic evaluation, not the request path.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 8;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF = SUB_COUNT / 2;
+    private static final int MAX_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_COUNT + (MAX_BITS - SUB_BITS) * HALF);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        long v = Math.max(0, Math.min(nanos, MAX_VALUE));
+        counts.incrementAndGet(index(v));
+        total.increment();
+        if (v > max.get()) max.accumulateAndGet(v, Math::max);
+    }
+
+    /** Adds every value recorded in {@code other} (e.g. to aggregate per-route histograms). */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        total.add(other.total.sum());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    /** Smallest recorded-bucket upper bound at or below which {@code percentile}% of values fall; 0 if empty. */
+    public long percentileNanos(double percentile) {
+        long n = 0;
+        for (int i = 0; i < counts.length(); i++) n += counts.get(i);
+        if (n == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) return Math.min(highestEquivalent(i), max.get());
+        }
+        return max.get();
+    }
+
+    static int index(long v) {
+        if (v < SUB_COUNT) return (int) v;
+        int shift = (63 - Long.numberOfLeadingZeros(v)) - SUB_BITS + 1;
+        return SUB_COUNT + (shift - 1) * HALF + (int) ((v >>> shift) - HALF);
+    }
+
+    static long highestEquivalent(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = (index - SUB_COUNT) / HALF + 1;
+        long sub = (index - SUB_COUNT) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
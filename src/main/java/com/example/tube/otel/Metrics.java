@@ -1,21 +1,57 @@
 package com.example.tube.otel;
 
 import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.metrics.DoubleHistogram;
 import io.opentelemetry.api.metrics.LongCounter;
 import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
 
 public final class Metrics {
 
+    private final Meter meter;
+
     public final LongCounter httpRequests;
     public final DoubleHistogram httpLatencyMs;
+    public final DoubleHistogram stageLatencyMs;
 
     public final LongCounter upstreamRequests;
     public final DoubleHistogram upstreamLatencyMs;
 
     public final LongCounter rateLimited;
+    public final LongCounter httpShed;
+    public final DoubleHistogram serverQueueWaitMs;
     public final LongCounter cbOpenBlocked;
+    public final LongCounter cbTransitions;
+    public final LongCounter concurrencyRejected;
+
+    public final LongCounter retries;
+    public final LongCounter retryBudgetExhausted;
+
+    public final LongCounter sseDropped;
+
+    public final DoubleHistogram upstreamBatchSize;
+    public final DoubleHistogram upstreamBatchWaitMs;
+
+    public final LongCounter hedges;
+    public final LongCounter hedgeWins;
+    public final LongCounter hedgeBudgetExhausted;
+
+    public final LongCounter cacheHits;
+    public final LongCounter cacheMisses;
+    public final LongCounter cacheStale;
+    public final LongCounter cacheCoalesced;
+
+    public final DoubleHistogram snapshotPollLatencyMs;
+
+    public final DoubleHistogram compressionRatio;
+    public final DoubleHistogram compressionCpuMs;
 
     public static Metrics noop() {
         var meter = OpenTelemetry.noop().getMeter("noop");
@@ -23,6 +59,8 @@ public final class Metrics {
     }
 
     public Metrics(Meter meter) {
+        this.meter = meter;
+
         httpRequests = meter.counterBuilder("http_server_requests_total")
                 .setDescription("Total HTTP requests")
                 .build();
@@ -32,6 +70,11 @@ public final class Metrics {
                 .setUnit("ms")
                 .build();
 
+        stageLatencyMs = meter.histogramBuilder("http_server_stage_duration_ms")
+                .setDescription("Time spent per request-handling stage, by route and stage (ms)")
+                .setUnit("ms")
+                .build();
+
         upstreamRequests = meter.counterBuilder("upstream_requests_total")
                 .setDescription("Total upstream requests")
                 .build();
@@ -45,9 +88,123 @@ public final class Metrics {
                 .setDescription("Total 429 responses")
                 .build();
 
+        httpShed = meter.counterBuilder("http_server_shed_total")
+                .setDescription("Requests rejected with 503 by admission control, by reason")
+                .build();
+
+        serverQueueWaitMs = meter.histogramBuilder("http_server_queue_wait_ms")
+                .setDescription("Time requests waited in the server executor queue before a handler ran (ms)")
+                .setUnit("ms")
+                .build();
+
         cbOpenBlocked = meter.counterBuilder("circuit_breaker_open_blocked_total")
                 .setDescription("Requests blocked due to CB OPEN")
                 .build();
+
+        concurrencyRejected = meter.counterBuilder("upstream_concurrency_rejected_total")
+                .setDescription("Upstream calls rejected because the adaptive concurrency limit was reached")
+                .build();
+
+        cbTransitions = meter.counterBuilder("circuit_breaker_transitions_total")
+                .setDescription("Circuit breaker state changes, by from/to state")
+                .build();
+
+        retries = meter.counterBuilder("upstream_retries_total")
+                .setDescription("Upstream retry attempts (excluding first attempts)")
+                .build();
+
+        retryBudgetExhausted = meter.counterBuilder("upstream_retry_budget_exhausted_total")
+                .setDescription("Retries skipped because the process-wide retry budget was empty")
+                .build();
+
+        sseDropped = meter.counterBuilder("sse_clients_dropped_total")
+                .setDescription("Event-stream clients disconnected or refused, by reason (slow = fell too far behind, limit = too many connections)")
+                .build();
+
+        upstreamBatchSize = meter.histogramBuilder("upstream_batch_size")
+                .setDescription("Distinct lines per micro-batched upstream call")
+                .setExplicitBucketBoundariesAdvice(List.of(1.0, 2.0, 3.0, 4.0, 6.0, 8.0, 12.0, 16.0, 24.0, 32.0))
+                .build();
+
+        upstreamBatchWaitMs = meter.histogramBuilder("upstream_batch_wait_ms")
+                .setDescription("Time a line fetch waited for its micro-batch to be sent (ms)")
+                .setUnit("ms")
+                .setExplicitBucketBoundariesAdvice(List.of(0.5, 1.0, 2.0, 5.0, 10.0, 20.0, 50.0))
+                .build();
+
+        hedges = meter.counterBuilder("upstream_hedges_total")
+                .setDescription("Hedged (duplicate) upstream requests sent")
+                .build();
+
+        hedgeWins = meter.counterBuilder("upstream_hedge_wins_total")
+                .setDescription("Hedged requests that answered before the original")
+                .build();
+
+        hedgeBudgetExhausted = meter.counterBuilder("upstream_hedge_budget_exhausted_total")
+                .setDescription("Hedges skipped because the hedge budget was empty")
+                .build();
+
+        cacheHits = meter.counterBuilder("cache_hits_total")
+                .setDescription("Upstream cache lookups served fresh from memory")
+                .build();
+
+        cacheMisses = meter.counterBuilder("cache_misses_total")
+                .setDescription("Upstream cache lookups that required an upstream call")
+                .build();
+
+        cacheStale = meter.counterBuilder("cache_stale_total")
+                .setDescription("Upstream cache lookups served stale while revalidating")
+                .build();
+
+        cacheCoalesced = meter.counterBuilder("cache_coalesced_total")
+                .setDescription("Upstream loads that joined an in-flight call for the same key")
+                .build();
+
+        snapshotPollLatencyMs = meter.histogramBuilder("line_snapshot_poll_duration_ms")
+                .setDescription("Duration of all-lines snapshot polls (ms)")
+                .setUnit("ms")
+                .build();
+
+        compressionRatio = meter.histogramBuilder("http_response_compression_ratio")
+                .setDescription("Uncompressed / compressed response body size")
+                .build();
+
+        compressionCpuMs = meter.histogramBuilder("http_response_compression_cpu_ms")
+                .setDescription("CPU time spent compressing response bodies (ms)")
+                .setUnit("ms")
+                .build();
+    }
+
+    /** Registers an asynchronous monotonic counter read from {@code value} at collection time. */
+    public void counter(String name, String description, LongSupplier value) {
+        meter.counterBuilder(name)
+                .setDescription(description)
+                .buildWithCallback(m -> m.record(value.getAsLong()));
+    }
+
+    /** Registers an asynchronous monotonic counter with fractional values (e.g. seconds). */
+    public void counter(String name, String description, String unit, DoubleSupplier value) {
+        meter.counterBuilder(name)
+                .ofDoubles()
+                .setDescription(description)
+                .setUnit(unit)
+                .buildWithCallback(m -> m.record(value.getAsDouble()));
+    }
+
+    /** Registers an asynchronous gauge whose value is read from {@code value} at collection time. */
+    public void gauge(String name, String description, String unit, DoubleSupplier value) {
+        meter.gaugeBuilder(name)
+                .setDescription(description)
+                .setUnit(unit)
+                .buildWithCallback(m -> m.record(value.getAsDouble()));
+    }
+
+    /** Registers an asynchronous gauge reporting several attribute sets from one callback. */
+    public void gauges(String name, String description, String unit, Consumer<ObservableDoubleMeasurement> callback) {
+        meter.gaugeBuilder(name)
+                .setDescription(description)
+                .setUnit(unit)
+                .buildWithCallback(callback);
     }
 
     public static Attributes httpAttrs(String route, String method, int status) {
@@ -58,6 +215,43 @@ public final class Metrics {
                 .build();
     }
 
+    public static Attributes stageAttrs(String route, Stage stage) {
+        return Attributes.builder()
+                .put("route", route)
+                .put("stage", stage.label)
+                .build();
+    }
+
+    public static Attributes outcomeAttrs(boolean success) {
+        return success ? OUTCOME_SUCCESS : OUTCOME_FAILURE;
+    }
+
+    private static final Attributes OUTCOME_SUCCESS = Attributes.of(AttributeKey.stringKey("outcome"), "success");
+    private static final Attributes OUTCOME_FAILURE = Attributes.of(AttributeKey.stringKey("outcome"), "failure");
+
+    public static Attributes reasonAttrs(String reason) {
+        return switch (reason) {
+            case "deadline" -> REASON_DEADLINE;
+            case "queue" -> REASON_QUEUE;
+            default -> Attributes.of(REASON, reason);
+        };
+    }
+
+    private static final AttributeKey<String> REASON = AttributeKey.stringKey("reason");
+    private static final Attributes REASON_DEADLINE = Attributes.of(REASON, "deadline");
+    private static final Attributes REASON_QUEUE = Attributes.of(REASON, "queue");
+
+    public static Attributes transitionAttrs(String from, String to) {
+        return Attributes.builder()
+                .put("from", from)
+                .put("to", to)
+                .build();
+    }
+
+    public static Attributes encodingAttrs(String encoding) {
+        return Attributes.of(AttributeKey.stringKey("encoding"), encoding);
+    }
+
     public static Attributes upstreamAttrs(String target, int status) {
         return Attributes.builder()
                 .put("target", target)
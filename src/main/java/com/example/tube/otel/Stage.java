@@ -0,0 +1,21 @@
+package com.example.tube.otel;
+
+/** Request-handling stages timed per route in {@code http_server_stage_duration_ms}. */
+public enum Stage {
+    ADMISSION("admission"),
+    RATE_LIMIT("rate_limit"),
+    PARSE("parse"),
+    /** Upstream-cache lookup, including waiting on another request's in-flight load. */
+    CACHE("cache"),
+    /** TfL call(s) made for this request, retries and hedges included. */
+    UPSTREAM("upstream"),
+    MAP("map"),
+    SERIALIZE("serialize"),
+    WRITE("write");
+
+    public final String label;
+
+    Stage(String label) {
+        this.label = label;
+    }
+}
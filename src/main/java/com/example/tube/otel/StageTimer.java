@@ -0,0 +1,38 @@
+package com.example.tube.otel;
+
+import java.util.Arrays;
+
+/**
+ * Time spent per {@link Stage} by one request. Stages run one after another (possibly on
+ * different threads, ordered by future completion), so there is no locking; a stage that adds
+ * time after the response was recorded (e.g. a background refresh) is simply not reported.
+ */
+public final class StageTimer {
+
+    private static final Stage[] STAGES = Stage.values();
+
+    /** Discards everything; for callers that don't trace stages. */
+    public static final StageTimer NOOP = new StageTimer();
+
+    /** -1 = stage did not run. */
+    private final long[] nanos = new long[STAGES.length];
+
+    public StageTimer() {
+        Arrays.fill(nanos, -1);
+    }
+
+    public void add(Stage stage, long durationNanos) {
+        if (this == NOOP) return;
+        int i = stage.ordinal();
+        nanos[i] = (nanos[i] < 0 ? 0 : nanos[i]) + Math.max(0, durationNanos);
+    }
+
+    /** Time recorded for {@code stage}; 0 if it did not run. */
+    public long get(Stage stage) {
+        return Math.max(0, nanos[stage.ordinal()]);
+    }
+
+    public boolean ran(Stage stage) {
+        return nanos[stage.ordinal()] >= 0;
+    }
+}
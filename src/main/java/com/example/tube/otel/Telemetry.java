@@ -1,6 +1,5 @@
 package com.example.tube.otel;
 
-import io.opentelemetry.api.OpenTelemetry;
 import io.opentelemetry.sdk.OpenTelemetrySdk;
 import io.opentelemetry.sdk.metrics.SdkMeterProvider;
 import io.opentelemetry.exporter.prometheus.PrometheusHttpServer;
@@ -9,7 +8,7 @@ public final class Telemetry {
 
     private Telemetry() {}
 
-    public static OpenTelemetry initPrometheus(int prometheusPort) {
+    public static OpenTelemetrySdk initPrometheus(int prometheusPort) {
 
         // Prometheus scrape endpoint: http://localhost:<port>/metrics
         PrometheusHttpServer prometheusReader = PrometheusHttpServer.builder()
@@ -0,0 +1,157 @@
+package com.example.tube.ratelimit;
+
+/**
+ * Maps a client address string to a 128-bit primitive key ({@code hi}, {@code lo}) without allocating.
+ * <p>
+ * IPv4 addresses become IPv4-mapped IPv6 ({@code ::ffff:a.b.c.d}), IPv6 addresses map to their own bits.
+ * Anything else (hostnames, garbage in {@code X-Forwarded-For}, {@code "::"}) is hashed into the
+ * discard-only prefix {@code 100::/64} (RFC 6666), which no real client can come from; distinct
+ * non-address strings may therefore share a key.
+ */
+final class IpKeys {
+
+    static final long FALLBACK_HI = 0x0100_0000_0000_0000L;
+    private static final long V4_MAPPED = 0xFFFF_0000_0000L;
+
+    private IpKeys() {}
+
+    /** High 64 bits of the key for {@code ip}. */
+    static long hi(String ip) {
+        return half(ip, true);
+    }
+
+    /**
+     * Low 64 bits of the key for {@code ip}. Callers take the two halves separately: parsing a short
+     * address twice is cheaper than allocating a pair for every request.
+     */
+    static long lo(String ip) {
+        return half(ip, false);
+    }
+
+    private static long half(String ip, boolean high) {
+        long v4 = parseV4(ip, 0, ip.length());
+        if (v4 >= 0) return high ? 0 : V4_MAPPED | v4;
+        return parseV6(ip, high);
+    }
+
+    /** Dotted-quad IPv4 in {@code s[from, to)} as an unsigned 32-bit value, or -1 if not one. */
+    static long parseV4(CharSequence s, int from, int to) {
+        long value = 0;
+        int octets = 0;
+        int i = from;
+        while (octets < 4) {
+            int start = i;
+            int octet = 0;
+            while (i < to && i - start < 3) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') break;
+                octet = octet * 10 + (c - '0');
+                i++;
+            }
+            if (i == start || octet > 255) return -1;
+            value = (value << 8) | octet;
+            octets++;
+            if (octets < 4) {
+                if (i >= to || s.charAt(i) != '.') return -1;
+                i++;
+            }
+        }
+        return i == to ? value : -1;
+    }
+
+    /**
+     * Parses textual IPv6 (with {@code ::} compression, optional brackets, zone id and IPv4 tail) and
+     * returns the requested half; anything that is not an address, or is {@code ::}, gets the fallback key.
+     */
+    static long parseV6(String s, boolean high) {
+        int from = 0;
+        int to = s.length();
+        if (to >= 2 && s.charAt(0) == '[' && s.charAt(to - 1) == ']') { from = 1; to--; }
+        int zone = s.indexOf('%', from);
+        if (zone >= 0 && zone < to) to = zone;
+        if (to - from < 2) return fallback(s, high);
+
+        long headHi = 0, headLo = 0, tailHi = 0, tailLo = 0;
+        int headGroups = 0, tailGroups = 0;
+        boolean compressed = false;
+        int i = from;
+
+        if (s.charAt(i) == ':') {
+            if (s.charAt(i + 1) != ':') return fallback(s, high);
+            compressed = true;
+            i += 2;
+        }
+        while (i < to) {
+            int start = i;
+            int group = 0;
+            while (i < to && i - start < 4) {
+                int d = Character.digit(s.charAt(i), 16);
+                if (d < 0) break;
+                group = (group << 4) | d;
+                i++;
+            }
+            if (i < to && s.charAt(i) == '.') {
+                // Embedded IPv4 tail counts as two groups and must end the address
+                long v4 = parseV4(s, start, to);
+                if (v4 < 0) return fallback(s, high);
+                if (compressed) {
+                    tailHi = (tailHi << 32) | (tailLo >>> 32);
+                    tailLo = (tailLo << 32) | v4;
+                    tailGroups += 2;
+                } else {
+                    headHi = (headHi << 32) | (headLo >>> 32);
+                    headLo = (headLo << 32) | v4;
+                    headGroups += 2;
+                }
+                i = to;
+                break;
+            }
+            if (i == start) return fallback(s, high);
+            if (compressed) {
+                tailHi = (tailHi << 16) | (tailLo >>> 48);
+                tailLo = (tailLo << 16) | group;
+                tailGroups++;
+            } else {
+                headHi = (headHi << 16) | (headLo >>> 48);
+                headLo = (headLo << 16) | group;
+                headGroups++;
+            }
+            if (i == to) break;
+            if (s.charAt(i) != ':') return fallback(s, high);
+            i++;
+            if (i < to && s.charAt(i) == ':') {
+                if (compressed) return fallback(s, high);
+                compressed = true;
+                i++;
+            } else if (i == to) {
+                return fallback(s, high);
+            }
+        }
+
+        int groups = headGroups + tailGroups;
+        if (compressed ? groups > 7 : groups != 8) return fallback(s, high);
+
+        for (int shift = 8 - headGroups; shift > 0; shift--) {
+            headHi = (headHi << 16) | (headLo >>> 48);
+            headLo <<= 16;
+        }
+        long hi = headHi | tailHi;
+        long lo = headLo | tailLo;
+        if ((hi | lo) == 0) return fallback(s, high);
+        return high ? hi : lo;
+    }
+
+    private static long fallback(String s, boolean high) {
+        return high ? FALLBACK_HI : hash64(s);
+    }
+
+    /** 64-bit FNV-1a over the UTF-16 code units of {@code s}. */
+    static long hash64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
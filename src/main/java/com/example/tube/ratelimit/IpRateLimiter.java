@@ -1,50 +1,228 @@
 package com.example.tube.ratelimit;
 
 import java.time.Duration;
-import java.time.Instant;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Per-client rate limiter using the generic cell rate algorithm (GCRA).
+ * <p>
+ * The sustained rate is {@code maxRequestsPerWindow / window}; {@code burst} requests may be sent
+ * back-to-back before that rate applies. A client's whole state is one "theoretical arrival time"
+ * (TAT, in {@link System#nanoTime()} units), so there is no window rotation and no 2x overshoot
+ * across window boundaries.
+ * <p>
+ * Keys live in a bounded, segmented open-addressing table of primitive 128-bit addresses
+ * (see {@link IpKeys}). A key whose TAT has passed is indistinguishable from an absent one, so idle
+ * keys are dropped by {@link #sweep()} without changing any decision. When a segment is full, it is
+ * swept at most once per {@value #FULL_SWEEP_INTERVAL_MS} ms; otherwise the key closest to idle
+ * among a few slots near the new key's is evicted (that client gets a fresh burst), so a flood of
+ * new keys costs a bounded amount of work per request under the segment lock.
+ */
+public final class IpRateLimiter implements RateLimiterBackend {
 
-public final class IpRateLimiter {
+    public static final int DEFAULT_MAX_KEYS = 100_000;
 
-    private final int maxRequests;
-    private final Duration window;
+    private static final int SEGMENT_BITS = 6;
+    private static final int EVICTION_PROBES = 16;
+    private static final long FULL_SWEEP_INTERVAL_MS = 100;
 
-    private final ConcurrentHashMap<String, WindowCounter> counters = new ConcurrentHashMap<>();
+    private final int burst;
+    /** Nanoseconds between requests at the sustained rate. */
+    private final long emissionNanos;
+    /** Largest allowed distance between the TAT and now. */
+    private final long toleranceNanos;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    private final LongAdder idleEvictions = new LongAdder();
+    private final LongAdder capacityEvictions = new LongAdder();
 
     public IpRateLimiter(int maxRequestsPerWindow, Duration window) {
-        this.maxRequests = maxRequestsPerWindow;
-        this.window = window;
+        this(maxRequestsPerWindow, window, maxRequestsPerWindow);
+    }
+
+    public IpRateLimiter(int maxRequestsPerWindow, Duration window, int burst) {
+        this(maxRequestsPerWindow, window, burst, DEFAULT_MAX_KEYS);
     }
 
-    public boolean allow(String ip) {
-        Instant now = Instant.now();
+    public IpRateLimiter(int maxRequestsPerWindow, Duration window, int burst, int maxKeys) {
+        if (maxRequestsPerWindow < 1 || burst < 1 || maxKeys < 1) throw new IllegalArgumentException("limits must be >= 1");
+        this.burst = burst;
+        this.emissionNanos = Math.max(1, window.toNanos() / maxRequestsPerWindow);
+        this.toleranceNanos = emissionNanos * burst;
+
+        int perSegment = Math.max(1, (maxKeys + segments.length - 1) / segments.length);
+        for (int i = 0; i < segments.length; i++) segments[i] = new Segment(perSegment);
+    }
 
-        WindowCounter wc = counters.computeIfAbsent(ip, k -> new WindowCounter(now));
-        wc.rotateIfNeeded(now, window);
+    @Override
+    public RateLimitDecision tryAcquire(String ip) {
+        long hi = IpKeys.hi(ip), lo = IpKeys.lo(ip);
+        long h = mix(hi, lo);
+        return segments[(int) (h >>> (64 - SEGMENT_BITS))].acquire(hi, lo, (int) h, System.nanoTime());
+    }
+
+    /**
+     * Bulk variant used by the {@link QuotaCoordinator}: charges {@code used} permits unconditionally
+     * (they were already spent on a node), gives back {@code returned} unused leased permits, then
+     * grants up to {@code wanted} permits that fit in the bucket.
+     */
+    QuotaGrant lease(String ip, int used, int returned, int wanted) {
+        long hi = IpKeys.hi(ip), lo = IpKeys.lo(ip);
+        long h = mix(hi, lo);
+        return segments[(int) (h >>> (64 - SEGMENT_BITS))].lease(hi, lo, (int) h, System.nanoTime(), used, returned, wanted);
+    }
+
+    /** Removes every key whose bucket has fully refilled; returns how many were removed. */
+    public int sweep() {
+        long now = System.nanoTime();
+        int removed = 0;
+        for (Segment s : segments) removed += s.sweep(now);
+        return removed;
+    }
 
-        return wc.count.incrementAndGet() <= maxRequests;
+    /** Number of tracked keys (approximate while requests are in flight). */
+    public int size() {
+        int n = 0;
+        for (Segment s : segments) n += s.size;
+        return n;
     }
 
-    private static final class WindowCounter {
-        private volatile Instant windowStart;
-        private final AtomicInteger count = new AtomicInteger(0);
+    public long idleEvictions() { return idleEvictions.sum(); }
 
-        private WindowCounter(Instant start) {
-            this.windowStart = start;
+    public long capacityEvictions() { return capacityEvictions.sum(); }
+
+    private static long mix(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private final class Segment {
+        private final int capacity;
+        private final int mask;
+        private final long[] his;
+        private final long[] los;
+        private final long[] tats;
+        private volatile int size;
+        private long lastFullSweep = System.nanoTime() - FULL_SWEEP_INTERVAL_MS * 1_000_000;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            int length = Integer.highestOneBit(Math.max(8, capacity * 4 / 3 + 1) - 1) << 1;
+            this.mask = length - 1;
+            this.his = new long[length];
+            this.los = new long[length];
+            this.tats = new long[length];
+        }
+
+        synchronized RateLimitDecision acquire(long hi, long lo, int hash, long now) {
+            int slot = find(hi, lo, hash);
+            long tat = slot >= 0 ? tats[slot] : now;
+            long base = tat - now < 0 ? now : tat;
+            long next = base + emissionNanos;
+            long ahead = next - now;
+
+            if (ahead > toleranceNanos) {
+                return new RateLimitDecision(false, burst, 0, base - now, ahead - toleranceNanos);
+            }
+            if (slot >= 0) {
+                tats[slot] = next;
+            } else {
+                insert(hi, lo, hash, next, now);
+            }
+            int remaining = (int) ((toleranceNanos - ahead) / emissionNanos);
+            return new RateLimitDecision(true, burst, remaining, ahead, 0);
         }
 
-        private void rotateIfNeeded(Instant now, Duration window) {
-            if (now.isAfter(windowStart.plus(window))) {
-                synchronized (this) {
-                    if (now.isAfter(windowStart.plus(window))) {
-                        windowStart = now;
-                        count.set(0);
-                    }
+        synchronized QuotaGrant lease(long hi, long lo, int hash, long now, int used, int returned, int wanted) {
+            int slot = find(hi, lo, hash);
+            long tat = slot >= 0 ? tats[slot] : now;
+            long base = tat - now < 0 ? now : tat;
+            base += (long) (used - returned) * emissionNanos;
+            if (base - now < 0) base = now;
+
+            int fits = (int) Math.max(0, (toleranceNanos - (base - now)) / emissionNanos);
+            int granted = Math.min(wanted, fits);
+            base += (long) granted * emissionNanos;
+
+            if (slot >= 0) {
+                tats[slot] = base;
+            } else if (base - now > 0) {
+                insert(hi, lo, hash, base, now);
+            }
+            long backlog = base - now;
+            long retryAfter = granted < wanted ? Math.max(0, backlog + emissionNanos - toleranceNanos) : 0;
+            return new QuotaGrant(granted, retryAfter, backlog);
+        }
+
+        synchronized int sweep(long now) {
+            lastFullSweep = now;
+            int removed = 0;
+            for (int i = 0; i <= mask; i++) {
+                while (occupied(i) && tats[i] - now <= 0) {
+                    delete(i);
+                    removed++;
+                }
+            }
+            if (removed > 0) idleEvictions.add(removed);
+            return removed;
+        }
+
+        private int find(long hi, long lo, int hash) {
+            for (int i = hash & mask; occupied(i); i = (i + 1) & mask) {
+                if (his[i] == hi && los[i] == lo) return i;
+            }
+            return -1;
+        }
+
+        private void insert(long hi, long lo, int hash, long tat, long now) {
+            if (size >= capacity && (now - lastFullSweep < FULL_SWEEP_INTERVAL_MS * 1_000_000 || sweep(now) == 0)) {
+                evictNear(hash & mask);
+            }
+            int i = hash & mask;
+            while (occupied(i)) i = (i + 1) & mask;
+            his[i] = hi;
+            los[i] = lo;
+            tats[i] = tat;
+            size++;
+        }
+
+        /** Evicts the key with the earliest TAT among the first occupied slots from {@code start}. */
+        private void evictNear(int start) {
+            int victim = -1;
+            int probes = Math.min(EVICTION_PROBES, size);
+            for (int i = start, seen = 0; seen < probes; i = (i + 1) & mask) {
+                if (!occupied(i)) continue;
+                if (victim < 0 || tats[i] - tats[victim] < 0) victim = i;
+                seen++;
+            }
+            delete(victim);
+            capacityEvictions.increment();
+        }
+
+        /** Backward-shift deletion so probe chains stay intact without tombstones. */
+        private void delete(int slot) {
+            int hole = slot;
+            for (int j = (slot + 1) & mask; occupied(j); j = (j + 1) & mask) {
+                int home = (int) mix(his[j], los[j]) & mask;
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    his[hole] = his[j];
+                    los[hole] = los[j];
+                    tats[hole] = tats[j];
+                    hole = j;
                 }
             }
+            his[hole] = 0;
+            los[hole] = 0;
+            tats[hole] = 0;
+            size--;
+        }
+
+        private boolean occupied(int i) {
+            return (his[i] | los[i]) != 0;
         }
     }
 }
-
@@ -0,0 +1,251 @@
+package com.example.tube.ratelimit;
+
+import com.example.tube.log.Log;
+import com.example.tube.log.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cluster-wide rate limiter: each node spends blocks of quota leased from a {@link QuotaCoordinator}.
+ * <p>
+ * {@link #tryAcquire} only touches local state. When a key's lease runs low it is queued, and a
+ * background sync sends one batched request per {@code syncInterval} that asks for new blocks,
+ * reports permits spent on local credit and returns leftovers of expired leases. Until the first
+ * lease for a key arrives (or between running out and the next grant) a node may spend up to
+ * {@code localCredit} permits on credit; those are charged to the coordinator on the next sync, so
+ * the cluster overshoots a key's limit by at most {@code nodes * localCredit}.
+ * <p>
+ * While the coordinator is unreachable, decisions fall back to a per-node {@link IpRateLimiter}.
+ * <p>
+ * At most {@code maxKeys} keys hold a lease on a node. Each sync drops leases that have expired with
+ * nothing left to report, so keys go idle the same way they do in {@link IpRateLimiter}; new keys
+ * arriving while the table is full (e.g. a spoofed {@code X-Forwarded-For} flood) are decided by the
+ * bounded local fallback instead, which also bounds the size of a sync batch.
+ */
+public final class LeasedQuotaRateLimiter implements RateLimiterBackend, AutoCloseable {
+    private static final Logger log = Log.get(LeasedQuotaRateLimiter.class);
+
+    private final URI coordinator;
+    private final HttpClient http;
+    private final int burst;
+    private final int leaseSize;
+    private final int lowWater;
+    private final int localCredit;
+    private final long leaseTtlNanos;
+    private final long syncNanos;
+    private final int maxKeys;
+    private final IpRateLimiter fallback;
+    private final ScheduledExecutorService scheduler;
+
+    private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+    private final LongAdder syncFailures = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private volatile boolean coordinatorUp = true;
+    private ScheduledFuture<?> syncTask;
+
+    public LeasedQuotaRateLimiter(URI coordinator,
+                                  HttpClient http,
+                                  int burst,
+                                  int leaseSize,
+                                  int localCredit,
+                                  Duration leaseTtl,
+                                  Duration syncInterval,
+                                  IpRateLimiter fallback,
+                                  ScheduledExecutorService scheduler) {
+        this(coordinator, http, burst, leaseSize, localCredit, leaseTtl, syncInterval,
+                IpRateLimiter.DEFAULT_MAX_KEYS, fallback, scheduler);
+    }
+
+    public LeasedQuotaRateLimiter(URI coordinator,
+                                  HttpClient http,
+                                  int burst,
+                                  int leaseSize,
+                                  int localCredit,
+                                  Duration leaseTtl,
+                                  Duration syncInterval,
+                                  int maxKeys,
+                                  IpRateLimiter fallback,
+                                  ScheduledExecutorService scheduler) {
+        if (leaseSize < 1) throw new IllegalArgumentException("leaseSize must be >= 1");
+        this.coordinator = coordinator.resolve(QuotaCoordinator.PATH);
+        this.http = http;
+        this.burst = burst;
+        this.leaseSize = leaseSize;
+        this.lowWater = Math.max(1, leaseSize / 2);
+        this.localCredit = localCredit;
+        this.leaseTtlNanos = leaseTtl.toNanos();
+        this.syncNanos = syncInterval.toNanos();
+        this.maxKeys = maxKeys;
+        this.fallback = fallback;
+        this.scheduler = scheduler;
+    }
+
+    public synchronized void start() {
+        if (syncTask != null) return;
+        syncTask = scheduler.scheduleWithFixedDelay(this::syncSafely, syncNanos, syncNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (syncTask != null) syncTask.cancel(false);
+        syncTask = null;
+    }
+
+    @Override
+    public RateLimitDecision tryAcquire(String key) {
+        if (!coordinatorUp) return fallback.tryAcquire(key);
+
+        Lease l = leases.get(key);
+        if (l == null) {
+            if (leases.size() >= maxKeys) {
+                overflows.increment();
+                return fallback.tryAcquire(key);
+            }
+            l = leases.computeIfAbsent(key, Lease::new);
+        }
+        long now = System.nanoTime();
+
+        int left = l.take();
+        if (left >= 0) {
+            if (left < lowWater) l.queued.set(true);
+            return new RateLimitDecision(true, burst, left, l.resetNanos(now), 0);
+        }
+        l.queued.set(true);
+        long deniedFor = l.deniedUntil - now;
+        if (deniedFor <= 0 && l.credit.incrementAndGet() <= localCredit) {
+            l.unreported.incrementAndGet();
+            return new RateLimitDecision(true, burst, 0, l.resetNanos(now), 0);
+        }
+        if (deniedFor <= 0) {
+            l.credit.decrementAndGet();
+            deniedFor = syncNanos;
+        }
+        return new RateLimitDecision(false, burst, 0, Math.max(deniedFor, l.resetNanos(now)), deniedFor);
+    }
+
+    /** Keys with a live lease or pending sync on this node. */
+    public int size() {
+        return leases.size();
+    }
+
+    public long syncFailures() {
+        return syncFailures.sum();
+    }
+
+    /** Decisions made by the local fallback because the lease table was full. */
+    public long overflows() {
+        return overflows.sum();
+    }
+
+    public boolean coordinatorUp() {
+        return coordinatorUp;
+    }
+
+    private void syncSafely() {
+        try {
+            sync();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // shutting down
+        } catch (Exception e) {
+            syncFailures.increment();
+            if (coordinatorUp) log.warn("quota sync failed, falling back to local limits", "error", e.toString());
+            coordinatorUp = false;
+        }
+    }
+
+    /** One batched round trip to the coordinator. Runs on the scheduler thread only. */
+    void sync() throws IOException, InterruptedException {
+        long now = System.nanoTime();
+        List<Lease> batch = new ArrayList<>();
+        List<Integer> wants = new ArrayList<>();
+        StringBuilder body = new StringBuilder();
+
+        for (Lease l : leases.values()) {
+            boolean expired = now - l.expiresAt > 0;
+            int returned = expired ? Math.max(0, l.tokens.getAndSet(0)) : 0;
+            int used = l.unreported.getAndSet(0);
+            int want = l.queued.getAndSet(false) ? leaseSize : 0;
+
+            if (used == 0 && returned == 0 && want == 0) {
+                if (expired && l.deniedUntil - now <= 0) leases.remove(l.key, l);
+                continue;
+            }
+            batch.add(l);
+            wants.add(want);
+            body.append(l.key.replace('\t', ' ').replace('\n', ' ')).append('\t')
+                    .append(used).append('\t').append(returned).append('\t').append(want).append('\n');
+        }
+        if (batch.isEmpty() && coordinatorUp) return;
+
+        HttpRequest req = HttpRequest.newBuilder(coordinator)
+                .timeout(Duration.ofNanos(Math.max(syncNanos, TimeUnit.MILLISECONDS.toNanos(200))))
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
+        if (resp.statusCode() != 200) throw new IOException("coordinator returned HTTP " + resp.statusCode());
+
+        String[] lines = resp.body().isEmpty() ? new String[0] : resp.body().split("\n");
+        if (lines.length != batch.size()) throw new IOException("coordinator answered " + lines.length + " of " + batch.size() + " keys");
+
+        long received = System.nanoTime();
+        for (int i = 0; i < lines.length; i++) {
+            String[] f = lines[i].split("\t");
+            Lease l = batch.get(i);
+            int granted = Integer.parseInt(f[0]);
+            long retryAfter = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(f[1]));
+            l.resetAt = received + TimeUnit.MILLISECONDS.toNanos(Long.parseLong(f[2]));
+            if (granted > 0) {
+                l.credit.set(0);
+                l.tokens.addAndGet(granted);
+                l.expiresAt = received + leaseTtlNanos;
+            }
+            l.deniedUntil = granted < wants.get(i) ? received + retryAfter : received;
+        }
+        if (!coordinatorUp) log.info("quota coordinator reachable again");
+        coordinatorUp = true;
+    }
+
+    private static final class Lease {
+        final String key;
+        final AtomicInteger tokens = new AtomicInteger();
+        /** Permits spent on credit since the last grant (bounded by {@code localCredit}). */
+        final AtomicInteger credit = new AtomicInteger();
+        /** Credit permits not yet charged to the coordinator. */
+        final AtomicInteger unreported = new AtomicInteger();
+        final AtomicBoolean queued = new AtomicBoolean();
+        volatile long expiresAt = System.nanoTime();
+        volatile long deniedUntil = expiresAt;
+        volatile long resetAt = expiresAt;
+
+        Lease(String key) {
+            this.key = key;
+        }
+
+        /** Takes one leased permit; returns the number left, or -1 if none was available. */
+        int take() {
+            while (true) {
+                int t = tokens.get();
+                if (t <= 0) return -1;
+                if (tokens.compareAndSet(t, t - 1)) return t - 1;
+            }
+        }
+
+        long resetNanos(long now) {
+            return Math.max(0, resetAt - now);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.tube.ratelimit;
+
+import com.example.tube.log.Log;
+import com.example.tube.log.Logger;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the cluster-wide limit and hands out blocks of quota to {@link LeasedQuotaRateLimiter} nodes.
+ * <p>
+ * One {@code POST /quota} per node sync carries a batch of lines {@code key \t used \t returned \t wanted}
+ * and is answered with one line {@code granted \t retryAfterMs \t resetMs} per request line, in order.
+ * State is an ordinary {@link IpRateLimiter}, so the coordinator enforces the same GCRA limits a
+ * single instance would.
+ * <p>
+ * The endpoint is unauthenticated, so it should only be reachable by the replicas. Negative counts
+ * are rejected and each count is clamped to {@code maxPermits}, so a request can refund or claim at
+ * most one lease's worth of quota per key.
+ */
+public final class QuotaCoordinator {
+    private static final Logger log = Log.get(QuotaCoordinator.class);
+
+    public static final String PATH = "/quota";
+
+    private final IpRateLimiter limits;
+    private final int maxPermits;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param maxPermits largest {@code used}, {@code returned} or {@code wanted} count honoured for one
+     *                   key in one sync; see {@link #maxPermitsFor}
+     */
+    public QuotaCoordinator(IpRateLimiter limits, int maxPermits) {
+        if (maxPermits < 1) throw new IllegalArgumentException("maxPermits must be >= 1");
+        this.limits = limits;
+        this.maxPermits = maxPermits;
+    }
+
+    /**
+     * Cap for nodes leasing {@code leaseSize} permits at a time: a node asks for one lease, holds
+     * less than a lease and a half when it returns one, and spends at most {@code localCredit}.
+     */
+    public static int maxPermitsFor(int leaseSize, int localCredit) {
+        return Math.max(2 * leaseSize, localCredit);
+    }
+
+    /** Binds and starts serving; returns the bound port (useful with port 0). */
+    public synchronized int start(InetSocketAddress address) throws IOException {
+        server = HttpServer.create(address, 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext(PATH, this::handle);
+        server.start();
+        log.info("quota coordinator listening", "address", server.getAddress());
+        return server.getAddress().getPort();
+    }
+
+    public synchronized void stop() {
+        if (server != null) server.stop(0);
+        if (executor != null) executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) {
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            StringBuilder out = new StringBuilder();
+            try (var in = new BufferedReader(new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.isEmpty()) continue;
+                    String[] f = line.split("\t", 4);
+                    if (f.length != 4) {
+                        ex.sendResponseHeaders(400, -1);
+                        return;
+                    }
+                    int used = Integer.parseInt(f[1]), returned = Integer.parseInt(f[2]), wanted = Integer.parseInt(f[3]);
+                    if (used < 0 || returned < 0 || wanted < 0) {
+                        ex.sendResponseHeaders(400, -1);
+                        return;
+                    }
+                    QuotaGrant g = limits.lease(f[0], Math.min(used, maxPermits), Math.min(returned, maxPermits),
+                            Math.min(wanted, maxPermits));
+                    out.append(g.granted()).append('\t')
+                            .append(toMillisCeil(g.retryAfterNanos())).append('\t')
+                            .append(toMillisCeil(g.resetNanos())).append('\n');
+                }
+            } catch (NumberFormatException e) {
+                ex.sendResponseHeaders(400, -1);
+                return;
+            }
+            byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            if (body.length > 0) {
+                try (OutputStream os = ex.getResponseBody()) {
+                    os.write(body);
+                }
+            }
+        }
+    }
+
+    private static long toMillisCeil(long nanos) {
+        return nanos <= 0 ? 0 : (nanos + 999_999) / 1_000_000;
+    }
+
+    /**
+     * Standalone coordinator for multi-process runs:
+     * {@code QuotaCoordinator <port> <maxRequests> <windowSeconds> [burst] [bindAddress] [leaseSize] [localCredit]}.
+     * Binds loopback unless an address is given; pass the private interface the replicas use.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        int max = Integer.parseInt(args[1]);
+        Duration window = Duration.ofSeconds(Integer.parseInt(args[2]));
+        int burst = args.length > 3 ? Integer.parseInt(args[3]) : max;
+        String bind = args.length > 4 ? args[4] : "127.0.0.1";
+        int leaseSize = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+        int localCredit = args.length > 6 ? Integer.parseInt(args[6]) : 2;
+        IpRateLimiter limits = new IpRateLimiter(max, window, burst);
+        Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("ratelimit-sweeper").factory())
+                .scheduleWithFixedDelay(limits::sweep, 10, 10, TimeUnit.SECONDS);
+        new QuotaCoordinator(limits, maxPermitsFor(leaseSize, localCredit)).start(new InetSocketAddress(bind, port));
+    }
+}
@@ -0,0 +1,4 @@
+package com.example.tube.ratelimit;
+
+/** Coordinator answer for one key in a quota sync batch. */
+record QuotaGrant(int granted, long retryAfterNanos, long resetNanos) {}
@@ -0,0 +1,27 @@
+package com.example.tube.ratelimit;
+
+/**
+ * Outcome of a single rate-limit check.
+ *
+ * @param allowed         whether the request may proceed
+ * @param limit           burst capacity (requests that may be sent back-to-back)
+ * @param remaining       requests that could still be sent right now
+ * @param resetNanos      time until the bucket is completely refilled
+ * @param retryAfterNanos time until the next request would be allowed (0 when allowed)
+ */
+public record RateLimitDecision(boolean allowed, int limit, int remaining, long resetNanos, long retryAfterNanos) {
+
+    /** Seconds until the bucket is full again, rounded up (for {@code X-RateLimit-Reset}). */
+    public long resetSeconds() {
+        return ceilSeconds(resetNanos);
+    }
+
+    /** Seconds until a retry would succeed, rounded up and at least 1 (for {@code Retry-After}). */
+    public long retryAfterSeconds() {
+        return Math.max(1, ceilSeconds(retryAfterNanos));
+    }
+
+    private static long ceilSeconds(long nanos) {
+        return nanos <= 0 ? 0 : (nanos + 999_999_999L) / 1_000_000_000L;
+    }
+}
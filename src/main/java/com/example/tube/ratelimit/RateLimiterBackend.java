@@ -0,0 +1,15 @@
+package com.example.tube.ratelimit;
+
+/**
+ * Where rate-limit decisions are made. {@link IpRateLimiter} decides from in-process state only;
+ * {@link LeasedQuotaRateLimiter} shares one limit across replicas via a {@link QuotaCoordinator}.
+ * Implementations must answer from local state: {@link #tryAcquire} runs on every request.
+ */
+public interface RateLimiterBackend {
+
+    RateLimitDecision tryAcquire(String key);
+
+    default boolean allow(String key) {
+        return tryAcquire(key).allowed();
+    }
+}
@@ -1,36 +1,65 @@
 package com.example.tube.resilience;
 
+import com.example.tube.log.Log;
+import com.example.tube.log.Logger;
+import com.example.tube.otel.Metrics;
+
 import java.time.Duration;
-import java.time.Instant;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Opens either after {@code failuresToOpen} consecutive failures, or (window mode) when the failure
+ * or slow-call rate over an {@link OutcomeWindow} crosses its threshold. After {@code openDuration}
+ * it lets {@code halfOpenPermits} probes through; one success closes it, one failure reopens it.
+ */
 public class CircuitBreaker {
+    private static final Logger log = Log.get(CircuitBreaker.class);
+
     public enum State { CLOSED, OPEN, HALF_OPEN }
 
     private final int failuresToOpen;
-    private final Duration openDuration;
+    private final OutcomeWindow window;
+    private final long openNanos;
     private final int halfOpenPermits;
+    private final Metrics metrics;
 
     private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
     private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
-    private final AtomicReference<Instant> openedAt = new AtomicReference<>(Instant.EPOCH);
+    private final AtomicLong openedAt = new AtomicLong();
+    private final AtomicLong closedOpenNanos = new AtomicLong();
     private final AtomicInteger halfOpenInFlight = new AtomicInteger(0);
 
     public CircuitBreaker(int failuresToOpen, Duration openDuration, int halfOpenPermits) {
+        this(failuresToOpen, openDuration, halfOpenPermits, Metrics.noop());
+    }
+
+    public CircuitBreaker(int failuresToOpen, Duration openDuration, int halfOpenPermits, Metrics metrics) {
+        this(failuresToOpen, null, openDuration, halfOpenPermits, metrics);
+    }
+
+    /** Window mode: trips on failure / slow-call rate instead of consecutive failures. */
+    public CircuitBreaker(OutcomeWindow window, Duration openDuration, int halfOpenPermits, Metrics metrics) {
+        this(0, window, openDuration, halfOpenPermits, metrics);
+    }
+
+    private CircuitBreaker(int failuresToOpen, OutcomeWindow window, Duration openDuration, int halfOpenPermits, Metrics metrics) {
         this.failuresToOpen = failuresToOpen;
-        this.openDuration = openDuration;
+        this.window = window;
+        this.openNanos = openDuration.toNanos();
         this.halfOpenPermits = halfOpenPermits;
+        this.metrics = metrics;
     }
 
     public void acquirePermission() {
-        System.out.println("CB state=" + state + " failures=" + failuresToOpen);
         State s = state.get();
+        if (log.isDebugEnabled()) log.debug("CB acquirePermission", "state", s);
         if (s == State.CLOSED) return;
 
         if (s == State.OPEN) {
-            if (Instant.now().isAfter(openedAt.get().plus(openDuration))) {
-                if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) halfOpenInFlight.set(0);
+            if (System.nanoTime() - openedAt.get() >= openNanos) {
+                if (transition(State.OPEN, State.HALF_OPEN)) halfOpenInFlight.set(0);
             } else {
                 throw new CallNotPermittedException("Circuit breaker is OPEN");
             }
@@ -43,30 +72,79 @@ public class CircuitBreaker {
                 throw new CallNotPermittedException("Circuit breaker is HALF_OPEN and permits exhausted");
             }
         }
-
     }
 
     public void onSuccess() {
+        onSuccess(0);
+    }
+
+    /** @param durationNanos how long the call took; only window mode uses it (slow calls) */
+    public void onSuccess(long durationNanos) {
         consecutiveFailures.set(0);
-        if (state.get() == State.HALF_OPEN) state.set(State.CLOSED);
         if (halfOpenInFlight.get() > 0) halfOpenInFlight.decrementAndGet();
+        if (state.get() == State.HALF_OPEN) {
+            if (transition(State.HALF_OPEN, State.CLOSED) && window != null) window.reset();
+            return;
+        }
+        if (window != null && window.record(false, durationNanos)) tripFrom(State.CLOSED);
     }
 
     public void onFailure() {
-        System.out.println("CB onFailure failures=" + failuresToOpen);
+        onFailure(0);
+    }
+
+    public void onFailure(long durationNanos) {
+        if (log.isDebugEnabled()) log.debug("CB onFailure", "consecutiveFailures", consecutiveFailures.get() + 1);
         if (halfOpenInFlight.get() > 0) halfOpenInFlight.decrementAndGet();
 
         int fails = consecutiveFailures.incrementAndGet();
-        if (state.get() == State.HALF_OPEN) { open(); return; }
-        if (state.get() == State.CLOSED && fails >= failuresToOpen) open();
+        if (state.get() == State.HALF_OPEN) { tripFrom(State.HALF_OPEN); return; }
+        if (state.get() != State.CLOSED) return;
+
+        boolean trip = window != null ? window.record(true, durationNanos) : fails >= failuresToOpen;
+        if (trip) tripFrom(State.CLOSED);
+    }
 
+    /** Gives back a permit without recording an outcome (e.g. the losing half of a hedged call). */
+    public void release() {
+        if (halfOpenInFlight.get() > 0) halfOpenInFlight.decrementAndGet();
+    }
+
+    public State state() {
+        return state.get();
+    }
 
+    /** Permits taken in HALF_OPEN and not yet given back by an outcome or {@link #release()}. */
+    public int probesInFlight() {
+        return halfOpenInFlight.get();
     }
 
-    private void open() {
-        state.set(State.OPEN);
-        openedAt.set(Instant.now());
+    /** Total time spent OPEN so far, including the current open period. */
+    public double openSeconds() {
+        long total = closedOpenNanos.get();
+        if (state.get() == State.OPEN) total += Math.max(0, System.nanoTime() - openedAt.get());
+        return total / 1e9;
+    }
+
+    private void tripFrom(State from) {
+        long now = System.nanoTime();
+        if (!state.compareAndSet(from, State.OPEN)) return;
+        openedAt.set(now);
         consecutiveFailures.set(0);
         halfOpenInFlight.set(0);
+        if (window != null) window.reset();
+        transitioned(from, State.OPEN);
+    }
+
+    private boolean transition(State from, State to) {
+        if (!state.compareAndSet(from, to)) return false;
+        if (from == State.OPEN) closedOpenNanos.addAndGet(System.nanoTime() - openedAt.get());
+        transitioned(from, to);
+        return true;
+    }
+
+    private void transitioned(State from, State to) {
+        metrics.cbTransitions.add(1, Metrics.transitionAttrs(from.name(), to.name()));
+        log.info("circuit breaker transition", "from", from, "to", to);
     }
 }
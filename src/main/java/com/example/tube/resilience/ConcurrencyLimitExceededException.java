@@ -0,0 +1,6 @@
+package com.example.tube.resilience;
+
+/** Thrown by {@link ConcurrencyLimiter#acquire()} when the upstream in-flight limit is reached. Never retried. */
+public class ConcurrencyLimitExceededException extends CallNotPermittedException {
+    public ConcurrencyLimitExceededException(String message) { super(message); }
+}
@@ -0,0 +1,96 @@
+package com.example.tube.resilience;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive cap on concurrent upstream calls (AIMD).
+ *
+ * <p>Each call takes a slot with {@link #acquire()} and reports its round-trip time with
+ * {@link #release(long, boolean)}. A call that was dropped (timeout, connection error, 5xx) or
+ * slower than {@code latencyThreshold} shrinks the limit multiplicatively, at most once per
+ * threshold period so one burst of timeouts does not collapse it to the minimum. A fast call made
+ * while at least half the limit was in use grows it by one. When TfL slows down the limit falls
+ * towards what it can actually serve, and excess callers are rejected immediately instead of
+ * queuing on server threads.
+ */
+public final class ConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+    private final boolean unlimited;
+
+    private final AtomicInteger limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong lastDecrease;
+
+    /**
+     * @param backoffRatio multiplier applied on a drop or slow call, e.g. 0.9
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Duration latencyThreshold, double backoffRatio) {
+        this(initialLimit, minLimit, maxLimit, latencyThreshold, backoffRatio, false);
+    }
+
+    private ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Duration latencyThreshold, double backoffRatio, boolean unlimited) {
+        if (minLimit < 1 || maxLimit < minLimit) throw new IllegalArgumentException("require 1 <= minLimit <= maxLimit");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.unlimited = unlimited;
+        this.limit = new AtomicInteger(Math.max(minLimit, Math.min(maxLimit, initialLimit)));
+        this.lastDecrease = new AtomicLong(System.nanoTime() - latencyThresholdNanos);
+    }
+
+    /** No limit: every call is admitted and samples are ignored. */
+    public static ConcurrencyLimiter unlimited() {
+        return new ConcurrencyLimiter(Integer.MAX_VALUE, 1, Integer.MAX_VALUE, Duration.ZERO, 1, true);
+    }
+
+    /** Takes an in-flight slot or fails fast. */
+    public void acquire() {
+        if (unlimited) return;
+        int cur;
+        do {
+            cur = inFlight.get();
+            if (cur >= limit.get()) throw new ConcurrencyLimitExceededException("TfL concurrency limit reached (" + cur + " in flight)");
+        } while (!inFlight.compareAndSet(cur, cur + 1));
+    }
+
+    /**
+     * Frees the slot and adapts the limit.
+     *
+     * @param rttNanos time the call took
+     * @param dropped  true for timeouts, connection errors and upstream 5xx
+     */
+    public void release(long rttNanos, boolean dropped) {
+        if (unlimited) return;
+        int wasInFlight = inFlight.getAndDecrement();
+
+        if (dropped || rttNanos > latencyThresholdNanos) {
+            long now = System.nanoTime();
+            long last = lastDecrease.get();
+            if (now - last >= latencyThresholdNanos && lastDecrease.compareAndSet(last, now)) {
+                limit.updateAndGet(l -> Math.max(minLimit, (int) (l * backoffRatio)));
+            }
+        } else if (wasInFlight * 2 >= limit.get()) {
+            limit.updateAndGet(l -> Math.min(maxLimit, l + 1));
+        }
+    }
+
+    /** Frees the slot without a sample (the call never reached TfL). */
+    public void cancel() {
+        if (!unlimited) inFlight.decrementAndGet();
+    }
+
+    public int limit() {
+        return unlimited ? Integer.MAX_VALUE : limit.get();
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+}
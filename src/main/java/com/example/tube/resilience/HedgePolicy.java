@@ -0,0 +1,61 @@
+package com.example.tube.resilience;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Settings for hedged upstream requests: if the first attempt has not answered within the
+ * tracked latency percentile, a second identical request is sent and the first response
+ * wins. Hedges draw from their own {@link RetryBudget}, so they can never exceed a fixed
+ * share of upstream traffic.
+ */
+public final class HedgePolicy {
+    private final boolean enabled;
+    private final LatencyTracker latencies;
+    private final long minDelayNanos;
+    private final RetryBudget budget;
+    private final ScheduledExecutorService scheduler;
+
+    public HedgePolicy(LatencyTracker latencies,
+                       Duration minDelay,
+                       RetryBudget budget,
+                       ScheduledExecutorService scheduler) {
+        this(true, latencies, minDelay, budget, scheduler);
+    }
+
+    private HedgePolicy(boolean enabled,
+                        LatencyTracker latencies,
+                        Duration minDelay,
+                        RetryBudget budget,
+                        ScheduledExecutorService scheduler) {
+        this.enabled = enabled;
+        this.latencies = latencies;
+        this.minDelayNanos = minDelay.toNanos();
+        this.budget = budget;
+        this.scheduler = scheduler;
+    }
+
+    public static HedgePolicy disabled() {
+        return new HedgePolicy(false, null, Duration.ZERO, null, null);
+    }
+
+    public boolean enabled() { return enabled; }
+
+    /** Records an observed upstream latency (all attempts, hedged or not). */
+    public void record(long nanos) {
+        if (enabled) latencies.record(nanos);
+    }
+
+    /** Delay before hedging, or -1 if there is no reliable latency estimate yet. */
+    public long delayNanos() {
+        long p = latencies.percentileNanos();
+        return (p < 0) ? -1 : Math.max(p, minDelayNanos);
+    }
+
+    /** Counts a primary request towards the hedge budget. */
+    public void onPrimary() { budget.onFirstAttempt(); }
+
+    public boolean tryAcquireHedge() { return budget.tryAcquireRetry(); }
+
+    public ScheduledExecutorService scheduler() { return scheduler; }
+}
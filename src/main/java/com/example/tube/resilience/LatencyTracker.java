@@ -0,0 +1,55 @@
+package com.example.tube.resilience;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Rolling sample of the most recent upstream latencies, used to derive a hedging delay.
+ *
+ * <p>Writers overwrite a fixed ring of slots without locking. The percentile is computed
+ * from a sorted copy at most once per refresh interval and cached, so reading it on every
+ * request costs a volatile read.
+ */
+public final class LatencyTracker {
+    private static final long REFRESH_NANOS = 1_000_000_000L;
+
+    private final AtomicLongArray samples;
+    private final AtomicLong writes = new AtomicLong();
+    private final int minSamples;
+    private final double percentile;
+
+    private volatile long cachedNanos = -1;
+    private volatile long cachedAt = System.nanoTime() - REFRESH_NANOS;
+
+    public LatencyTracker(int capacity, int minSamples, double percentile) {
+        this.samples = new AtomicLongArray(capacity);
+        this.minSamples = minSamples;
+        this.percentile = percentile;
+    }
+
+    public void record(long nanos) {
+        long i = writes.getAndIncrement();
+        samples.set((int) (i % samples.length()), nanos);
+    }
+
+    /** The tracked percentile in nanoseconds, or -1 until enough samples have been seen. */
+    public long percentileNanos() {
+        long now = System.nanoTime();
+        if (now - cachedAt >= REFRESH_NANOS) {
+            cachedAt = now;
+            cachedNanos = compute();
+        }
+        return cachedNanos;
+    }
+
+    private long compute() {
+        int n = (int) Math.min(writes.get(), samples.length());
+        if (n < minSamples) return -1;
+        long[] copy = new long[n];
+        for (int i = 0; i < n; i++) copy[i] = samples.get(i);
+        Arrays.sort(copy);
+        int idx = (int) Math.ceil(percentile / 100.0 * n) - 1;
+        return copy[Math.max(0, Math.min(n - 1, idx))];
+    }
+}
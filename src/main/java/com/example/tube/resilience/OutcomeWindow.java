@@ -0,0 +1,107 @@
+package com.example.tube.resilience;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Count-based sliding window of the last {@code size} call outcomes for {@link CircuitBreaker}.
+ * <p>
+ * Each call claims the next ring slot with one atomic increment and swaps in its outcome; the
+ * failure and slow-call totals are adjusted by the difference to the outcome it overwrote, so
+ * recording and reading rates never lock. Under concurrent writes the totals may briefly lag the
+ * ring by in-flight updates, which is fine for a trip decision.
+ * <p>
+ * The ring and its totals form one {@link Generation}. {@link #reset()} swaps in a fresh one rather
+ * than zeroing fields in place, so a {@code record} racing with a reset lands wholly in the
+ * discarded generation and cannot leave the new totals skewed for the rest of the closed period.
+ */
+public final class OutcomeWindow {
+
+    private static final int RECORDED = 1;
+    private static final int FAILED = 2;
+    private static final int SLOW = 4;
+
+    private final int size;
+    private final int minCalls;
+    private final int failureRatePercent;
+    private final int slowCallRatePercent;
+    private final long slowCallNanos;
+
+    private final AtomicReference<Generation> current;
+
+    /**
+     * @param size                number of most recent calls considered
+     * @param minCalls            calls needed before rates are evaluated
+     * @param failureRatePercent  open at or above this failure rate (0-100)
+     * @param slowCallRatePercent open at or above this slow-call rate (0-100; above 100 disables)
+     * @param slowCallDuration    calls taking at least this long count as slow, failed or not
+     */
+    public OutcomeWindow(int size, int minCalls, int failureRatePercent, int slowCallRatePercent, Duration slowCallDuration) {
+        if (size < 1 || minCalls < 1) throw new IllegalArgumentException("size and minCalls must be >= 1");
+        this.size = size;
+        this.minCalls = Math.min(minCalls, size);
+        this.failureRatePercent = failureRatePercent;
+        this.slowCallRatePercent = slowCallRatePercent;
+        this.slowCallNanos = slowCallDuration.toNanos();
+        this.current = new AtomicReference<>(new Generation(size));
+    }
+
+    /** Records one outcome; returns true if the window now says the breaker should open. */
+    boolean record(boolean failed, long durationNanos) {
+        Generation g = current.get();
+        int outcome = RECORDED | (failed ? FAILED : 0) | (durationNanos >= slowCallNanos ? SLOW : 0);
+        int slot = (int) (g.cursor.getAndIncrement() % size);
+        int old = g.ring.getAndSet(slot, outcome);
+
+        if ((old & RECORDED) == 0) g.calls.incrementAndGet();
+        int df = bit(outcome, FAILED) - bit(old, FAILED);
+        if (df != 0) g.failures.addAndGet(df);
+        int ds = bit(outcome, SLOW) - bit(old, SLOW);
+        if (ds != 0) g.slowCalls.addAndGet(ds);
+
+        return shouldOpen(g);
+    }
+
+    private boolean shouldOpen(Generation g) {
+        int n = g.calls.get();
+        if (n < minCalls) return false;
+        return g.failures.get() * 100L >= (long) failureRatePercent * n
+                || g.slowCalls.get() * 100L >= (long) slowCallRatePercent * n;
+    }
+
+    /** Forgets all outcomes (called when the breaker changes state). */
+    void reset() {
+        current.set(new Generation(size));
+    }
+
+    public double failureRate() {
+        Generation g = current.get();
+        int n = g.calls.get();
+        return n == 0 ? 0 : g.failures.get() / (double) n;
+    }
+
+    public double slowCallRate() {
+        Generation g = current.get();
+        int n = g.calls.get();
+        return n == 0 ? 0 : g.slowCalls.get() / (double) n;
+    }
+
+    private static int bit(int outcome, int flag) {
+        return (outcome & flag) != 0 ? 1 : 0;
+    }
+
+    private static final class Generation {
+        final AtomicIntegerArray ring;
+        final AtomicLong cursor = new AtomicLong();
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger slowCalls = new AtomicInteger();
+
+        Generation(int size) {
+            this.ring = new AtomicIntegerArray(size);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.tube.resilience;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide token bucket that caps retries as a fraction of first attempts.
+ *
+ * <p>Every first attempt deposits {@code ratio} tokens (e.g. 0.1), every retry withdraws
+ * one. The balance is capped at {@code maxTokens} so a quiet period cannot bank an
+ * unbounded burst of retries. When TfL browns out, retries stop once the budget is spent
+ * instead of multiplying the load by {@code maxAttempts}.
+ */
+public final class RetryBudget {
+    private static final long UNIT = 1_000; // fixed-point: 1 token = 1000 units
+
+    private final long depositUnits;
+    private final long maxUnits;
+    private final AtomicLong balance;
+    private final boolean unlimited;
+
+    public RetryBudget(double ratio, int maxTokens) {
+        this(ratio, maxTokens, false);
+    }
+
+    private RetryBudget(double ratio, int maxTokens, boolean unlimited) {
+        this.depositUnits = Math.round(ratio * UNIT);
+        this.maxUnits = (long) maxTokens * UNIT;
+        this.balance = new AtomicLong(maxUnits);
+        this.unlimited = unlimited;
+    }
+
+    /** No cap: every retry allowed by the policy's maxAttempts is taken. */
+    public static RetryBudget unlimited() {
+        return new RetryBudget(0, 0, true);
+    }
+
+    public void onFirstAttempt() {
+        if (unlimited || depositUnits == 0) return;
+        long cur;
+        do {
+            cur = balance.get();
+            if (cur >= maxUnits) return;
+        } while (!balance.compareAndSet(cur, Math.min(maxUnits, cur + depositUnits)));
+    }
+
+    /** Takes one retry token; false if the budget is exhausted. */
+    public boolean tryAcquireRetry() {
+        if (unlimited) return true;
+        long cur;
+        do {
+            cur = balance.get();
+            if (cur < UNIT) return false;
+        } while (!balance.compareAndSet(cur, cur - UNIT));
+        return true;
+    }
+
+    public double tokens() {
+        return balance.get() / (double) UNIT;
+    }
+}
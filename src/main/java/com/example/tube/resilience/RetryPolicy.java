@@ -1,20 +1,52 @@
 package com.example.tube.resilience;
 
+import com.example.tube.concurrent.Futures;
+import com.example.tube.log.Log;
+import com.example.tube.log.Logger;
+import com.example.tube.otel.Metrics;
+
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public final class RetryPolicy {
+    private static final Logger log = Log.get(RetryPolicy.class);
 
     private final int maxAttempts;
     private final long baseDelayMs;
+    private final RetryBudget budget;
+    private final ScheduledExecutorService scheduler;
+    private final Metrics metrics;
 
+    /** Blocking retries only: without a scheduler, {@link #executeAsync} makes a single attempt. */
     public RetryPolicy(int maxAttempts, long baseDelayMs) {
+        this(maxAttempts, baseDelayMs, RetryBudget.unlimited(), null, Metrics.noop());
+    }
+
+    /**
+     * @param budget    shared across every policy instance that talks to the same upstream
+     * @param scheduler runs async backoff delays; tasks only kick off the next attempt.
+     *                  Owned by the caller, who shuts it down
+     */
+    public RetryPolicy(int maxAttempts,
+                       long baseDelayMs,
+                       RetryBudget budget,
+                       ScheduledExecutorService scheduler,
+                       Metrics metrics) {
         this.maxAttempts = maxAttempts;
         this.baseDelayMs = baseDelayMs;
+        this.budget = budget;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
     }
 
     public <T> T execute(Callable<T> action) throws Exception {
         int attempt = 0;
+        budget.onFirstAttempt();
 
         while (true) {
             try {
@@ -23,17 +55,67 @@ public final class RetryPolicy {
                 attempt++;
 
                 // Don't retry certain errors
-                if (!shouldRetry(e) || attempt >= maxAttempts) {
+                if (!shouldRetry(e) || attempt >= maxAttempts || !takeRetryToken()) {
                     throw e;
                 }
 
                 long delay = nextDelayMs(attempt);
-                System.out.println("retry attempt " + attempt + " (sleep " + delay + "ms)");
+                log.info("retry attempt", "attempt", attempt, "sleepMs", delay);
                 Thread.sleep(delay);
             }
         }
     }
 
+    /**
+     * Non-blocking variant of {@link #execute}: backoff delays are scheduled rather than
+     * slept, so no thread is parked between attempts.
+     */
+    public <T> CompletableFuture<T> executeAsync(Supplier<CompletableFuture<T>> action) {
+        budget.onFirstAttempt();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attemptAsync(action, 1, result);
+        return result;
+    }
+
+    private <T> void attemptAsync(Supplier<CompletableFuture<T>> action, int attempt, CompletableFuture<T> result) {
+        CompletableFuture<T> f;
+        try {
+            f = action.get();
+        } catch (RuntimeException e) {
+            f = CompletableFuture.failedFuture(e);
+        }
+
+        f.whenComplete((value, err) -> {
+            if (err == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = Futures.unwrap(err);
+            if (!(cause instanceof Exception e) || !shouldRetry(e) || attempt >= maxAttempts
+                    || scheduler == null || !takeRetryToken()) {
+                result.completeExceptionally(cause);
+                return;
+            }
+
+            long delay = nextDelayMs(attempt);
+            log.info("retry attempt", "attempt", attempt, "scheduledInMs", delay);
+            try {
+                scheduler.schedule(() -> attemptAsync(action, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException rejected) {
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    private boolean takeRetryToken() {
+        if (budget.tryAcquireRetry()) {
+            metrics.retries.add(1);
+            return true;
+        }
+        metrics.retryBudgetExhausted.add(1);
+        return false;
+    }
+
     private boolean shouldRetry(Exception e) {
 
         // NEVER retry when circuit breaker is open
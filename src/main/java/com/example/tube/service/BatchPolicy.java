@@ -0,0 +1,39 @@
+package com.example.tube.service;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Settings for micro-batching single-line status fetches in {@link TflClient}: requests for
+ * different lines arriving within {@code window} of the first one (or until {@code maxSize}
+ * distinct lines are waiting) share one {@code /Line/a,b,c/Status} call.
+ */
+public final class BatchPolicy {
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxSize;
+    private final ScheduledExecutorService scheduler;
+
+    public BatchPolicy(Duration window, int maxSize, ScheduledExecutorService scheduler) {
+        this(true, window, maxSize, scheduler);
+    }
+
+    private BatchPolicy(boolean enabled, Duration window, int maxSize, ScheduledExecutorService scheduler) {
+        this.enabled = enabled;
+        this.windowNanos = window.toNanos();
+        this.maxSize = maxSize;
+        this.scheduler = scheduler;
+    }
+
+    public static BatchPolicy disabled() {
+        return new BatchPolicy(false, Duration.ZERO, 1, null);
+    }
+
+    public boolean enabled() { return enabled && maxSize > 1; }
+
+    public long windowNanos() { return windowNanos; }
+
+    public int maxSize() { return maxSize; }
+
+    public ScheduledExecutorService scheduler() { return scheduler; }
+}
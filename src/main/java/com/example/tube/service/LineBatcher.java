@@ -0,0 +1,147 @@
+package com.example.tube.service;
+
+import com.example.tube.concurrent.Futures;
+import com.example.tube.otel.Metrics;
+import com.example.tube.resilience.HttpStatusException;
+import com.example.tube.tfl.Line;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects concurrent single-line fetches into one upstream call. The first request opens a
+ * batch and starts the window timer; the batch is sent when the window ends or when it holds
+ * {@link BatchPolicy#maxSize()} distinct lines, whichever comes first. Callers asking for the
+ * same line share its future.
+ *
+ * <p>The combined response is split back out per line; a line TfL leaves out completes with
+ * an empty array, as an unbatched call for it would. TfL answers 4xx for the whole call if
+ * any id is unknown, so a rejected batch is retried line by line rather than failing every
+ * caller; other failures (5xx, breaker open, ...) fail the whole batch, since they would
+ * have failed the individual calls too.
+ */
+final class LineBatcher {
+
+    private final BatchPolicy policy;
+    private final Function<List<String>, CompletableFuture<Line[]>> fetchMany;
+    private final Function<String, CompletableFuture<Line[]>> fetchOne;
+    private final Metrics metrics;
+
+    private final Object lock = new Object();
+    private Batch open; // guarded by lock
+
+    private static final class Batch {
+        final Map<String, CompletableFuture<Line[]>> waiting = new LinkedHashMap<>();
+        final List<Long> enqueuedAt = new ArrayList<>();
+        ScheduledFuture<?> timer;
+    }
+
+    LineBatcher(BatchPolicy policy,
+                Function<List<String>, CompletableFuture<Line[]>> fetchMany,
+                Function<String, CompletableFuture<Line[]>> fetchOne,
+                Metrics metrics) {
+        this.policy = policy;
+        this.fetchMany = fetchMany;
+        this.fetchOne = fetchOne;
+        this.metrics = metrics;
+    }
+
+    CompletableFuture<Line[]> get(String lineId) {
+        Batch full = null;
+        CompletableFuture<Line[]> result;
+        synchronized (lock) {
+            Batch b = open;
+            if (b == null) {
+                Batch opened = new Batch();
+                try {
+                    opened.timer = policy.scheduler().schedule(() -> flushIfOpen(opened), policy.windowNanos(), TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    return CompletableFuture.failedFuture(e); // shutting down: nothing would ever send the batch
+                }
+                b = open = opened;
+            }
+            result = b.waiting.computeIfAbsent(lineId, id -> new CompletableFuture<>());
+            b.enqueuedAt.add(System.nanoTime());
+            if (b.waiting.size() >= policy.maxSize()) {
+                open = null;
+                full = b;
+            }
+        }
+        if (full != null) {
+            full.timer.cancel(false);
+            send(full);
+        }
+        return result;
+    }
+
+    private void flushIfOpen(Batch b) {
+        synchronized (lock) {
+            if (open != b) return; // already sent because it filled up
+            open = null;
+        }
+        send(b);
+    }
+
+    private void send(Batch b) {
+        long now = System.nanoTime();
+        for (long t : b.enqueuedAt) metrics.upstreamBatchWaitMs.record((now - t) / 1_000_000.0);
+        metrics.upstreamBatchSize.record(b.waiting.size());
+
+        List<String> ids = List.copyOf(b.waiting.keySet());
+        if (ids.size() == 1) {
+            forward(fetchOne(ids.getFirst()), b.waiting.get(ids.getFirst()));
+            return;
+        }
+        fetchMany(ids).whenComplete((lines, err) -> {
+            if (err == null) {
+                split(lines, b.waiting);
+            } else if (Futures.unwrap(err) instanceof HttpStatusException hs && hs.statusCode() < 500) {
+                b.waiting.forEach((id, f) -> forward(fetchOne(id), f));
+            } else {
+                b.waiting.values().forEach(f -> f.completeExceptionally(Futures.unwrap(err)));
+            }
+        });
+    }
+
+    private static void split(Line[] lines, Map<String, CompletableFuture<Line[]>> waiting) {
+        Map<String, Line> byId = new HashMap<>();
+        if (lines != null) {
+            for (Line l : lines) if (l != null && l.id != null) byId.put(l.id, l);
+        }
+        waiting.forEach((id, f) -> {
+            Line l = byId.get(id);
+            f.complete(l == null ? new Line[0] : new Line[]{l});
+        });
+    }
+
+    private CompletableFuture<Line[]> fetchMany(List<String> ids) {
+        try {
+            return fetchMany.apply(ids);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private CompletableFuture<Line[]> fetchOne(String id) {
+        try {
+            return fetchOne.apply(id);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static void forward(CompletableFuture<Line[]> from, CompletableFuture<Line[]> to) {
+        from.whenComplete((v, e) -> {
+            if (e != null) to.completeExceptionally(Futures.unwrap(e));
+            else to.complete(v);
+        });
+    }
+}
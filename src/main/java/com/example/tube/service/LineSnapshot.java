@@ -0,0 +1,42 @@
+package com.example.tube.service;
+
+import com.example.tube.tfl.Line;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, id-indexed view of one {@code /Line/Mode/tube/Status} response.
+ *
+ * <p>Instances are published whole by {@link LineSnapshotPoller}; readers never see a
+ * partially built snapshot and never need to lock.
+ */
+public final class LineSnapshot {
+    private final List<Line> lines;
+    private final Map<String, Line> byId;
+    private final long fetchedAtNanos;
+
+    public LineSnapshot(Line[] lines, long fetchedAtNanos) {
+        List<Line> kept = new ArrayList<>();
+        Map<String, Line> idx = new HashMap<>();
+        if (lines != null) {
+            for (Line l : lines) {
+                if (l == null) continue; // a null array element is valid JSON; skip it, not the snapshot
+                kept.add(l);
+                if (l.id != null) idx.put(l.id, l);
+            }
+        }
+        this.lines = List.copyOf(kept);
+        this.byId = Map.copyOf(idx);
+        this.fetchedAtNanos = fetchedAtNanos;
+    }
+
+    public List<Line> lines() { return lines; }
+
+    /** The line with this id, or null if TfL did not report it. */
+    public Line line(String lineId) { return byId.get(lineId); }
+
+    public long ageNanos() { return System.nanoTime() - fetchedAtNanos; }
+}
@@ -0,0 +1,90 @@
+package com.example.tube.service;
+
+import com.example.tube.log.Log;
+import com.example.tube.log.Logger;
+import com.example.tube.otel.Metrics;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Periodically fetches the all-lines status feed and keeps the latest result as an
+ * immutable {@link LineSnapshot}.
+ *
+ * <p>Current-status requests can then be answered from memory, so request latency no
+ * longer depends on TfL latency. A failed poll keeps the previous snapshot; callers decide
+ * via {@link #current()} whether it is still young enough to use.
+ */
+public final class LineSnapshotPoller {
+    private static final Logger log = Log.get(LineSnapshotPoller.class);
+
+    private final TflClient client;
+    private final Duration interval;
+    private final long maxAgeNanos;
+    private final Metrics metrics;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile LineSnapshot snapshot;
+    private final List<Consumer<LineSnapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    public LineSnapshotPoller(TflClient client, Duration interval, Duration maxAge, Metrics metrics) {
+        this.client = client;
+        this.interval = interval;
+        this.maxAgeNanos = maxAge.toNanos();
+        this.metrics = metrics;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().daemon().name("snapshot-poller").factory());
+
+        metrics.gauge("line_snapshot_age_seconds", "Age of the in-memory line status snapshot", "s", () -> {
+            LineSnapshot s = snapshot;
+            return (s == null) ? -1 : s.ageNanos() / 1_000_000_000.0;
+        });
+    }
+
+    /** Called on the poller thread with every successfully fetched snapshot, after it is published. */
+    public void addListener(Consumer<LineSnapshot> listener) {
+        listeners.add(listener);
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::pollOnce, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /** Latest snapshot, or null if none has been fetched yet or it is older than the max age. */
+    public LineSnapshot current() {
+        LineSnapshot s = snapshot;
+        return (s != null && s.ageNanos() <= maxAgeNanos) ? s : null;
+    }
+
+    void pollOnce() {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            var lines = client.getAllTubeLineStatus();
+            LineSnapshot fresh = new LineSnapshot(lines, System.nanoTime());
+            snapshot = fresh;
+            ok = true;
+            for (Consumer<LineSnapshot> l : listeners) {
+                try {
+                    l.accept(fresh);
+                } catch (RuntimeException e) {
+                    log.error("snapshot listener failed", e);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("snapshot poll failed", "error", e.getMessage());
+        } finally {
+            double ms = (System.nanoTime() - start) / 1_000_000.0;
+            metrics.snapshotPollLatencyMs.record(ms, Metrics.outcomeAttrs(ok));
+        }
+    }
+}
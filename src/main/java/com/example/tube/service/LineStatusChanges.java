@@ -0,0 +1,157 @@
+package com.example.tube.service;
+
+import com.example.tube.dto.ChangeFeedResponse;
+import com.example.tube.dto.LineStatusDelta;
+import com.example.tube.dto.LineStatusResponse;
+import com.example.tube.tfl.Line;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Turns successive {@link LineSnapshot}s into change events: each snapshot is mapped per line
+ * and compared with the previous one, and only lines whose status, disruption flag or reasons
+ * differ, or that are missing from the new snapshot, are published. Snapshots arrive on the
+ * poller thread, one at a time.
+ *
+ * <p>Every change gets the next version number and is kept in a bounded log of per-line deltas,
+ * so a polling client can ask for what changed since the version it last saw ({@link #since})
+ * and download only that; a version that has aged out of the log gets a full resync.
+ *
+ * <p>By default versions continue from the process start time in milliseconds, so a version
+ * handed out before a restart is below the new process's range (it would have to have published
+ * more changes than milliseconds it ran to overlap) and gets a resync rather than wrong deltas.
+ */
+public final class LineStatusChanges {
+
+    /**
+     * Lines that changed (or, for {@link #current()}, all lines) as of {@code version}, and the
+     * ids of lines that are no longer in the snapshot.
+     */
+    public record Change(long version, List<LineStatusResponse> lines, List<String> removed) {}
+
+    private record Logged(long version, List<LineStatusDelta> deltas) {}
+
+    private final LineMapper mapper = new LineMapper();
+    private final String sourceUrl;
+    private final int maxLogVersions;
+    private final long baseVersion;
+    private final List<Consumer<Change>> listeners = new CopyOnWriteArrayList<>();
+
+    private Map<String, LineStatusResponse> last = Map.of(); // poller thread only
+    private volatile Change current;
+    private volatile List<Logged> log = List.of();            // consecutive versions, oldest first; replaced on write
+    private volatile ChangeFeedResponse upToDate;
+    private volatile ChangeFeedResponse resync;               // built on first request per version
+
+    public LineStatusChanges(String baseUrl) {
+        this(baseUrl, 1000);
+    }
+
+    /** @param maxLogVersions how many versions of deltas {@link #since} can answer from before asking for a resync */
+    public LineStatusChanges(String baseUrl, int maxLogVersions) {
+        this(baseUrl, maxLogVersions, System.currentTimeMillis());
+    }
+
+    /** @param baseVersion the first snapshot is version {@code baseVersion + 1} */
+    public LineStatusChanges(String baseUrl, int maxLogVersions, long baseVersion) {
+        this.sourceUrl = baseUrl.replaceAll("/$", "") + TflClient.ALL_TUBE_STATUS_PATH;
+        this.maxLogVersions = maxLogVersions;
+        this.baseVersion = baseVersion;
+        this.current = new Change(baseVersion, List.of(), List.of());
+        this.upToDate = new ChangeFeedResponse(baseVersion, false, List.of(), List.of());
+        this.resync = new ChangeFeedResponse(baseVersion, true, List.of(), List.of());
+    }
+
+    /** Called with each published change, on the poller thread; keep it short. */
+    public void addListener(Consumer<Change> listener) {
+        listeners.add(listener);
+    }
+
+    /** Every line's latest status and the version it reflects; the base version until the first snapshot. */
+    public Change current() {
+        return current;
+    }
+
+    /**
+     * Deltas after {@code version}, oldest first, or a resync carrying the full state if that
+     * version is older than the log (or from before a restart). A client that is up to date, and
+     * every client that needs a resync, gets the same response instance for as long as nothing changes.
+     */
+    public ChangeFeedResponse since(long version) {
+        Change now = current;
+        List<Logged> entries = log;
+        if (version == now.version()) {
+            ChangeFeedResponse r = upToDate;
+            return (r.version() == version) ? r : new ChangeFeedResponse(version, false, List.of(), List.of());
+        }
+
+        long oldest = entries.isEmpty() ? now.version() + 1 : entries.getFirst().version();
+        if (version < oldest - 1 || version > now.version()) {
+            ChangeFeedResponse r = resync;
+            if (r.version() != now.version()) {
+                r = new ChangeFeedResponse(now.version(), true, List.of(), now.lines());
+                resync = r;
+            }
+            return r;
+        }
+
+        List<LineStatusDelta> out = new ArrayList<>();
+        for (Logged e : entries.subList((int) (version + 1 - oldest), entries.size())) {
+            if (e.version() > now.version()) break; // log written just after current was read
+            out.addAll(e.deltas());
+        }
+        return new ChangeFeedResponse(now.version(), false, out, List.of());
+    }
+
+    public void onSnapshot(LineSnapshot snapshot) {
+        boolean first = current.version() == baseVersion;
+        Map<String, LineStatusResponse> next = new LinkedHashMap<>();
+        List<LineStatusResponse> changed = new ArrayList<>();
+        for (Line l : snapshot.lines()) {
+            if (l.id == null) continue;
+            LineStatusResponse r = mapper.toResponse(l, sourceUrl, false);
+            next.put(l.id, r);
+            LineStatusResponse before = last.get(l.id);
+            if (before == null ? !first : !sameStatus(before, r)) changed.add(r);
+        }
+        List<LineStatusResponse> removed = new ArrayList<>();
+        for (LineStatusResponse before : last.values()) {
+            if (!next.containsKey(before.lineId())) removed.add(before);
+        }
+        last = next;
+        if (!first && changed.isEmpty() && removed.isEmpty()) return;
+
+        long version = current.version() + 1;
+        if (!first) append(version, changed, removed); // the baseline has no deltas: clients start with a resync
+        current = new Change(version, List.copyOf(next.values()), List.of());
+        upToDate = new ChangeFeedResponse(version, false, List.of(), List.of());
+        if (first) return;
+
+        Change change = new Change(version, List.copyOf(changed), removed.stream().map(LineStatusResponse::lineId).toList());
+        for (Consumer<Change> l : listeners) l.accept(change);
+    }
+
+    private void append(long version, List<LineStatusResponse> changed, List<LineStatusResponse> removed) {
+        List<LineStatusDelta> deltas = new ArrayList<>(changed.size() + removed.size());
+        for (LineStatusResponse r : changed) {
+            deltas.add(new LineStatusDelta(version, r.lineId(), r.lineName(), r.status(), r.disrupted(), r.reasons(), false));
+        }
+        for (LineStatusResponse r : removed) {
+            deltas.add(new LineStatusDelta(version, r.lineId(), r.lineName(), null, false, List.of(), true));
+        }
+        List<Logged> entries = log;
+        int from = Math.max(0, entries.size() + 1 - maxLogVersions);
+        List<Logged> next = new ArrayList<>(entries.subList(from, entries.size()));
+        next.add(new Logged(version, List.copyOf(deltas)));
+        log = List.copyOf(next);
+    }
+
+    private static boolean sameStatus(LineStatusResponse a, LineStatusResponse b) {
+        return a.status().equals(b.status()) && a.disrupted() == b.disrupted() && a.reasons().equals(b.reasons());
+    }
+}
@@ -1,21 +1,38 @@
 package com.example.tube.service;
 
 import com.example.tube.errors.UpstreamUnavailableException;
+import com.example.tube.log.Log;
+import com.example.tube.log.Logger;
 import com.example.tube.resilience.CallNotPermittedException;
 import com.example.tube.resilience.CircuitBreaker;
+import com.example.tube.resilience.ConcurrencyLimitExceededException;
+import com.example.tube.resilience.ConcurrencyLimiter;
+import com.example.tube.resilience.HedgePolicy;
 import com.example.tube.resilience.HttpStatusException;
 import com.example.tube.resilience.RetryPolicy;
 import com.example.tube.tfl.Line;
+import com.example.tube.tfl.LineStreamParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.time.LocalDate;
+import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import com.example.tube.concurrent.Futures;
 import com.example.tube.otel.Metrics;
 
 /**
@@ -26,99 +43,392 @@ import com.example.tube.otel.Metrics;
  *   <li>Circuit breaker for fast failure when the dependency is unhealthy</li>
  *   <li>Retry with backoff for transient upstream or network failures</li>
  *   <li>Timeouts to prevent slow dependencies from consuming resources</li>
+ *   <li>Optional hedging: a second request when the first is slower than recent p90</li>
+ *   <li>Optional micro-batching: concurrent single-line fetches merged into one call ({@link LineBatcher})</li>
  *   <li>OpenTelemetry metrics for dependency latency and availability SLIs</li>
  * </ul>
  *
+ * <p>Responses are decoded with {@link LineStreamParser} by default, which reads only the
+ * fields the service uses; Jackson databind into full {@code Line[]} graphs remains
+ * available for comparison.
+ *
  * <p>All failures are normalised into domain-specific exceptions so that
  * higher layers (e.g. HTTP routing) can map them consistently to API responses.
  *
- * <p>This class is synchronous and stateless; it is safe to reuse across requests.
+ * <p>Each call is available in a blocking form and an asynchronous form built on
+ * {@link HttpClient#sendAsync}; the async form never parks a thread, including between
+ * retries. The client is stateless; it is safe to reuse across requests.
  */
 public class TflClient {
+    private static final Logger log = Log.get(TflClient.class);
+
     private final HttpClient http;
     private final CircuitBreaker cb;
     private final RetryPolicy retry;
     private final String baseUrl;
     private final Metrics metrics;
+    private final Duration timeout;
+    private final HedgePolicy hedge;
+    private final LineStreamParser streamingParser; // null = Jackson databind
+    private final ConcurrencyLimiter concurrency;
+    private final LineBatcher batcher;              // null = every line fetched on its own
     private final ObjectMapper om = new ObjectMapper();
 
     public TflClient(HttpClient http, CircuitBreaker cb, RetryPolicy retry, String baseUrl, Metrics metrics) {
+        this(http, cb, retry, baseUrl, metrics, Duration.ofMillis(300), HedgePolicy.disabled(), true, ConcurrencyLimiter.unlimited());
+    }
+
+    public TflClient(HttpClient http,
+                     CircuitBreaker cb,
+                     RetryPolicy retry,
+                     String baseUrl,
+                     Metrics metrics,
+                     Duration timeout,
+                     HedgePolicy hedge,
+                     boolean streamingParser,
+                     ConcurrencyLimiter concurrency) {
+        this(http, cb, retry, baseUrl, metrics, timeout, hedge, streamingParser, concurrency, BatchPolicy.disabled());
+    }
+
+    public TflClient(HttpClient http,
+                     CircuitBreaker cb,
+                     RetryPolicy retry,
+                     String baseUrl,
+                     Metrics metrics,
+                     Duration timeout,
+                     HedgePolicy hedge,
+                     boolean streamingParser,
+                     ConcurrencyLimiter concurrency,
+                     BatchPolicy batching) {
         this.http = http;
         this.cb = cb;
         this.retry = retry;
         this.baseUrl = baseUrl.replaceAll("/$", "");
         this.metrics = metrics;
+        this.timeout = timeout;
+        this.hedge = hedge;
+        this.streamingParser = streamingParser ? new LineStreamParser() : null;
+        this.concurrency = concurrency;
+        this.batcher = batching.enabled()
+                ? new LineBatcher(batching,
+                        ids -> getLinesAsync(lineStatusPath(String.join(",", ids), null, null)),
+                        id -> getLinesAsync(lineStatusPath(id, null, null)),
+                        metrics)
+                : null;
     }
 
-    public Line[] getLineStatus(String lineId, LocalDate from, LocalDate to) {
-        String path = (from == null || to == null)
+    public static final String ALL_TUBE_STATUS_PATH = "/Line/Mode/tube/Status";
+
+    /** Upstream path for a line's current status, or its planned status when both dates are given. */
+    public static String lineStatusPath(String lineId, LocalDate from, LocalDate to) {
+        return (from == null || to == null)
                 ? "/Line/%s/Status".formatted(lineId)
                 : "/Line/%s/Status/%s/to/%s".formatted(lineId, from, to);
-        return getJson(path, Line[].class);
+    }
+
+    public Line[] getLineStatus(String lineId, LocalDate from, LocalDate to) {
+        if (batcher != null && from == null && to == null) return Futures.join(batcher.get(lineId));
+        return getLines(lineStatusPath(lineId, from, to));
+    }
+
+    /** Several lines in one round trip (TfL accepts comma-separated ids). */
+    public Line[] getLinesStatus(List<String> lineIds, LocalDate from, LocalDate to) {
+        return getLines(lineStatusPath(String.join(",", lineIds), from, to));
     }
 
     public Line[] getAllTubeLineStatus() {
-        return getJson("/Line/Mode/tube/Status", Line[].class);
+        return getLines(ALL_TUBE_STATUS_PATH);
     }
 
-    private <T> T getJson(String path, Class<T> clazz) {
-        Callable<T> oneAttempt = () -> {
-            cb.acquirePermission();                 // fail fast if OPEN
-            HttpResponse<String> resp = send(path); // does HTTP + metrics
-            int code = resp.statusCode();
+    /** Non-blocking variant of {@link #getLineStatus}; failures complete the future with the same exceptions. */
+    public CompletableFuture<Line[]> getLineStatusAsync(String lineId, LocalDate from, LocalDate to) {
+        if (batcher != null && from == null && to == null) return batcher.get(lineId);
+        return getLinesAsync(lineStatusPath(lineId, from, to));
+    }
 
-            if (code >= 200 && code < 300) {
-                cb.onSuccess();
-                return om.readValue(resp.body(), clazz);
-            }
+    public CompletableFuture<Line[]> getLinesStatusAsync(List<String> lineIds, LocalDate from, LocalDate to) {
+        return getLinesAsync(lineStatusPath(String.join(",", lineIds), from, to));
+    }
+
+    public CompletableFuture<Line[]> getAllTubeLineStatusAsync() {
+        return getLinesAsync(ALL_TUBE_STATUS_PATH);
+    }
 
-            cb.onFailure();
-            throw new HttpStatusException(code, "TfL returned HTTP " + code);
+    private Line[] getLines(String path) {
+        Callable<Line[]> oneAttempt = () -> {
+            cb.acquirePermission();                 // fail fast if OPEN
+            acquireConcurrency();                   // fail fast if too many calls are in flight
+            long start = System.nanoTime();
+            boolean dropped = true;
+            try {
+                int code;
+                InputStream body;
+                try {
+                    if (hedge.enabled()) {
+                        HttpResponse<byte[]> resp = awaitHedged(path);
+                        code = resp.statusCode();
+                        body = new ByteArrayInputStream(resp.body());
+                    } else {
+                        HttpResponse<InputStream> resp = send(path); // does HTTP + metrics
+                        code = resp.statusCode();
+                        body = resp.body();
+                    }
+                } catch (IOException e) {
+                    cb.onFailure(System.nanoTime() - start); // timeouts / connection errors count too
+                    throw e;
+                }
+                dropped = code >= 500;
+                return decode(code, body, start);
+            } finally {
+                concurrency.release(System.nanoTime() - start, dropped);
+            }
         };
 
         try {
             return retry.execute(oneAttempt);
-
-        } catch (CallNotPermittedException e) {
-            metrics.cbOpenBlocked.add(1);
-            throw new UpstreamUnavailableException("TfL circuit breaker is OPEN; failing fast", e);
-
-        } catch (HttpStatusException e) {
-            // Router maps 4xx -> 400, 5xx -> 503 (retry policy already applied)
-            throw e;
-
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new UpstreamUnavailableException("TfL call interrupted", e);
+        } catch (Exception e) {
+            throw translate(e);
+        }
+    }
+
+    private CompletableFuture<Line[]> getLinesAsync(String path) {
+        Supplier<CompletableFuture<Line[]>> oneAttempt = () -> {
+            cb.acquirePermission();                 // non-blocking: throws if OPEN
+            acquireConcurrency();
+            long start = System.nanoTime();
+            CompletableFuture<HttpResponse<byte[]>> sent;
+            try {
+                sent = hedge.enabled() ? sendHedgedAsync(path) : sendAsync(path);
+            } catch (RuntimeException e) {
+                concurrency.cancel();
+                throw e;
+            }
+            return sent
+                    .whenComplete((resp, err) -> {
+                        concurrency.release(System.nanoTime() - start, err != null || resp.statusCode() >= 500);
+                        if (err != null) cb.onFailure(System.nanoTime() - start);
+                    })
+                    .thenApply(resp -> {
+                        try {
+                            return decode(resp.statusCode(), new ByteArrayInputStream(resp.body()), start);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        };
 
-        } catch (IOException e) {
-            throw new UpstreamUnavailableException("TfL call failed after retries", e);
+        return retry.executeAsync(oneAttempt)
+                .exceptionallyCompose(err -> CompletableFuture.failedFuture(translate(Futures.unwrap(err))));
+    }
 
-        } catch (Exception e) {
-            throw new UpstreamUnavailableException("TfL call failed", e);
+    /**
+     * Maps a response to lines and reports the outcome to the circuit breaker. A body that
+     * cannot be parsed (e.g. truncated) counts as a failure, so parsing happens before
+     * {@code onSuccess}. The reported duration (from {@code start}) includes decoding.
+     */
+    private Line[] decode(int code, InputStream body, long start) throws IOException {
+        try (body) {
+            if (code < 200 || code >= 300) {
+                cb.onFailure(System.nanoTime() - start);
+                throw new HttpStatusException(code, "TfL returned HTTP " + code);
+            }
+            Line[] lines;
+            try {
+                lines = (streamingParser != null) ? streamingParser.parse(body) : om.readValue(body, Line[].class);
+            } catch (IOException e) {
+                cb.onFailure(System.nanoTime() - start);
+                throw e;
+            }
+            cb.onSuccess(System.nanoTime() - start);
+            return lines;
         }
     }
 
+    /** Takes an in-flight slot; on rejection gives back the breaker permit taken just before. */
+    private void acquireConcurrency() {
+        try {
+            concurrency.acquire();
+        } catch (ConcurrencyLimitExceededException e) {
+            cb.release();
+            throw e;
+        }
+    }
 
-    private HttpResponse<String> send(String path) throws IOException, InterruptedException {
+    /** Normalises failures into the domain exceptions the Router maps to responses. */
+    private RuntimeException translate(Throwable e) {
+        if (e instanceof ConcurrencyLimitExceededException) {
+            metrics.concurrencyRejected.add(1);
+            return new UpstreamUnavailableException("TfL concurrency limit reached; failing fast", e);
+        }
+        if (e instanceof CallNotPermittedException) {
+            metrics.cbOpenBlocked.add(1);
+            return new UpstreamUnavailableException("TfL circuit breaker is OPEN; failing fast", e);
+        }
+        if (e instanceof HttpStatusException hs) {
+            // Router maps 4xx -> 400, 5xx -> 503 (retry policy already applied)
+            return hs;
+        }
+        if (e instanceof IOException || e instanceof UncheckedIOException) {
+            return new UpstreamUnavailableException("TfL call failed after retries", e);
+        }
+        return new UpstreamUnavailableException("TfL call failed", e);
+    }
+
+    private HttpRequest request(String path) {
         String url = baseUrl + path;
-        System.out.println("TfL GET " + url);
+        log.debug("TfL GET", "url", url);
 
-        HttpRequest req = HttpRequest.newBuilder()
+        return HttpRequest.newBuilder()
                 .uri(URI.create(url))
-                .timeout(Duration.ofMillis(300))
+                .timeout(timeout)
                 .GET()
                 .build();
+    }
+
+    /** Blocking send; the body is left as a stream so it can be decoded without buffering. */
+    private HttpResponse<InputStream> send(String path) throws IOException, InterruptedException {
+        HttpRequest req = request(path);
 
         long start = System.nanoTime();
-        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
-        int code = resp.statusCode();
+        HttpResponse<InputStream> resp = http.send(req, HttpResponse.BodyHandlers.ofInputStream());
+        recordUpstream(start, resp.statusCode());
+        return resp;
+    }
+
+    /**
+     * Async send; the body is buffered as bytes so decoding never blocks a completion thread on I/O.
+     * Returns the future {@link HttpClient#sendAsync} gave, so cancelling it aborts the exchange;
+     * latency is recorded off a side stage and is unaffected by what callers do with it.
+     */
+    private CompletableFuture<HttpResponse<byte[]>> sendAsync(String path) {
+        HttpRequest req = request(path);
+
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<byte[]>> sent = http.sendAsync(req, HttpResponse.BodyHandlers.ofByteArray());
+        sent.whenComplete((resp, err) -> { if (resp != null) recordUpstream(start, resp.statusCode()); });
+        return sent;
+    }
+
+    /**
+     * Sends the request and, if it has not answered within the hedge delay, a second identical
+     * one; the first HTTP response wins and the other exchange is aborted.
+     */
+    private CompletableFuture<HttpResponse<byte[]>> sendHedgedAsync(String path) {
+        hedge.onPrimary();
+        long delay = hedge.delayNanos();
+        if (delay < 0) return sendAsync(path); // no latency estimate yet
+        return new HedgedCall(path, delay).result;
+    }
+
+    /**
+     * A primary request and at most one hedge racing to complete {@link #result}.
+     *
+     * <p>Circuit breaker accounting: the caller holds one permit and one concurrency slot and
+     * reports one outcome for the combined call. A hedge takes its own permit and slot; whichever
+     * request does not decide the result gives its permit back via {@link CircuitBreaker#release()}.
+     * The loser is cancelled through the future {@link HttpClient#sendAsync} returned, which
+     * closes its HTTP/1.1 connection, so it stops holding upstream capacity.
+     */
+    private final class HedgedCall {
+        final CompletableFuture<HttpResponse<byte[]>> result = new CompletableFuture<>();
+        private final String path;
+        private final long primaryStart = System.nanoTime();
+        private final CompletableFuture<HttpResponse<byte[]>> primary;
+        private CompletableFuture<HttpResponse<byte[]>> hedged; // guarded by this
+        private int pending = 1;                                 // guarded by this: requests that may still decide
+        private boolean decided;                                 // guarded by this
+
+        HedgedCall(String path, long delayNanos) {
+            this.path = path;
+            this.primary = sendAsync(path);
+            ScheduledFuture<?> timer = hedge.scheduler().schedule(this::sendHedge, delayNanos, TimeUnit.NANOSECONDS);
+            result.whenComplete((resp, err) -> timer.cancel(false));
+            primary.whenComplete((resp, err) -> settle(resp, err, false));
+        }
+
+        private void sendHedge() {
+            synchronized (this) {
+                if (decided) return;
+            }
+            if (!hedge.tryAcquireHedge()) {
+                metrics.hedgeBudgetExhausted.add(1);
+                return;
+            }
+            try {
+                cb.acquirePermission();
+            } catch (CallNotPermittedException e) {
+                return;
+            }
+            try {
+                concurrency.acquire();
+            } catch (ConcurrencyLimitExceededException e) {
+                cb.release();
+                return;
+            }
+            long start = System.nanoTime();
+            CompletableFuture<HttpResponse<byte[]>> sent;
+            synchronized (this) {
+                if (decided) { // the primary settled the call while the hedge took its permits
+                    cb.release();
+                    concurrency.cancel();
+                    return;
+                }
+                pending++;
+                sent = hedged = sendAsync(path);
+            }
+            metrics.hedges.add(1);
+            sent.whenComplete((resp, err) -> {
+                if (Futures.unwrap(err) instanceof CancellationException) concurrency.cancel();
+                else concurrency.release(System.nanoTime() - start, err != null || resp.statusCode() >= 500);
+                settle(resp, err, true);
+            });
+        }
+
+        /** The first response, or the last failure, decides; every other outcome just gives its permit back. */
+        private void settle(HttpResponse<byte[]> resp, Throwable err, boolean isHedge) {
+            boolean decides;
+            CompletableFuture<HttpResponse<byte[]>> loser;
+            synchronized (this) {
+                pending--;
+                decides = !decided && (err == null || pending == 0);
+                if (decides) decided = true;
+                loser = isHedge ? primary : hedged;
+            }
+            if (!decides) {
+                cb.release();
+                return;
+            }
+            if (err != null) {
+                result.completeExceptionally(err);
+                return;
+            }
+            if (isHedge) metrics.hedgeWins.add(1);
+            // A cancelled primary never records its latency; its elapsed time is a lower bound and keeps
+            // the tracked percentile from being fed only the (faster) winners.
+            if (loser != null && loser.cancel(true) && isHedge) hedge.record(System.nanoTime() - primaryStart);
+            result.complete(resp);
+        }
+    }
+
+    private HttpResponse<byte[]> awaitHedged(String path) throws IOException, InterruptedException {
+        try {
+            return sendHedgedAsync(path).get();
+        } catch (ExecutionException e) {
+            Throwable cause = Futures.unwrap(e);
+            if (cause instanceof IOException io) throw io;
+            throw Futures.asRuntime(cause);
+        }
+    }
 
-        double ms = (System.nanoTime() - start) / 1_000_000.0;
+    private void recordUpstream(long startNanos, int code) {
+        long nanos = System.nanoTime() - startNanos;
+        hedge.record(nanos);
+        double ms = nanos / 1_000_000.0;
         metrics.upstreamRequests.add(1, Metrics.upstreamAttrs("tfl", code));
         metrics.upstreamLatencyMs.record(ms, Metrics.upstreamAttrs("tfl", code));
-
-        return resp;
     }
 
 }
@@ -1,52 +1,285 @@
 package com.example.tube.service;
 
+import com.example.tube.cache.StaleWhileRevalidateCache;
+import com.example.tube.concurrent.Futures;
+import com.example.tube.dto.LineError;
+import com.example.tube.dto.LineStatusBatchResponse;
 import com.example.tube.dto.LineStatusResponse;
 import com.example.tube.dto.UnplannedDisruptionsResponse;
+import com.example.tube.otel.Stage;
+import com.example.tube.otel.StageTimer;
+import com.example.tube.resilience.HttpStatusException;
 import com.example.tube.tfl.Line;
 
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 public class TubeStatusService {
+    /** Most line ids accepted by one batch request. */
+    public static final int MAX_BATCH_LINES = 20;
+
     private final TflClient client;
     private final LineMapper mapper = new LineMapper();
     private final String baseUrl;
+    private final StaleWhileRevalidateCache<Line[]> cache; // null = every call goes upstream
+    private final LineSnapshotPoller snapshots;            // null = snapshot mode off
+    private final boolean asyncUpstream;
+
+    // Last mapped response per upstream path, reused while the source data is the same instance
+    // so that callers (e.g. the HTTP layer's serialized-body cache) see a stable object.
+    private static final int MAX_MAPPED = 1000;
+    private record Mapped(Object source, Object response) {}
+    private final ConcurrentHashMap<String, Mapped> mapped = new ConcurrentHashMap<>();
 
     public TubeStatusService(TflClient client, String baseUrl) {
+        this(client, baseUrl, null, null, false);
+    }
+
+    /**
+     * @param asyncUpstream when true, upstream calls use the non-blocking {@link TflClient}
+     *                      API; otherwise they run on the calling thread and the returned
+     *                      futures are already complete.
+     */
+    public TubeStatusService(TflClient client,
+                             String baseUrl,
+                             StaleWhileRevalidateCache<Line[]> cache,
+                             LineSnapshotPoller snapshots,
+                             boolean asyncUpstream) {
         this.client = client;
         this.baseUrl = baseUrl.replaceAll("/$", "");
+        this.cache = cache;
+        this.snapshots = snapshots;
+        this.asyncUpstream = asyncUpstream;
     }
 
     public LineStatusResponse getLineStatus(String lineId, LocalDate from, LocalDate to) {
+        return Futures.join(getLineStatusAsync(lineId, from, to));
+    }
+
+    public UnplannedDisruptionsResponse getAllUnplannedDisruptions() {
+        return Futures.join(getAllUnplannedDisruptionsAsync());
+    }
+
+    public CompletableFuture<LineStatusResponse> getLineStatusAsync(String lineId, LocalDate from, LocalDate to) {
+        return getLineStatusAsync(lineId, from, to, StageTimer.NOOP);
+    }
+
+    /** As above, charging cache lookup, upstream and mapping time to {@code stages}. */
+    public CompletableFuture<LineStatusResponse> getLineStatusAsync(String lineId, LocalDate from, LocalDate to, StageTimer stages) {
         boolean planned = (from != null && to != null);
-        String sourceUrl = planned
-                ? "%s/Line/%s/Status/%s/to/%s".formatted(baseUrl, lineId, from, to)
-                : "%s/Line/%s/Status".formatted(baseUrl, lineId);
+        String path = TflClient.lineStatusPath(lineId, from, to);
+        String sourceUrl = baseUrl + path;
 
-        Line[] lines = client.getLineStatus(lineId, from, to);
-        if (lines == null || lines.length == 0) {
-            return new LineStatusResponse(lineId, lineId, "Unknown", false, planned, List.of(), sourceUrl);
+        if (!planned) {
+            LineSnapshot snap = currentSnapshot();
+            Line line = (snap == null) ? null : snap.line(lineId);
+            if (line != null) {
+                return CompletableFuture.completedFuture(
+                        memo(path, line, () -> mapper.toResponse(line, sourceUrl, false), stages));
+            }
         }
-        return mapper.toResponse(lines[0], sourceUrl, planned);
+
+        Supplier<CompletableFuture<Line[]>> upstream = asyncUpstream
+                ? () -> client.getLineStatusAsync(lineId, from, to)
+                : () -> Futures.now(() -> client.getLineStatus(lineId, from, to));
+
+        return fetch(path, upstream, stages).thenApply(lines -> memo(path, lines, () -> {
+            if (lines == null || lines.length == 0) {
+                return new LineStatusResponse(lineId, lineId, "Unknown", false, planned, List.of(), sourceUrl);
+            }
+            return mapper.toResponse(lines[0], sourceUrl, planned);
+        }, stages));
     }
 
-    public UnplannedDisruptionsResponse getAllUnplannedDisruptions() {
-        String sourceUrl = "%s/Line/Mode/tube/Status".formatted(baseUrl);
-        Line[] lines = client.getAllTubeLineStatus();
-
-        List<LineStatusResponse> out = new ArrayList<>();
-        if (lines != null) {
-            for (Line l : lines) {
-                LineStatusResponse r = mapper.toResponse(l, sourceUrl, false);
-                if (!r.disrupted()) continue;
-                if (looksPlanned(r.reasons())) continue;
-                out.add(r);
+    public CompletableFuture<LineStatusBatchResponse> getLinesStatusAsync(List<String> lineIds, LocalDate from, LocalDate to) {
+        return getLinesStatusAsync(lineIds, from, to, StageTimer.NOOP);
+    }
+
+    /**
+     * Statuses for up to {@link #MAX_BATCH_LINES} lines. Lines the snapshot already holds are
+     * served from it; the rest come from a single upstream call. Malformed ids, lines TfL does
+     * not report and per-line upstream failures become {@link LineError}s instead of failing
+     * the batch; only a failure of the shared call itself (e.g. TfL unavailable) fails it.
+     */
+    public CompletableFuture<LineStatusBatchResponse> getLinesStatusAsync(List<String> lineIds, LocalDate from, LocalDate to, StageTimer stages) {
+        boolean planned = (from != null && to != null);
+        String key = "batch:" + String.join(",", lineIds) + "/" + from + "/" + to;
+
+        List<LineError> errors = new ArrayList<>();
+        Map<String, Line> found = new HashMap<>();
+        TreeSet<String> remaining = new TreeSet<>(); // sorted, so equal sets share a cache entry
+        LineSnapshot snap = planned ? null : currentSnapshot();
+        for (String id : lineIds) {
+            if (!isLineId(id)) {
+                errors.add(new LineError(id, 400, "Bad Request", "lineId must be like 'central'"));
+                continue;
+            }
+            Line line = (snap == null) ? null : snap.line(id);
+            if (line != null) found.put(id, line);
+            else remaining.add(id);
+        }
+        if (remaining.isEmpty()) {
+            return CompletableFuture.completedFuture(batch(key, snap, lineIds, found, errors, from, to, stages));
+        }
+
+        List<String> ids = List.copyOf(remaining);
+        String path = TflClient.lineStatusPath(String.join(",", ids), from, to);
+        Supplier<CompletableFuture<Line[]>> upstream = asyncUpstream
+                ? () -> client.getLinesStatusAsync(ids, from, to)
+                : () -> Futures.now(() -> client.getLinesStatus(ids, from, to));
+
+        return fetch(path, upstream, stages)
+                .thenApply(lines -> {
+                    boolean upstreamOnly = found.isEmpty();
+                    if (lines != null) {
+                        for (Line l : lines) if (l != null && remaining.contains(l.id)) found.put(l.id, l);
+                    }
+                    return batch(key, upstreamOnly ? lines : null, lineIds, found, errors, from, to, stages);
+                })
+                .exceptionallyCompose(err -> {
+                    Throwable t = Futures.unwrap(err);
+                    // TfL rejects the whole call for one unknown id: find out which, line by line
+                    if (!(t instanceof HttpStatusException hs && hs.statusCode() < 500)) return CompletableFuture.failedFuture(t);
+                    if (ids.size() == 1) {
+                        errors.add(lineError(ids.getFirst(), t));
+                        return CompletableFuture.completedFuture(batch(key, null, lineIds, found, errors, from, to, stages));
+                    }
+                    return eachLine(ids, from, to, found, errors)
+                            .thenApply(v -> batch(key, null, lineIds, found, errors, from, to, stages));
+                });
+    }
+
+    /** Fetches {@code ids} one by one (still cached and single-flighted per line), collecting lines and errors. */
+    private CompletableFuture<Void> eachLine(List<String> ids, LocalDate from, LocalDate to,
+                                             Map<String, Line> found, List<LineError> errors) {
+        CompletableFuture<?>[] calls = new CompletableFuture<?>[ids.size()];
+        for (int i = 0; i < calls.length; i++) {
+            String id = ids.get(i);
+            Supplier<CompletableFuture<Line[]>> upstream = asyncUpstream
+                    ? () -> client.getLineStatusAsync(id, from, to)
+                    : () -> Futures.now(() -> client.getLineStatus(id, from, to));
+            calls[i] = fetch(TflClient.lineStatusPath(id, from, to), upstream, StageTimer.NOOP)
+                    .handle((lines, err) -> {
+                        synchronized (found) {
+                            if (err != null) errors.add(lineError(id, Futures.unwrap(err)));
+                            else if (lines != null && lines.length > 0) found.put(id, lines[0]);
+                        }
+                        return null;
+                    });
+        }
+        return CompletableFuture.allOf(calls);
+    }
+
+    /**
+     * Assembles the response in request order; lines neither found nor already in error are
+     * reported as unknown. Memoized on {@code source} when the lines all came from one place
+     * (snapshot or one upstream response), so unchanged data yields the same instance.
+     */
+    private LineStatusBatchResponse batch(String key, Object source, List<String> lineIds, Map<String, Line> found,
+                                          List<LineError> errors, LocalDate from, LocalDate to, StageTimer stages) {
+        boolean planned = (from != null && to != null);
+        return memo(key, (errors.isEmpty()) ? source : null, () -> {
+            List<LineStatusResponse> out = new ArrayList<>(found.size());
+            List<LineError> failed = new ArrayList<>(errors);
+            for (String id : lineIds) {
+                Line line = found.get(id);
+                if (line != null) {
+                    out.add(mapper.toResponse(line, baseUrl + TflClient.lineStatusPath(id, from, to), planned));
+                } else if (isLineId(id) && failed.stream().noneMatch(e -> e.lineId().equals(id))) {
+                    failed.add(new LineError(id, 404, "Not Found", "TfL did not report a line with this id"));
+                }
             }
+            return new LineStatusBatchResponse(out.size(), out, failed);
+        }, stages);
+    }
+
+    private static LineError lineError(String lineId, Throwable t) {
+        if (t instanceof HttpStatusException hs && hs.statusCode() < 500) {
+            return hs.statusCode() == 404
+                    ? new LineError(lineId, 404, "Not Found", "TfL did not recognise this line id")
+                    : new LineError(lineId, 400, "Bad Request", hs.getMessage());
+        }
+        return new LineError(lineId, 503, "Service Unavailable", t.getMessage());
+    }
+
+    public CompletableFuture<UnplannedDisruptionsResponse> getAllUnplannedDisruptionsAsync() {
+        return getAllUnplannedDisruptionsAsync(StageTimer.NOOP);
+    }
+
+    public CompletableFuture<UnplannedDisruptionsResponse> getAllUnplannedDisruptionsAsync(StageTimer stages) {
+        LineSnapshot snap = currentSnapshot();
+        if (snap != null) {
+            return CompletableFuture.completedFuture(unplanned(snap.lines(), snap.lines(), stages));
+        }
+
+        Supplier<CompletableFuture<Line[]>> upstream = asyncUpstream
+                ? client::getAllTubeLineStatusAsync
+                : () -> Futures.now(client::getAllTubeLineStatus);
+
+        return fetch(TflClient.ALL_TUBE_STATUS_PATH, upstream, stages)
+                .thenApply(lines -> unplanned(lines, (lines == null) ? null : Arrays.asList(lines), stages));
+    }
+
+    private UnplannedDisruptionsResponse unplanned(Object source, List<Line> lines, StageTimer stages) {
+        String sourceUrl = baseUrl + TflClient.ALL_TUBE_STATUS_PATH;
+        return memo(TflClient.ALL_TUBE_STATUS_PATH, source, () -> {
+            List<LineStatusResponse> out = new ArrayList<>();
+            if (lines != null) {
+                for (Line l : lines) {
+                    LineStatusResponse r = mapper.toResponse(l, sourceUrl, false);
+                    if (!r.disrupted()) continue;
+                    if (looksPlanned(r.reasons())) continue;
+                    out.add(r);
+                }
+            }
+            return new UnplannedDisruptionsResponse(out.size(), out);
+        }, stages);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> R memo(String path, Object source, Supplier<R> map, StageTimer stages) {
+        Mapped m = mapped.get(path);
+        if (m != null && m.source == source && source != null) return (R) m.response;
+
+        long start = System.nanoTime();
+        R response = map.get();
+        stages.add(Stage.MAP, System.nanoTime() - start);
+        if (mapped.size() >= MAX_MAPPED) mapped.clear();
+        mapped.put(path, new Mapped(source, response));
+        return response;
+    }
+
+    private LineSnapshot currentSnapshot() {
+        return (snapshots == null) ? null : snapshots.current();
+    }
+
+    private CompletableFuture<Line[]> fetch(String path, Supplier<CompletableFuture<Line[]>> upstream, StageTimer stages) {
+        Supplier<CompletableFuture<Line[]>> timed = (stages == StageTimer.NOOP) ? upstream : () -> {
+            long start = System.nanoTime();
+            return upstream.get().whenComplete((v, e) -> stages.add(Stage.UPSTREAM, System.nanoTime() - start));
+        };
+        if (cache == null) return timed.get();
+
+        // cache time = lookup + waiting on a shared load; this request's own upstream call is reported separately
+        long start = System.nanoTime();
+        return cache.get(path, timed)
+                .whenComplete((v, e) -> stages.add(Stage.CACHE, System.nanoTime() - start - stages.get(Stage.UPSTREAM)));
+    }
+
+    /** [a-z0-9-]+ */
+    public static boolean isLineId(String s) {
+        if (s == null || s.isEmpty()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-')) return false;
         }
-        return new UnplannedDisruptionsResponse(out.size(), out);
+        return true;
     }
 
-    private boolean looksPlanned(List<String> reasons) {
+    static boolean looksPlanned(List<String> reasons) {
         if (reasons == null) return false;
         for (String reason : reasons) {
             if (reason == null) continue;
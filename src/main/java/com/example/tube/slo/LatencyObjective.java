@@ -0,0 +1,25 @@
+package com.example.tube.slo;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/** "p{percent} of 2xx responses within {threshold}", e.g. p95 < 200 ms is {@code (95, 200ms)}. */
+public record LatencyObjective(double percent, Duration threshold) {
+
+    /** {@code PERCENT:MS} pairs separated by commas, e.g. {@code 95:200,99:500}. */
+    public static List<LatencyObjective> parseAll(String spec) {
+        List<LatencyObjective> out = new ArrayList<>();
+        for (String one : spec.split(",")) {
+            if (one.isBlank()) continue;
+            String[] p = one.trim().split(":");
+            out.add(new LatencyObjective(Double.parseDouble(p[0]), Duration.ofMillis(Long.parseLong(p[1]))));
+        }
+        return out;
+    }
+
+    String name() {
+        return "latency_p" + (percent == Math.rint(percent) ? String.valueOf((long) percent) : String.valueOf(percent))
+                + "_" + threshold.toMillis() + "ms";
+    }
+}
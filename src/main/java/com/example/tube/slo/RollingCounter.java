@@ -0,0 +1,53 @@
+package com.example.tube.slo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Event count over the last N fixed-length time slots (a ring indexed by {@code now / slotNanos}).
+ * <p>
+ * Each slot is one word holding the period it counts (low 32 bits of the period number) above
+ * its count (32 bits), so an increment and the lazy reset of a slot that still holds an older
+ * period are the same compare-and-set: no increment is lost to a concurrent reset, and
+ * {@link #sum} never reads an old period's count under the new period. An increment whose period
+ * is already older than the slot's (a caller that stalled for a whole ring) is dropped.
+ */
+final class RollingCounter {
+
+    private static final int COUNT_BITS = 32;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final long slotNanos;
+    /** Per slot: (period & COUNT_MASK) << COUNT_BITS | count. */
+    private final AtomicLongArray slots;
+
+    RollingCounter(int slots, long slotNanos) {
+        this.slotNanos = slotNanos;
+        this.slots = new AtomicLongArray(slots);
+    }
+
+    void increment(long nowNanos) {
+        long period = Math.floorDiv(nowNanos, slotNanos);
+        int i = (int) Math.floorMod(period, (long) slots.length());
+        long tag = period & COUNT_MASK;
+        for (;;) {
+            long word = slots.get(i);
+            long held = word >>> COUNT_BITS;
+            long next;
+            if (held == tag) next = word + 1;
+            else if ((word & COUNT_MASK) != 0 && (int) (held - tag) > 0) return;
+            else next = tag << COUNT_BITS | 1;
+            if (slots.compareAndSet(i, word, next)) return;
+        }
+    }
+
+    /** Sum of the current slot and the {@code slots - 1} before it. */
+    long sum(long nowNanos, int slots) {
+        long period = Math.floorDiv(nowNanos, slotNanos);
+        long n = 0;
+        for (int k = 0; k < Math.min(slots, this.slots.length()); k++) {
+            long word = this.slots.get((int) Math.floorMod(period - k, (long) this.slots.length()));
+            if (word >>> COUNT_BITS == ((period - k) & COUNT_MASK)) n += word & COUNT_MASK;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.tube.slo;
+
+import com.example.tube.otel.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outcomes and latencies of one route. Latency histograms hold successful (2xx/3xx) responses:
+ * one since start and one for the current interval ({@link #rotate()} moves it to "recent").
+ * Windowed counts feed {@link SloMonitor}'s burn rates when the route counts toward the SLO.
+ */
+public final class RouteRecorder {
+
+    final String route;
+    final boolean slo;
+
+    final LatencyHistogram sinceStart = new LatencyHistogram();
+    private volatile LatencyHistogram current = new LatencyHistogram();
+    private volatile LatencyHistogram recent = new LatencyHistogram();
+
+    final LongAdder[] statusClasses = {new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()};
+
+    /** Requests that count for availability: everything except 4xx (429 included). */
+    final RollingCounter eligible;
+    final RollingCounter errors;
+    final RollingCounter ok;
+    /** Per latency objective: 2xx responses slower than its threshold. */
+    final RollingCounter[] slow;
+    private final long[] slowNanos;
+
+    RouteRecorder(String route, boolean slo, long[] slowNanos, int slots, long slotNanos) {
+        this.route = route;
+        this.slo = slo;
+        this.slowNanos = slowNanos;
+        this.eligible = new RollingCounter(slots, slotNanos);
+        this.errors = new RollingCounter(slots, slotNanos);
+        this.ok = new RollingCounter(slots, slotNanos);
+        this.slow = new RollingCounter[slowNanos.length];
+        for (int i = 0; i < slow.length; i++) slow[i] = new RollingCounter(slots, slotNanos);
+    }
+
+    public void record(int status, long durationNanos) {
+        int cls = status / 100 - 1;
+        statusClasses[cls >= 0 && cls < 5 ? cls : 4].increment();
+        boolean success = status >= 200 && status < 400;
+        if (success) {
+            sinceStart.recordNanos(durationNanos);
+            current.recordNanos(durationNanos);
+        }
+        if (!slo || (status >= 400 && status < 500)) return;
+
+        long now = System.nanoTime();
+        eligible.increment(now);
+        if (status >= 500) {
+            errors.increment(now);
+        } else if (status < 300) {
+            ok.increment(now);
+            for (int i = 0; i < slowNanos.length; i++) {
+                if (durationNanos > slowNanos[i]) slow[i].increment(now);
+            }
+        }
+    }
+
+    /** Ends the current interval. Writes racing the swap may land in the retired histogram. */
+    void rotate() {
+        recent = current;
+        current = new LatencyHistogram();
+    }
+
+    LatencyHistogram recent() {
+        return recent;
+    }
+
+    long requests() {
+        long n = 0;
+        for (LongAdder a : statusClasses) n += a.sum();
+        return n;
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.tube.slo;
+
+import com.example.tube.otel.LatencyHistogram;
+import com.example.tube.otel.Metrics;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process SLO evaluation over per-route {@link RouteRecorder}s.
+ * <p>
+ * Each objective (availability, and one per {@link LatencyObjective}) gets error-budget burn rates
+ * over 5m, 30m, 1h and 6h, and two multi-window alerts as in the SRE workbook for a 30-day SLO:
+ * page when both 1h and 5m burn faster than 14.4x, ticket when both 6h and 30m exceed 6x.
+ * Availability counts 5xx (including shed 503s) against all non-4xx responses; latency counts
+ * 2xx responses slower than the threshold against all 2xx.
+ */
+public final class SloMonitor {
+
+    private record Window(String name, Duration length) {}
+
+    private record BurnAlert(String severity, Window longWindow, Window shortWindow, double threshold) {}
+
+    private static final Window W5M = new Window("5m", Duration.ofMinutes(5));
+    private static final Window W30M = new Window("30m", Duration.ofMinutes(30));
+    private static final Window W1H = new Window("1h", Duration.ofHours(1));
+    private static final Window W6H = new Window("6h", Duration.ofHours(6));
+    private static final List<Window> WINDOWS = List.of(W5M, W30M, W1H, W6H);
+    private static final List<BurnAlert> ALERTS = List.of(
+            new BurnAlert("page", W1H, W5M, 14.4),
+            new BurnAlert("ticket", W6H, W30M, 6));
+
+    private static final AttributeKey<String> SLO = AttributeKey.stringKey("slo");
+    private static final AttributeKey<String> WINDOW = AttributeKey.stringKey("window");
+    private static final AttributeKey<String> SEVERITY = AttributeKey.stringKey("severity");
+
+    private final double availabilityPercent;
+    private final List<LatencyObjective> latency;
+    private final long[] slowNanos;
+    private final long slotNanos;
+    private final int slots;
+    private final List<RouteRecorder> routes = new CopyOnWriteArrayList<>();
+
+    public SloMonitor(double availabilityPercent, List<LatencyObjective> latency) {
+        this(availabilityPercent, latency, Duration.ofMinutes(1));
+    }
+
+    /** @param slot resolution of the rolling windows */
+    public SloMonitor(double availabilityPercent, List<LatencyObjective> latency, Duration slot) {
+        this.availabilityPercent = availabilityPercent;
+        this.latency = List.copyOf(latency);
+        this.slowNanos = latency.stream().mapToLong(o -> o.threshold().toNanos()).toArray();
+        this.slotNanos = slot.toNanos();
+        this.slots = (int) Math.max(1, W6H.length().toNanos() / slotNanos);
+    }
+
+    /** The objectives in SLO_DEFINITION.md: 99.9% available, 2xx p95 < 200 ms and p99 < 500 ms. */
+    public static SloMonitor defaults() {
+        return new SloMonitor(99.9, LatencyObjective.parseAll("95:200,99:500"));
+    }
+
+    /** New recorder for {@code route}; {@code slo} = its requests count toward the objectives. */
+    public RouteRecorder route(String route, boolean slo) {
+        RouteRecorder r = new RouteRecorder(route, slo, slowNanos, slots, slotNanos);
+        routes.add(r);
+        return r;
+    }
+
+    /** Starts a new "recent" latency interval on every route. */
+    public void rotate() {
+        for (RouteRecorder r : routes) r.rotate();
+    }
+
+    /** Burn rate of objective {@code objective} (0 = availability, then latency objectives in order) over {@code window}. */
+    double burnRate(int objective, Duration window) {
+        long[] tb = totalAndBad(objective, window, System.nanoTime());
+        return burnRate(objective, tb[0], tb[1]);
+    }
+
+    private double burnRate(int objective, long total, long bad) {
+        if (total == 0) return 0;
+        return ((double) bad / total) / (1 - target(objective) / 100.0);
+    }
+
+    private long[] totalAndBad(int objective, Duration window, long now) {
+        int n = (int) Math.max(1, window.toNanos() / slotNanos);
+        long total = 0, bad = 0;
+        for (RouteRecorder r : routes) {
+            if (!r.slo) continue;
+            if (objective == 0) {
+                total += r.eligible.sum(now, n);
+                bad += r.errors.sum(now, n);
+            } else {
+                total += r.ok.sum(now, n);
+                bad += r.slow[objective - 1].sum(now, n);
+            }
+        }
+        return new long[]{total, bad};
+    }
+
+    private double target(int objective) {
+        return objective == 0 ? availabilityPercent : latency.get(objective - 1).percent();
+    }
+
+    private String name(int objective) {
+        return objective == 0 ? "availability" : latency.get(objective - 1).name();
+    }
+
+    private boolean firing(int objective, BurnAlert a) {
+        return burnRate(objective, a.longWindow.length()) > a.threshold && burnRate(objective, a.shortWindow.length()) > a.threshold;
+    }
+
+    /** Registers {@code slo_burn_rate{slo,window}} and {@code slo_alert_firing{slo,severity}} gauges. */
+    public void registerGauges(Metrics metrics) {
+        int objectives = 1 + latency.size();
+        Attributes[][] burnAttrs = new Attributes[objectives][WINDOWS.size()];
+        Attributes[][] alertAttrs = new Attributes[objectives][ALERTS.size()];
+        for (int o = 0; o < objectives; o++) {
+            for (int w = 0; w < WINDOWS.size(); w++) burnAttrs[o][w] = Attributes.of(SLO, name(o), WINDOW, WINDOWS.get(w).name);
+            for (int a = 0; a < ALERTS.size(); a++) alertAttrs[o][a] = Attributes.of(SLO, name(o), SEVERITY, ALERTS.get(a).severity);
+        }
+        metrics.gauges("slo_burn_rate", "Error-budget burn rate per SLO and window (1 = budget spent exactly over the SLO period)", "1", m -> {
+            for (int o = 0; o < objectives; o++) {
+                for (int w = 0; w < WINDOWS.size(); w++) m.record(burnRate(o, WINDOWS.get(w).length), burnAttrs[o][w]);
+            }
+        });
+        metrics.gauges("slo_alert_firing", "1 when both windows of a multi-window burn-rate alert exceed its threshold", "1", m -> {
+            for (int o = 0; o < objectives; o++) {
+                for (int a = 0; a < ALERTS.size(); a++) m.record(firing(o, ALERTS.get(a)) ? 1 : 0, alertAttrs[o][a]);
+            }
+        });
+    }
+
+    public SloReport report() {
+        long now = System.nanoTime();
+        List<SloReport.Objective> objectives = new ArrayList<>();
+        for (int o = 0; o < 1 + latency.size(); o++) {
+            List<SloReport.Window> windows = new ArrayList<>();
+            for (Window w : WINDOWS) {
+                long[] tb = totalAndBad(o, w.length, now);
+                windows.add(new SloReport.Window(w.name, tb[0], tb[1], burnRate(o, tb[0], tb[1])));
+            }
+            List<SloReport.Alert> alerts = new ArrayList<>();
+            for (BurnAlert a : ALERTS) {
+                alerts.add(new SloReport.Alert(a.severity, a.longWindow.name, a.shortWindow.name, a.threshold, firing(o, a)));
+            }
+            objectives.add(new SloReport.Objective(name(o), target(o), windows, alerts));
+        }
+
+        List<SloReport.Route> out = new ArrayList<>();
+        LatencyHistogram allRecent = new LatencyHistogram();
+        LatencyHistogram allSinceStart = new LatencyHistogram();
+        long allRequests = 0;
+        long[] allStatuses = new long[5];
+        for (RouteRecorder r : routes) {
+            out.add(new SloReport.Route(r.route, r.slo, r.requests(), statuses(r), latency(r.recent()), latency(r.sinceStart)));
+            if (!r.slo) continue;
+            allRecent.add(r.recent());
+            allSinceStart.add(r.sinceStart);
+            allRequests += r.requests();
+            for (int i = 0; i < 5; i++) allStatuses[i] += r.statusClasses[i].sum();
+        }
+        out.add(new SloReport.Route("*", true, allRequests, statuses(allStatuses), latency(allRecent), latency(allSinceStart)));
+        return new SloReport(Instant.now(), objectives, out);
+    }
+
+    private static Map<String, Long> statuses(RouteRecorder r) {
+        long[] c = new long[5];
+        for (int i = 0; i < 5; i++) c[i] = r.statusClasses[i].sum();
+        return statuses(c);
+    }
+
+    private static Map<String, Long> statuses(long[] c) {
+        Map<String, Long> m = new LinkedHashMap<>();
+        for (int i = 0; i < 5; i++) if (c[i] > 0) m.put((i + 1) + "xx", c[i]);
+        return m;
+    }
+
+    private static SloReport.Latency latency(LatencyHistogram h) {
+        return new SloReport.Latency(h.count(), ms(h.percentileNanos(50)), ms(h.percentileNanos(95)),
+                ms(h.percentileNanos(99)), ms(h.maxNanos()));
+    }
+
+    private static double ms(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.tube.slo;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/** Body of {@code /debug/slo}: burn rates per objective and window, alert state, per-route latency. */
+public record SloReport(Instant generatedAt, List<Objective> objectives, List<Route> routes) {
+
+    public record Objective(String name, double targetPercent, List<Window> windows, List<Alert> alerts) {}
+
+    /** {@code burnRate} = bad / total / (1 - target): 1.0 spends the error budget exactly over the SLO period. */
+    public record Window(String window, long total, long bad, double burnRate) {}
+
+    public record Alert(String severity, String longWindow, String shortWindow, double burnRateThreshold, boolean firing) {}
+
+    public record Route(String route, boolean slo, long requests, Map<String, Long> statuses, Latency recent, Latency sinceStart) {}
+
+    public record Latency(long count, double p50Ms, double p95Ms, double p99Ms, double maxMs) {}
+}
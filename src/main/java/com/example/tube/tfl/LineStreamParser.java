@@ -0,0 +1,124 @@
+package com.example.tube.tfl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming decoder for TfL {@code Line[]} status payloads.
+ *
+ * <p>Reads tokens straight from the response stream and keeps only the fields the service
+ * maps ({@code id}, {@code name}, the first {@code lineStatuses} entry and each disruption's
+ * {@code description}/{@code additionalInfo}). Everything else (route sections, service
+ * types, validity periods, nested disruption objects) is skipped token by token without
+ * building objects for it.
+ *
+ * <p>Thread-safe; one instance can be shared.
+ */
+public final class LineStreamParser {
+    private final JsonFactory factory = new JsonFactory();
+
+    public Line[] parse(InputStream in) throws IOException {
+        try (JsonParser p = factory.createParser(in)) {
+            return readLines(p);
+        }
+    }
+
+    public Line[] parse(byte[] body) throws IOException {
+        try (JsonParser p = factory.createParser(body)) {
+            return readLines(p);
+        }
+    }
+
+    private Line[] readLines(JsonParser p) throws IOException {
+        if (p.nextToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(p, "Expected a JSON array of lines");
+        }
+        List<Line> out = new ArrayList<>(16);
+        JsonToken t;
+        while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (t == JsonToken.START_OBJECT) out.add(readLine(p));
+            else p.skipChildren();
+        }
+        return out.toArray(new Line[0]);
+    }
+
+    private Line readLine(JsonParser p) throws IOException {
+        Line line = new Line();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "id" -> line.id = textOrNull(p, value);
+                case "name" -> line.name = textOrNull(p, value);
+                case "lineStatuses" -> line.lineStatuses = readFirstStatus(p, value);
+                case "disruptions" -> line.disruptions = readDisruptions(p, value);
+                default -> p.skipChildren();
+            }
+        }
+        return line;
+    }
+
+    /** Only lineStatuses[0] is used by the mapper; later entries are skipped. */
+    private List<Line.LineStatus> readFirstStatus(JsonParser p, JsonToken value) throws IOException {
+        if (value != JsonToken.START_ARRAY) { p.skipChildren(); return null; }
+
+        Line.LineStatus first = null;
+        JsonToken t;
+        while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (first == null && t == JsonToken.START_OBJECT) first = readStatus(p);
+            else p.skipChildren();
+        }
+        return (first == null) ? List.of() : List.of(first);
+    }
+
+    private Line.LineStatus readStatus(JsonParser p) throws IOException {
+        Line.LineStatus s = new Line.LineStatus();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "statusSeverity" -> s.statusSeverity = (value == JsonToken.VALUE_NUMBER_INT) ? p.getIntValue() : 0;
+                case "statusSeverityDescription" -> s.statusSeverityDescription = textOrNull(p, value);
+                case "reason" -> s.reason = textOrNull(p, value);
+                default -> p.skipChildren();
+            }
+        }
+        return s;
+    }
+
+    private List<Line.Disruption> readDisruptions(JsonParser p, JsonToken value) throws IOException {
+        if (value != JsonToken.START_ARRAY) { p.skipChildren(); return null; }
+
+        List<Line.Disruption> out = null;
+        JsonToken t;
+        while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (t != JsonToken.START_OBJECT) { p.skipChildren(); continue; }
+            Line.Disruption d = new Line.Disruption();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken v = p.nextToken();
+                switch (field) {
+                    case "description" -> d.description = textOrNull(p, v);
+                    case "additionalInfo" -> d.additionalInfo = textOrNull(p, v);
+                    default -> p.skipChildren();
+                }
+            }
+            if (out == null) out = new ArrayList<>(2);
+            out.add(d);
+        }
+        return (out == null) ? List.of() : out;
+    }
+
+    private static String textOrNull(JsonParser p, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) return p.getText();
+        p.skipChildren(); // objects/arrays in an unexpected place
+        return null;
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.tube;
+
+import com.example.tube.Fixtures.FakeExchange;
+import com.example.tube.cache.StaleWhileRevalidateCache;
+import com.example.tube.http.ContentEncoding;
+import com.example.tube.http.Json;
+import com.example.tube.http.Router;
+import com.example.tube.otel.Metrics;
+import com.example.tube.ratelimit.IpRateLimiter;
+import com.example.tube.resilience.CircuitBreaker;
+import com.example.tube.resilience.RetryPolicy;
+import com.example.tube.service.LineSnapshot;
+import com.example.tube.service.LineSnapshotPoller;
+import com.example.tube.service.TflClient;
+import com.example.tube.service.TubeStatusService;
+import com.example.tube.tfl.Line;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static com.example.tube.Fixtures.line;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingTests {
+
+    @Test
+    void concurrent_misses_share_one_upstream_call() {
+        var cache = new StaleWhileRevalidateCache<String>(
+                Duration.ofSeconds(5), Duration.ofSeconds(30), 100, Runnable::run, Metrics.noop());
+        var calls = new AtomicInteger();
+        var upstream = new CompletableFuture<String>();
+
+        var first = cache.get("/Line/central/Status", () -> { calls.incrementAndGet(); return upstream; });
+        var second = cache.get("/Line/central/Status", () -> { calls.incrementAndGet(); return upstream; });
+
+        upstream.complete("v1");
+
+        assertEquals("v1", first.join());
+        assertEquals("v1", second.join());
+        assertEquals(1, calls.get(), "Second miss should join the in-flight call");
+    }
+
+    @Test
+    void stale_entry_is_served_while_refreshing() throws Exception {
+        var cache = new StaleWhileRevalidateCache<String>(
+                Duration.ofMillis(20), Duration.ofSeconds(30), 100, Runnable::run, Metrics.noop());
+        var version = new AtomicInteger();
+
+        assertEquals("v1", cache.get("k", () -> CompletableFuture.completedFuture("v" + version.incrementAndGet())).join());
+        Thread.sleep(30);
+
+        // Stale: old value returned immediately, refresh runs (inline executor) in the background
+        assertEquals("v1", cache.get("k", () -> CompletableFuture.completedFuture("v" + version.incrementAndGet())).join());
+        assertEquals("v2", cache.get("k", () -> CompletableFuture.completedFuture("v" + version.incrementAndGet())).join());
+        assertEquals(2, version.get());
+    }
+
+    @Test
+    void failures_are_not_cached() {
+        var cache = new StaleWhileRevalidateCache<String>(
+                Duration.ofSeconds(5), Duration.ofSeconds(30), 100, Runnable::run, Metrics.noop());
+
+        var e = assertThrows(CompletionException.class,
+                () -> cache.get("k", () -> CompletableFuture.failedFuture(new IllegalStateException("boom"))).join());
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals("ok", cache.get("k", () -> CompletableFuture.completedFuture("ok")).join());
+    }
+
+    @Test
+    void snapshot_serves_known_lines_and_falls_back_upstream_for_missing_lines_and_when_stale() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            var paths = new CopyOnWriteArrayList<String>();
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    paths.add(request.getPath());
+                    return switch (request.getPath()) {
+                        case TflClient.ALL_TUBE_STATUS_PATH -> new MockResponse().setBody("[" + line("central") + "]");
+                        case "/Line/central/Status" -> new MockResponse().setBody("[" + line("central") + "]");
+                        case "/Line/victoria/Status" -> new MockResponse().setBody("[" + line("victoria") + "]");
+                        default -> new MockResponse().setResponseCode(404);
+                    };
+                }
+            });
+            server.start();
+            String url = server.url("/").toString().replaceAll("/$", "");
+            var client = new TflClient(HttpClient.newHttpClient(), new CircuitBreaker(5, Duration.ofSeconds(30), 2),
+                    RetryPolicy.noRetry(), url, Metrics.noop());
+            var poller = new LineSnapshotPoller(client, Duration.ofHours(1), Duration.ofMillis(300), Metrics.noop());
+            var service = new TubeStatusService(client, url, null, poller, false);
+
+            poller.start();
+            try {
+                long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+                while (poller.current() == null && System.nanoTime() < deadline) Thread.sleep(2);
+                assertNotNull(poller.current());
+
+                assertEquals("central", service.getLineStatus("central", null, null).lineId());
+                assertEquals(List.of(TflClient.ALL_TUBE_STATUS_PATH), paths, "served from the snapshot");
+
+                assertEquals("victoria", service.getLineStatusAsync("victoria", null, null).join().lineId());
+                assertEquals("/Line/victoria/Status", paths.getLast(), "a line the snapshot lacks goes upstream");
+
+                Thread.sleep(350);
+                assertNull(poller.current(), "older than max age");
+                assertEquals("central", service.getLineStatus("central", null, null).lineId());
+                assertEquals("/Line/central/Status", paths.getLast(), "a stale snapshot is not served");
+                assertEquals(3, paths.size());
+            } finally {
+                poller.stop();
+            }
+        }
+    }
+
+    @Test
+    void snapshot_skips_null_lines_instead_of_dropping_the_feed() {
+        var central = new Line();
+        central.id = "central";
+        var snapshot = new LineSnapshot(new Line[]{null, central, null}, System.nanoTime());
+        assertEquals(List.of(central), snapshot.lines());
+        assertSame(central, snapshot.line("central"));
+        assertTrue(new LineSnapshot(null, System.nanoTime()).lines().isEmpty());
+    }
+
+    @Test
+    void etag_validates_conditional_requests_and_changes_with_the_data() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            var status = new AtomicReference<>("Good Service");
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    return new MockResponse().setBody("[" + line("central", status.get()) + "]");
+                }
+            });
+            server.start();
+            String url = server.url("/").toString();
+            var client = new TflClient(HttpClient.newHttpClient(), new CircuitBreaker(5, Duration.ofSeconds(30), 2),
+                    RetryPolicy.noRetry(), url, Metrics.noop());
+            var router = new Router(new TubeStatusService(client, url), new IpRateLimiter(100, Duration.ofMinutes(1)), Metrics.noop());
+
+            var first = get(router, Map.of());
+            assertEquals(200, first.status);
+            String etag = first.headers.get("ETag");
+            assertTrue(etag != null && etag.matches("\"[0-9a-f]+\""), "strong ETag: " + etag);
+            assertEquals("Accept-Encoding", first.headers.get("Vary"));
+
+            for (String ifNoneMatch : List.of(etag, "W/" + etag, "\"other\", " + etag,
+                    etag.replaceAll("\"$", "-gzip\""), "*")) {
+                var notModified = get(router, Map.of("If-None-Match", ifNoneMatch));
+                assertEquals(304, notModified.status, ifNoneMatch);
+                assertNull(notModified.sent, "304 has no body");
+                assertEquals(etag, notModified.headers.get("ETag"));
+                assertEquals("Accept-Encoding", notModified.headers.get("Vary"));
+            }
+            assertEquals(200, get(router, Map.of("If-None-Match", "\"other\"")).status);
+
+            status.set("Severe Delays");
+            var changed = get(router, Map.of("If-None-Match", etag));
+            assertEquals(200, changed.status, "new data no longer matches the old validator");
+            assertNotEquals(etag, changed.headers.get("ETag"));
+            assertEquals(304, get(router, Map.of("If-None-Match", changed.headers.get("ETag"))).status);
+        }
+    }
+
+    @Test
+    void negotiates_gzip_or_deflate_by_weight_and_leaves_small_bodies_alone() throws Exception {
+        var large = Json.serialize(java.util.Collections.nCopies(200, "Good Service"));
+        var small = Json.serialize(List.of("Good Service"));
+        assertTrue(large.bytes().length >= 1024 && small.bytes().length < 1024);
+
+        Map<String, String> expected = new java.util.LinkedHashMap<>();
+        expected.put("gzip", "gzip");
+        expected.put("deflate", "deflate");
+        expected.put("gzip, deflate", "gzip");
+        expected.put("deflate, gzip", "gzip");
+        expected.put("deflate;q=1, gzip;q=0.5", "deflate");
+        expected.put("gzip;q=0, deflate", "deflate");
+        expected.put("gzip;q=0, deflate;q=0", null);
+        expected.put("*", "gzip");
+        expected.put("*;q=0", null);
+        expected.put("deflate, *;q=0", "deflate");
+        expected.put("br", null);
+        expected.put("", null);
+        for (var e : expected.entrySet()) {
+            var ex = send(large, e.getKey());
+            String coding = e.getValue();
+            assertEquals(coding, ex.headers.get("Content-Encoding"), e.getKey());
+            assertEquals(coding == null ? large.etag() : large.etag().replaceAll("\"$", "-" + coding + "\""),
+                    ex.headers.get("ETag"), e.getKey());
+            assertArrayEquals(large.bytes(), decode(ex.sent, coding), e.getKey());
+            if (coding != null) assertTrue(ex.sent.remaining() < large.bytes().length);
+        }
+
+        var tiny = send(small, "gzip");
+        assertNull(tiny.headers.get("Content-Encoding"), "below the size threshold");
+        assertEquals(small.etag(), tiny.headers.get("ETag"));
+        assertEquals("Accept-Encoding", tiny.headers.get("Vary"));
+
+        var lowThreshold = new Json(new ContentEncoding(8, Metrics.noop()));
+        var compressed = Json.serialize(List.of("Good Service", "Good Service", "Good Service"));
+        var ex = send(lowThreshold, compressed, "gzip");
+        assertEquals("gzip", ex.headers.get("Content-Encoding"), "threshold lowered");
+        assertArrayEquals(compressed.bytes(), decode(ex.sent, "gzip"));
+        assertNull(send(lowThreshold, Json.serialize("abcdefgh"), "gzip").headers.get("Content-Encoding"), "never sent larger than identity");
+    }
+
+    private static FakeExchange send(com.example.tube.http.JsonBody body, String acceptEncoding) {
+        return send(new Json(ContentEncoding.defaults()), body, acceptEncoding);
+    }
+
+    private static FakeExchange send(Json json, com.example.tube.http.JsonBody body, String acceptEncoding) {
+        var ex = new FakeExchange("GET", "/api/disruptions/unplanned", null, Map.of("Accept-Encoding", acceptEncoding));
+        json.sendJson(ex, 200, body);
+        return ex;
+    }
+
+    private static byte[] decode(ByteBuffer body, String coding) throws IOException {
+        byte[] raw = new byte[body.remaining()];
+        body.duplicate().get(raw);
+        if (coding == null) return raw;
+        try (InputStream in = coding.equals("gzip")
+                ? new GZIPInputStream(new ByteArrayInputStream(raw))
+                : new InflaterInputStream(new ByteArrayInputStream(raw))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static FakeExchange get(Router router, Map<String, String> headers) throws Exception {
+        var ex = new FakeExchange("GET", "/api/line/central/status", null, headers);
+        router.handle(ex);
+        return ex;
+    }
+}
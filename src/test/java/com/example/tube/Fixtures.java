@@ -0,0 +1,120 @@
+package com.example.tube;
+
+import com.example.tube.http.Exchange;
+import com.example.tube.http.ResponseStream;
+import com.example.tube.service.LineSnapshot;
+import com.example.tube.tfl.Line;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/** TfL payloads, snapshots and a fake {@link Exchange} shared by the tests. */
+public final class Fixtures {
+
+    private Fixtures() {}
+
+    /** TfL JSON for one line in Good Service. */
+    public static String line(String id) {
+        return line(id, "Good Service");
+    }
+
+    public static String line(String id, String status) {
+        return "{\"id\":\"" + id + "\",\"name\":\"" + id + "\",\"lineStatuses\":[{\"statusSeverityDescription\":\"" + status + "\"}]}";
+    }
+
+    /** A snapshot holding only the Central line, at {@code status}. */
+    public static LineSnapshot snapshot(String status) {
+        var ls = new Line.LineStatus();
+        ls.statusSeverityDescription = status;
+        var central = new Line();
+        central.id = "central";
+        central.name = "Central";
+        central.lineStatuses = List.of(ls);
+        return new LineSnapshot(new Line[]{central}, System.nanoTime());
+    }
+
+    /**
+     * Exchange that keeps what it was sent: status, response headers and body, or the frames of
+     * a streamed response. Streamed writes block on the latch given to {@link #stuckOn} until it
+     * opens.
+     */
+    public static final class FakeExchange implements Exchange {
+        public final String method;
+        public final String path;
+        public final String query;
+        public final Map<String, String> requestHeaders;
+        public final Map<String, String> headers = new ConcurrentHashMap<>();
+        public final List<String> frames = new CopyOnWriteArrayList<>();
+        public volatile int status;
+        public volatile ByteBuffer sent;
+        public volatile boolean closed;
+        private volatile boolean streaming;
+        private CountDownLatch stuck;
+
+        public FakeExchange(String method, String path) {
+            this(method, path, null, Map.of());
+        }
+
+        public FakeExchange(String method, String path, String query) {
+            this(method, path, query, Map.of());
+        }
+
+        public FakeExchange(String method, String path, String query, Map<String, String> requestHeaders) {
+            this.method = method;
+            this.path = path;
+            this.query = query;
+            this.requestHeaders = requestHeaders;
+        }
+
+        public FakeExchange stuckOn(CountDownLatch stuck) {
+            this.stuck = stuck;
+            return this;
+        }
+
+        /** The sent body as text; empty if none was sent. */
+        public String body() {
+            return sent == null ? "" : StandardCharsets.UTF_8.decode(sent.duplicate()).toString();
+        }
+
+        @Override public String method() { return method; }
+        @Override public String path() { return path; }
+        @Override public String rawQuery() { return query; }
+        @Override public String requestHeader(String name) { return requestHeaders.get(name); }
+        @Override public InetSocketAddress remoteAddress() { return new InetSocketAddress("127.0.0.1", 1234); }
+        @Override public void setResponseHeader(String name, String value) { headers.put(name, value); }
+        @Override public void close() { closed = true; }
+
+        @Override
+        public void send(int status, ByteBuffer body) {
+            if (streaming) throw new AssertionError("send after stream");
+            this.status = status;
+            this.sent = body;
+        }
+
+        @Override
+        public ResponseStream stream(int status) {
+            if (this.status != 0) throw new AssertionError("stream after send");
+            this.status = status;
+            streaming = true;
+            return new ResponseStream() {
+                @Override
+                public void write(ByteBuffer data) throws IOException {
+                    if (stuck != null) {
+                        try { stuck.await(); } catch (InterruptedException e) { throw new IOException(e); }
+                    }
+                    frames.add(StandardCharsets.UTF_8.decode(data).toString());
+                }
+
+                @Override
+                public void close() { closed = true; }
+            };
+        }
+    }
+}
@@ -1,19 +1,55 @@
 package com.example.tube;
 
+import com.example.tube.concurrent.Futures;
+import com.example.tube.errors.UpstreamUnavailableException;
 import com.example.tube.otel.Metrics;
-import com.example.tube.otel.Telemetry;
 import com.example.tube.ratelimit.IpRateLimiter;
+import com.example.tube.ratelimit.LeasedQuotaRateLimiter;
+import com.example.tube.ratelimit.QuotaCoordinator;
+import com.example.tube.resilience.CallNotPermittedException;
 import com.example.tube.resilience.CircuitBreaker;
+import com.example.tube.resilience.ConcurrencyLimitExceededException;
+import com.example.tube.resilience.ConcurrencyLimiter;
+import com.example.tube.resilience.HedgePolicy;
 import com.example.tube.resilience.HttpStatusException;
+import com.example.tube.resilience.LatencyTracker;
+import com.example.tube.resilience.OutcomeWindow;
+import com.example.tube.resilience.RetryBudget;
 import com.example.tube.resilience.RetryPolicy;
 import com.example.tube.service.TflClient;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
 import org.junit.jupiter.api.Test;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static com.example.tube.Fixtures.line;
 import static org.junit.jupiter.api.Assertions.*;
 
 class ResilienceTests {
@@ -101,6 +137,171 @@ class ResilienceTests {
         }
     }
 
+    @Test
+    void retry_budget_caps_retries_across_calls() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            for (int i = 0; i < 20; i++) {
+                server.enqueue(new MockResponse().setResponseCode(503).setBody("err"));
+            }
+            server.start();
+
+            var http = HttpClient.newBuilder()
+                    .connectTimeout(Duration.ofMillis(200))
+                    .build();
+
+            var cb = new CircuitBreaker(100, Duration.ofSeconds(30), 2);
+
+            // No deposits, one token: only a single retry for the whole process
+            var budget = new RetryBudget(0, 1);
+            var scheduler = Executors.newSingleThreadScheduledExecutor();
+            try {
+                var retry = new RetryPolicy(4, 1, budget, scheduler, Metrics.noop());
+
+                var client = new TflClient(http, cb, retry, server.url("/").toString(), Metrics.noop());
+
+                assertThrows(HttpStatusException.class, () -> client.getLineStatus("northern", null, null));
+                assertThrows(HttpStatusException.class, () -> client.getLineStatus("northern", null, null));
+
+                assertEquals(3, server.getRequestCount(), "Two first attempts plus one budgeted retry");
+            } finally {
+                scheduler.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    void async_retries_are_scheduled_and_capped_by_the_retry_budget() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    return new MockResponse().setResponseCode(503).setBody("err");
+                }
+            });
+            server.start();
+
+            var cb = new CircuitBreaker(100, Duration.ofSeconds(30), 2);
+            var budget = new RetryBudget(0, 1);
+            var scheduler = new ScheduledThreadPoolExecutor(1);
+            try {
+                var retry = new RetryPolicy(4, 1, budget, scheduler, Metrics.noop());
+                var client = new TflClient(HttpClient.newHttpClient(), cb, retry, server.url("/").toString(), Metrics.noop());
+
+                for (int call = 0; call < 2; call++) {
+                    var e = assertThrows(CompletionException.class, client.getLineStatusAsync("northern", null, null)::join);
+                    assertEquals(503, assertInstanceOf(HttpStatusException.class, e.getCause()).statusCode());
+                }
+                assertEquals(3, server.getRequestCount(), "Two first attempts plus one budgeted retry");
+                assertEquals(1, scheduler.getTaskCount(), "the retry's backoff ran on the scheduler");
+
+                // a backoff that cannot be scheduled fails the call with the last upstream error
+                scheduler.shutdownNow();
+                var rejected = new RetryPolicy(4, 1, new RetryBudget(0, 5), scheduler, Metrics.noop());
+                var rejectingClient = new TflClient(HttpClient.newHttpClient(), cb, rejected, server.url("/").toString(), Metrics.noop());
+                var e = assertThrows(CompletionException.class, rejectingClient.getLineStatusAsync("northern", null, null)::join);
+                assertInstanceOf(HttpStatusException.class, e.getCause());
+                assertEquals(4, server.getRequestCount());
+            } finally {
+                scheduler.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    void hedge_fires_after_the_delay_and_the_first_response_aborts_the_other() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setHeadersDelay(1, TimeUnit.SECONDS).setBody("[" + line("central") + "]"));
+            server.enqueue(new MockResponse().setBody("[" + line("victoria") + "]"));
+            server.start();
+            var scheduler = Executors.newSingleThreadScheduledExecutor();
+            var http = new RecordingHttpClient(HttpClient.newHttpClient());
+
+            var client = new TflClient(http, new CircuitBreaker(5, Duration.ofSeconds(30), 2), RetryPolicy.noRetry(),
+                    server.url("/").toString(), Metrics.noop(), Duration.ofSeconds(5),
+                    hedging(Duration.ofMillis(100), new RetryBudget(0, 5), scheduler), true, ConcurrencyLimiter.unlimited());
+
+            long start = System.nanoTime();
+            var lines = client.getLineStatusAsync("central", null, null).join();
+            long tookMs = (System.nanoTime() - start) / 1_000_000;
+
+            assertEquals("victoria", lines[0].id, "the hedge answered first");
+            assertTrue(tookMs >= 100 && tookMs < 900, "hedge sent after the delay, not after the slow primary: " + tookMs);
+            assertEquals(2, server.getRequestCount());
+            var aborted = http.sent.get(0).handle((resp, err) -> Futures.unwrap(err)).join();
+            assertInstanceOf(CancellationException.class, aborted, "the losing exchange itself is aborted");
+            assertFalse(http.sent.get(1).isCompletedExceptionally());
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void hedges_are_capped_by_their_budget_and_never_sent_once_the_call_has_failed() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            var failing = new AtomicBoolean(true);
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    return failing.get()
+                            ? new MockResponse().setBody("[" + line("central") + "]").setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY)
+                            : new MockResponse().setHeadersDelay(600, TimeUnit.MILLISECONDS).setBody("[" + line("central") + "]");
+                }
+            });
+            server.start();
+            var scheduler = Executors.newSingleThreadScheduledExecutor();
+
+            var client = new TflClient(HttpClient.newHttpClient(), new CircuitBreaker(5, Duration.ofSeconds(30), 2),
+                    RetryPolicy.noRetry(), server.url("/").toString(), Metrics.noop(), Duration.ofSeconds(5),
+                    hedging(Duration.ofMillis(300), new RetryBudget(0, 1), scheduler), true, ConcurrencyLimiter.unlimited());
+
+            assertThrows(UpstreamUnavailableException.class, () -> client.getLineStatus("central", null, null));
+            int failed = server.getRequestCount(); // the JDK client may itself retry a GET whose connection dropped
+            Thread.sleep(400);
+            assertEquals(failed, server.getRequestCount(), "no hedge for a call that already failed");
+
+            failing.set(false);
+
+            for (int i = 0; i < 3; i++) {
+                assertEquals("central", client.getLineStatus("central", null, null)[0].id);
+            }
+            assertEquals(failed + 3 + 1, server.getRequestCount(), "a single budget token: one hedge across three slow calls");
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void hedges_take_their_own_breaker_permit_and_concurrency_slot() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setHeadersDelay(1, TimeUnit.SECONDS).setBody("[" + line("central") + "]"));
+            server.enqueue(new MockResponse().setBody("[" + line("central") + "]"));
+            server.enqueue(new MockResponse().setHeadersDelay(300, TimeUnit.MILLISECONDS).setBody("[" + line("central") + "]"));
+            server.start();
+            var scheduler = Executors.newSingleThreadScheduledExecutor();
+
+            // Half-open with two probes: the primary and its hedge each hold one
+            var cb = new CircuitBreaker(1, Duration.ofMillis(20), 2);
+            cb.onFailure();
+            Thread.sleep(30);
+            var concurrency = new ConcurrencyLimiter(2, 1, 2, Duration.ofSeconds(10), 0.5);
+            var client = new TflClient(HttpClient.newHttpClient(), cb, RetryPolicy.noRetry(),
+                    server.url("/").toString(), Metrics.noop(), Duration.ofSeconds(5),
+                    hedging(Duration.ofMillis(100), new RetryBudget(0, 5), scheduler), true, concurrency);
+
+            client.getLineStatusAsync("central", null, null).join();
+            assertEquals(2, server.getRequestCount());
+            assertEquals(CircuitBreaker.State.CLOSED, cb.state());
+            assertEquals(0, cb.probesInFlight(), "the aborted loser gave its permit back");
+            assertEquals(0, concurrency.inFlight());
+
+            // One slot held by this call's primary: the hedge is skipped rather than exceeding the limit
+            concurrency.acquire();
+            client.getLineStatusAsync("central", null, null).join();
+            assertEquals(3, server.getRequestCount());
+            concurrency.cancel();
+            assertEquals(0, concurrency.inFlight());
+            scheduler.shutdownNow();
+        }
+    }
+
     @Test
     void resets_after_window() throws Exception {
         IpRateLimiter limiter = new IpRateLimiter(2, Duration.ofMillis(50));
@@ -113,4 +314,233 @@ class ResilienceTests {
 
         assertTrue(limiter.allow("1.2.3.4"), "Should allow again after window reset");
     }
+
+    @Test
+    void gcra_reports_remaining_and_spreads_sustained_rate() throws Exception {
+        // 100 ms emission interval: wide enough that scheduling jitter cannot refill a second slot
+        IpRateLimiter limiter = new IpRateLimiter(10, Duration.ofSeconds(1), 3);
+
+        assertEquals(2, limiter.tryAcquire("k").remaining());
+        assertEquals(1, limiter.tryAcquire("k").remaining());
+        assertEquals(0, limiter.tryAcquire("k").remaining());
+
+        var denied = limiter.tryAcquire("k");
+        assertFalse(denied.allowed());
+        assertTrue(denied.retryAfterNanos() > 0 && denied.retryAfterNanos() <= Duration.ofMillis(100).toNanos());
+        assertTrue(limiter.tryAcquire("other").allowed(), "Keys are independent");
+
+        Thread.sleep(110);
+        assertTrue(limiter.tryAcquire("k").allowed(), "One emission interval later a single request is allowed");
+        assertFalse(limiter.tryAcquire("k").allowed(), "...but the burst is not refilled");
+    }
+
+    @Test
+    void limiter_key_table_is_bounded_and_sweeps_idle_keys() throws Exception {
+        IpRateLimiter limiter = new IpRateLimiter(1, Duration.ofMillis(20), 1, 64);
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.allow("10.0." + (i / 256) + "." + (i % 256)));
+        }
+        assertTrue(limiter.size() <= 64);
+        assertTrue(limiter.capacityEvictions() > 0);
+
+        Thread.sleep(30);
+        assertEquals(limiter.size(), limiter.sweep());
+        assertEquals(0, limiter.size());
+    }
+
+    @Test
+    void limiter_keys_equivalent_address_spellings_together() {
+        IpRateLimiter limiter = new IpRateLimiter(1, Duration.ofMinutes(1), 1);
+
+        assertTrue(limiter.allow("2001:db8::1"));
+        assertFalse(limiter.allow("2001:0DB8:0:0:0:0:0:1"));
+        assertFalse(limiter.allow("[2001:db8::1]"));
+
+        assertTrue(limiter.allow("192.0.2.7"));
+        assertFalse(limiter.allow("::ffff:192.0.2.7"));
+
+        assertTrue(limiter.allow("not-an-ip"));
+        assertFalse(limiter.allow("not-an-ip"));
+        assertTrue(limiter.allow("2001:db8::2"));
+    }
+
+    @Test
+    void leased_quota_enforces_one_limit_across_nodes() throws Exception {
+        var coordinator = new QuotaCoordinator(new IpRateLimiter(20, Duration.ofMinutes(1), 20), QuotaCoordinator.maxPermitsFor(5, 1));
+        int port = coordinator.start(new InetSocketAddress("127.0.0.1", 0));
+        var scheduler = Executors.newScheduledThreadPool(2);
+        try {
+            var nodes = new LeasedQuotaRateLimiter[3];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = new LeasedQuotaRateLimiter(URI.create("http://127.0.0.1:" + port), HttpClient.newHttpClient(),
+                        20, 5, 1, Duration.ofSeconds(10), Duration.ofMillis(10),
+                        new IpRateLimiter(20, Duration.ofMinutes(1), 20), scheduler);
+                nodes[i].start();
+            }
+
+            // Long enough for every node's first sync, short enough that no permit refills (one per 3 s)
+            int allowed = 0;
+            long deadline = System.nanoTime() + Duration.ofSeconds(1).toNanos();
+            while (System.nanoTime() < deadline) {
+                for (var node : nodes) {
+                    if (node.allow("203.0.113.9")) allowed++;
+                }
+                Thread.sleep(5);
+            }
+
+            assertTrue(nodes[0].coordinatorUp());
+            assertTrue(allowed >= 20 && allowed <= 20 + nodes.length, "allowed=" + allowed);
+            for (var node : nodes) node.close();
+        } finally {
+            scheduler.shutdownNow();
+            coordinator.stop();
+        }
+    }
+
+    @Test
+    void leased_quota_bounds_its_lease_table_and_decides_overflow_locally() throws Exception {
+        var coordinator = new QuotaCoordinator(new IpRateLimiter(20, Duration.ofMinutes(1), 20), QuotaCoordinator.maxPermitsFor(5, 1));
+        int port = coordinator.start(new InetSocketAddress("127.0.0.1", 0));
+        var scheduler = Executors.newScheduledThreadPool(1);
+        try (var node = new LeasedQuotaRateLimiter(URI.create("http://127.0.0.1:" + port), HttpClient.newHttpClient(),
+                20, 5, 1, Duration.ofSeconds(10), Duration.ofMillis(10), 8,
+                new IpRateLimiter(1, Duration.ofMinutes(1), 1), scheduler)) {
+            node.start();
+
+            for (int i = 0; i < 1000; i++) node.allow("198.51." + (i / 256) + "." + (i % 256));
+            assertTrue(node.size() <= 8, "size=" + node.size());
+            assertTrue(node.overflows() >= 1000 - 8);
+
+            assertTrue(node.allow("192.0.2.1"), "overflow keys are still limited, by the local fallback");
+            assertFalse(node.allow("192.0.2.1"));
+        } finally {
+            scheduler.shutdownNow();
+            coordinator.stop();
+        }
+    }
+
+    @Test
+    void quota_coordinator_rejects_negative_counts_and_clamps_refunds() throws Exception {
+        var coordinator = new QuotaCoordinator(new IpRateLimiter(20, Duration.ofMinutes(1), 20), 5);
+        int port = coordinator.start(new InetSocketAddress("127.0.0.1", 0));
+        var http = HttpClient.newHttpClient();
+        try {
+            assertEquals(400, postQuota(http, port, "203.0.113.9\t0\t-100\t5").statusCode());
+            assertEquals(400, postQuota(http, port, "203.0.113.9\t0\t0\t-5").statusCode());
+
+            assertEquals("5", grantOf(postQuota(http, port, "203.0.113.9\t0\t0\t1000")), "wanted is clamped");
+            for (int i = 0; i < 3; i++) postQuota(http, port, "203.0.113.9\t0\t0\t5");
+            assertEquals("0", grantOf(postQuota(http, port, "203.0.113.9\t0\t0\t5")), "quota spent");
+
+            assertEquals("5", grantOf(postQuota(http, port, "203.0.113.9\t0\t1000\t5")), "refund is clamped to one lease");
+            assertEquals("0", grantOf(postQuota(http, port, "203.0.113.9\t0\t0\t5")));
+        } finally {
+            coordinator.stop();
+        }
+    }
+
+    private static HttpResponse<String> postQuota(HttpClient http, int port, String line) throws Exception {
+        var req = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + QuotaCoordinator.PATH))
+                .POST(HttpRequest.BodyPublishers.ofString(line + "\n"))
+                .build();
+        return http.send(req, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String grantOf(HttpResponse<String> resp) {
+        assertEquals(200, resp.statusCode());
+        return resp.body().split("\t")[0];
+    }
+
+    @Test
+    void window_breaker_opens_on_failure_rate_despite_interleaved_successes() {
+        var cb = new CircuitBreaker(new OutcomeWindow(10, 10, 50, 101, Duration.ofSeconds(1)),
+                Duration.ofSeconds(30), 1, Metrics.noop());
+
+        for (int i = 0; i < 9; i++) {
+            cb.acquirePermission();
+            if (i % 5 != 2 && i % 5 != 4) cb.onFailure(0); else cb.onSuccess(0); // 60% failures, never 3 in a row
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, cb.state(), "Below minimum calls");
+
+        cb.acquirePermission();
+        cb.onSuccess(0);
+        assertEquals(CircuitBreaker.State.OPEN, cb.state());
+        assertThrows(CallNotPermittedException.class, cb::acquirePermission);
+    }
+
+    @Test
+    void window_breaker_opens_on_slow_calls() {
+        var cb = new CircuitBreaker(new OutcomeWindow(4, 4, 100, 75, Duration.ofMillis(100)),
+                Duration.ofSeconds(30), 1, Metrics.noop());
+
+        cb.onSuccess(Duration.ofMillis(5).toNanos());
+        cb.onSuccess(Duration.ofMillis(150).toNanos());
+        cb.onSuccess(Duration.ofMillis(150).toNanos());
+        assertEquals(CircuitBreaker.State.CLOSED, cb.state());
+
+        cb.onSuccess(Duration.ofMillis(150).toNanos());
+        assertEquals(CircuitBreaker.State.OPEN, cb.state());
+        assertTrue(cb.openSeconds() >= 0);
+    }
+
+    @Test
+    void concurrency_limit_rejects_fast_and_adapts_to_latency() {
+        var limiter = new ConcurrencyLimiter(2, 1, 10, Duration.ofMillis(100), 0.5);
+
+        limiter.acquire();
+        limiter.acquire();
+        assertThrows(ConcurrencyLimitExceededException.class, limiter::acquire);
+
+        limiter.release(Duration.ofMillis(10).toNanos(), false); // fast while fully used: grow
+        assertEquals(3, limiter.limit());
+
+        limiter.release(Duration.ofMillis(500).toNanos(), false); // slow: shrink
+        assertEquals(1, limiter.limit());
+        assertEquals(0, limiter.inFlight());
+    }
+
+    private static HedgePolicy hedging(Duration delay, RetryBudget budget, ScheduledExecutorService scheduler) {
+        var latencies = new LatencyTracker(16, 1, 90);
+        latencies.record(Duration.ofMillis(1).toNanos());
+        return new HedgePolicy(latencies, delay, budget, scheduler);
+    }
+
+    /** Delegating client that keeps every future {@code sendAsync} returned. */
+    private static final class RecordingHttpClient extends HttpClient {
+        final List<CompletableFuture<?>> sent = new CopyOnWriteArrayList<>();
+        final HttpClient delegate;
+
+        RecordingHttpClient(HttpClient delegate) { this.delegate = delegate; }
+
+        @Override public Optional<CookieHandler> cookieHandler() { return delegate.cookieHandler(); }
+        @Override public Optional<Duration> connectTimeout() { return delegate.connectTimeout(); }
+        @Override public Redirect followRedirects() { return delegate.followRedirects(); }
+        @Override public Optional<ProxySelector> proxy() { return delegate.proxy(); }
+        @Override public SSLContext sslContext() { return delegate.sslContext(); }
+        @Override public SSLParameters sslParameters() { return delegate.sslParameters(); }
+        @Override public Optional<Authenticator> authenticator() { return delegate.authenticator(); }
+        @Override public Version version() { return delegate.version(); }
+        @Override public Optional<Executor> executor() { return delegate.executor(); }
+
+        @Override
+        public <T> HttpResponse<T> send(HttpRequest req, HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException {
+            return delegate.send(req, handler);
+        }
+
+        @Override
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest req, HttpResponse.BodyHandler<T> handler) {
+            var f = delegate.sendAsync(req, handler);
+            sent.add(f);
+            return f;
+        }
+
+        @Override
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest req, HttpResponse.BodyHandler<T> handler,
+                                                                HttpResponse.PushPromiseHandler<T> push) {
+            var f = delegate.sendAsync(req, handler, push);
+            sent.add(f);
+            return f;
+        }
+    }
 }
@@ -0,0 +1,356 @@
+package com.example.tube;
+
+import com.example.tube.concurrent.AdmissionExecutor;
+import com.example.tube.http.AdmissionControl;
+import com.example.tube.http.Exchange;
+import com.example.tube.http.JdkServerEngine;
+import com.example.tube.http.NioServerEngine;
+import com.example.tube.http.ResponseStream;
+import com.example.tube.http.Router;
+import com.example.tube.http.ServerEngine;
+import com.example.tube.otel.Metrics;
+import com.example.tube.ratelimit.IpRateLimiter;
+import com.example.tube.resilience.CircuitBreaker;
+import com.example.tube.resilience.ConcurrencyLimiter;
+import com.example.tube.resilience.HedgePolicy;
+import com.example.tube.resilience.RetryPolicy;
+import com.example.tube.service.TflClient;
+import com.example.tube.service.TubeStatusService;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static com.example.tube.Fixtures.line;
+import static org.junit.jupiter.api.Assertions.*;
+
+/** {@link NioServerEngine} over raw sockets, and the router's HTTP behaviour (including admission control) on real engines. */
+class ServerEngineTests {
+
+    private static final byte[] BIG = new byte[4 * 1024 * 1024];
+
+    static {
+        for (int i = 0; i < BIG.length; i++) BIG[i] = (byte) ('a' + i % 26);
+    }
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final NioServerEngine engine = new NioServerEngine();
+    private int port;
+
+    @BeforeEach
+    void start() throws IOException {
+        port = engine.start(new InetSocketAddress("127.0.0.1", 0), ServerEngineTests::serve, executor);
+    }
+
+    @AfterEach
+    void stop() {
+        engine.stop();
+        executor.shutdownNow();
+    }
+
+    /** /big: 4 MB body; /not-modified: 304; /stream: two events then close; anything else echoes the path. */
+    private static void serve(Exchange ex) throws IOException {
+        switch (ex.path()) {
+            case "/big" -> ex.send(200, ByteBuffer.wrap(BIG));
+            case "/not-modified" -> {
+                ex.setResponseHeader("ETag", "\"v1\"");
+                ex.send(304, null);
+            }
+            case "/stream" -> {
+                ex.setResponseHeader("Content-Type", "text/event-stream");
+                ResponseStream out = ex.stream(200);
+                out.write(ByteBuffer.wrap("data: a\n\n".getBytes(StandardCharsets.UTF_8)));
+                out.write(ByteBuffer.wrap("data: b\n\n".getBytes(StandardCharsets.UTF_8)));
+                out.close();
+            }
+            default -> ex.send(200, ByteBuffer.wrap(("ok " + ex.method() + " " + ex.path()).getBytes(StandardCharsets.UTF_8)));
+        }
+        ex.close();
+    }
+
+    @Test
+    void keeps_the_connection_alive_across_requests() throws IOException {
+        try (Socket s = connect()) {
+            for (int i = 0; i < 3; i++) {
+                s.getOutputStream().write(get("/r" + i).getBytes(StandardCharsets.US_ASCII));
+                Response r = Response.read(s.getInputStream(), false);
+                assertEquals(200, r.status);
+                assertEquals("ok GET /r" + i, r.text());
+                assertNull(r.headers.get("connection"));
+            }
+        }
+    }
+
+    @Test
+    void serves_pipelined_requests_in_order() throws IOException {
+        try (Socket s = connect()) {
+            s.getOutputStream().write((get("/a") + get("/b") + "HEAD /c HTTP/1.1\r\nHost: x\r\n\r\n" + get("/d"))
+                    .getBytes(StandardCharsets.US_ASCII));
+            InputStream in = s.getInputStream();
+            assertEquals("ok GET /a", Response.read(in, false).text());
+            assertEquals("ok GET /b", Response.read(in, false).text());
+            Response head = Response.read(in, true);
+            assertEquals("ok HEAD /c".length(), Integer.parseInt(head.headers.get("content-length")));
+            assertEquals(0, head.body.length, "HEAD sends the length but no body");
+            assertEquals("ok GET /d", Response.read(in, false).text());
+        }
+    }
+
+    @Test
+    void finishes_a_large_body_the_client_reads_slowly_then_serves_the_next_request() throws Exception {
+        try (Socket s = new Socket()) {
+            s.setReceiveBufferSize(4096);
+            s.connect(new InetSocketAddress("127.0.0.1", port));
+            s.setSoTimeout(5000);
+            s.getOutputStream().write((get("/big") + get("/after")).getBytes(StandardCharsets.US_ASCII));
+            Thread.sleep(200); // the handler's write cannot complete; the selector finishes it
+
+            Response big = Response.read(s.getInputStream(), false);
+            assertEquals(200, big.status);
+            assertArrayEquals(BIG, big.body);
+            assertEquals("ok GET /after", Response.read(s.getInputStream(), false).text());
+        }
+    }
+
+    @Test
+    void not_modified_has_no_body_and_keeps_the_connection() throws IOException {
+        try (Socket s = connect()) {
+            s.getOutputStream().write((get("/not-modified") + get("/next")).getBytes(StandardCharsets.US_ASCII));
+            Response r = Response.read(s.getInputStream(), true);
+            assertEquals(304, r.status);
+            assertEquals("\"v1\"", r.headers.get("etag"));
+            assertNull(r.headers.get("content-length"));
+            assertEquals("ok GET /next", Response.read(s.getInputStream(), false).text());
+        }
+    }
+
+    @Test
+    void rejects_malformed_and_oversized_requests_and_closes() throws IOException {
+        assertRejected("GARBAGE\r\n\r\n", 400);
+        assertRejected("GET /x SPDY/3\r\n\r\n", 400);
+        assertRejected("GET /x HTTP/1.1\r\nContent-Length: nope\r\n\r\n", 400);
+        assertRejected("GET /x HTTP/1.1\r\nContent-Length: 1000000\r\n\r\n", 413);
+        assertRejected("GET /x HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n", 501);
+        String head = "GET /x HTTP/1.1\r\nX-Big: ";
+        assertRejected(head + "a".repeat(16 * 1024 - head.length()), 431); // fills the buffer exactly, no end of head
+    }
+
+    @Test
+    void assembles_a_request_that_arrives_a_few_bytes_at_a_time() throws Exception {
+        try (Socket s = connect()) {
+            OutputStream out = s.getOutputStream();
+            for (String part : new String[]{"GE", "T /sl", "ow HTTP/1.1\r", "\nHost: x\r\n", "\r", "\n"}) {
+                out.write(part.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                Thread.sleep(30);
+            }
+            assertEquals("ok GET /slow", Response.read(s.getInputStream(), false).text());
+        }
+    }
+
+    @Test
+    void closes_after_the_response_when_asked_to() throws IOException {
+        try (Socket s = connect()) {
+            s.getOutputStream().write("GET /bye HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            Response r = Response.read(s.getInputStream(), false);
+            assertEquals("ok GET /bye", r.text());
+            assertEquals("close", r.headers.get("connection"));
+            assertEquals(-1, s.getInputStream().read());
+        }
+        try (Socket s = connect()) {
+            s.getOutputStream().write("GET /old HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            Response r = Response.read(s.getInputStream(), false);
+            assertTrue(r.statusLine.startsWith("HTTP/1.0 200"), r.statusLine);
+            assertEquals(-1, s.getInputStream().read(), "HTTP/1.0 without keep-alive closes");
+        }
+    }
+
+    @Test
+    void streams_events_without_a_length_until_the_stream_closes() throws IOException {
+        try (Socket s = connect()) {
+            s.getOutputStream().write(get("/stream").getBytes(StandardCharsets.US_ASCII));
+            Response r = Response.read(s.getInputStream(), true);
+            assertEquals(200, r.status);
+            assertEquals("text/event-stream", r.headers.get("content-type"));
+            assertNull(r.headers.get("content-length"));
+            assertEquals("data: a\n\ndata: b\n\n", new String(s.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"jdk", "nio"})
+    void router_behaves_the_same_on_both_engines(String name) throws Exception {
+        try (MockWebServer upstream = new MockWebServer()) {
+            upstream.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    return new MockResponse().setBody("[{\"id\":\"central\",\"name\":\"Central\",\"lineStatuses\":[{\"statusSeverityDescription\":\"Good Service\"}]}]");
+                }
+            });
+            upstream.start();
+            var client = new TflClient(HttpClient.newHttpClient(), new CircuitBreaker(5, Duration.ofSeconds(30), 2),
+                    RetryPolicy.noRetry(), upstream.url("/").toString(), Metrics.noop());
+            var router = new Router(new TubeStatusService(client, upstream.url("/").toString()),
+                    new IpRateLimiter(100, Duration.ofMinutes(1)), Metrics.noop());
+            ServerEngine server = ServerEngine.of(name);
+            int p = server.start(new InetSocketAddress("127.0.0.1", 0), router::handle, executor);
+            try {
+                var http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+                var base = "http://127.0.0.1:" + p;
+
+                var ok = http.send(HttpRequest.newBuilder(URI.create(base + "/api/line/central/status")).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                assertEquals(200, ok.statusCode());
+                assertTrue(ok.body().contains("Good Service"), ok.body());
+                String etag = ok.headers().firstValue("ETag").orElseThrow();
+
+                var revalidated = http.send(HttpRequest.newBuilder(URI.create(base + "/api/line/central/status"))
+                        .header("If-None-Match", etag).build(), HttpResponse.BodyHandlers.ofString());
+                assertEquals(304, revalidated.statusCode());
+                assertEquals("", revalidated.body());
+
+                assertEquals(200, http.send(HttpRequest.newBuilder(URI.create(base + "/healthz")).build(),
+                        HttpResponse.BodyHandlers.ofString()).statusCode());
+                assertEquals(404, http.send(HttpRequest.newBuilder(URI.create(base + "/nope")).build(),
+                        HttpResponse.BodyHandlers.ofString()).statusCode());
+                assertEquals(405, http.send(HttpRequest.newBuilder(URI.create(base + "/api/line/central/status"))
+                        .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    void admission_rejects_at_a_full_queue_sheds_past_the_deadline_and_never_sheds_healthz() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    return new MockResponse().setBody("[" + line("central") + "]").setBodyDelay(600, TimeUnit.MILLISECONDS);
+                }
+            });
+            server.start();
+
+            var client = new TflClient(HttpClient.newHttpClient(), new CircuitBreaker(5, Duration.ofSeconds(30), 2),
+                    RetryPolicy.noRetry(), server.url("/").toString(), Metrics.noop(), Duration.ofSeconds(5),
+                    HedgePolicy.disabled(), true, ConcurrencyLimiter.unlimited());
+            var service = new TubeStatusService(client, server.url("/").toString());
+            var executor = new AdmissionExecutor(1, 1); // one handler thread, one queued request
+            var admission = new AdmissionControl(executor, Duration.ofMillis(100), 0, 7, Metrics.noop());
+            var router = new Router(service, new IpRateLimiter(100, Duration.ofMinutes(1)), Metrics.noop(), admission);
+            var engine = new JdkServerEngine();
+            int port = engine.start(new InetSocketAddress("127.0.0.1", 0), router::handle, executor);
+            try {
+                var http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+                var base = "http://127.0.0.1:" + port;
+                var running = http.sendAsync(HttpRequest.newBuilder(URI.create(base + "/api/line/central/status")).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                awaitUpstreamRequests(server, 1);
+                var queued = http.sendAsync(HttpRequest.newBuilder(URI.create(base + "/api/line/victoria/status")).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+                while (executor.queueDepth() < 1 && System.nanoTime() < deadline) Thread.sleep(2);
+
+                long start = System.nanoTime();
+                var rejected = http.send(HttpRequest.newBuilder(URI.create(base + "/api/line/central/status")).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                assertEquals(503, rejected.statusCode());
+                assertEquals("7", rejected.headers().firstValue("Retry-After").orElse(null));
+                assertTrue(rejected.body().contains("queue"), rejected.body());
+                assertTrue(System.nanoTime() - start < Duration.ofMillis(400).toNanos(), "answered on arrival, not after the queue drained");
+
+                var health = http.send(HttpRequest.newBuilder(URI.create(base + "/healthz")).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                assertEquals(200, health.statusCode(), "health checks are never shed");
+
+                var late = queued.get(5, TimeUnit.SECONDS);
+                assertEquals(503, late.statusCode(), "queued behind a 600 ms call, past the 100 ms deadline");
+                assertTrue(late.body().contains("deadline"), late.body());
+                assertEquals(200, running.get(5, TimeUnit.SECONDS).statusCode());
+                assertEquals(1, server.getRequestCount(), "shed requests never reach upstream");
+            } finally {
+                engine.stop();
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void assertRejected(String request, int status) throws IOException {
+        try (Socket s = connect()) {
+            s.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            Response r = Response.read(s.getInputStream(), false);
+            assertEquals(status, r.status, request.length() > 60 ? request.substring(0, 60) : request);
+            assertEquals(-1, s.getInputStream().read(), "closed after the error");
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket s = new Socket("127.0.0.1", port);
+        s.setSoTimeout(5000);
+        return s;
+    }
+
+    private static String get(String path) {
+        return "GET " + path + " HTTP/1.1\r\nHost: x\r\n\r\n";
+    }
+
+    private static void awaitUpstreamRequests(MockWebServer server, int n) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+        while (server.getRequestCount() < n && System.nanoTime() < deadline) Thread.sleep(2);
+    }
+
+    /** One HTTP/1.x response read off the wire; {@code headOnly} for HEAD, 304 and streams. */
+    private record Response(String statusLine, int status, Map<String, String> headers, byte[] body) {
+
+        String text() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        static Response read(InputStream in, boolean headOnly) throws IOException {
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            int matched = 0;
+            while (matched < 4) {
+                int b = in.read();
+                if (b < 0) throw new IOException("connection closed inside the response head");
+                head.write(b);
+                matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+            }
+            String[] lines = head.toString(StandardCharsets.ISO_8859_1).split("\r\n");
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+            }
+            byte[] body = new byte[0];
+            String length = headers.get("content-length");
+            if (!headOnly && length != null) {
+                body = in.readNBytes(Integer.parseInt(length));
+            }
+            return new Response(lines[0], Integer.parseInt(lines[0].split(" ")[1]), headers, body);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.tube;
+
+import com.example.tube.dto.LineStatusResponse;
+import com.example.tube.service.LineMapper;
+import com.example.tube.tfl.Line;
+import com.example.tube.tfl.LineStreamParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TflParsingTests {
+
+    private static byte[] payload() throws IOException {
+        try (InputStream in = TflParsingTests.class.getResourceAsStream("/tfl/tube-status.json")) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void streaming_parser_maps_same_as_databind() throws Exception {
+        byte[] body = payload();
+        Line[] full = new ObjectMapper().readValue(body, Line[].class);
+        Line[] streamed = new LineStreamParser().parse(new ByteArrayInputStream(body));
+
+        assertEquals(full.length, streamed.length);
+        LineMapper mapper = new LineMapper();
+        for (int i = 0; i < full.length; i++) {
+            LineStatusResponse expected = mapper.toResponse(full[i], "src", false);
+            LineStatusResponse actual = mapper.toResponse(streamed[i], "src", false);
+            assertEquals(expected, actual, "line " + full[i].id);
+        }
+    }
+
+    @Test
+    void streaming_parser_skips_unknown_and_nested_fields() throws Exception {
+        String json = """
+                [{"id":"central","extra":{"a":[1,{"b":2}]},"lineStatuses":[
+                    {"statusSeverityDescription":"Minor Delays","reason":"Signal failure","validityPeriods":[{"isNow":true}]},
+                    {"statusSeverityDescription":"ignored"}],
+                  "name":"Central","disruptions":[{"description":"","additionalInfo":"Lift closed","affectedStops":[{}]}]}]
+                """;
+        Line[] lines = new LineStreamParser().parse(json.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(1, lines.length);
+        assertEquals("central", lines[0].id);
+        assertEquals("Central", lines[0].name);
+        assertEquals(1, lines[0].lineStatuses.size());
+        assertEquals("Signal failure", lines[0].lineStatuses.getFirst().reason);
+        assertEquals("Lift closed", lines[0].disruptions.getFirst().additionalInfo);
+    }
+
+    @Test
+    void streaming_parser_rejects_non_array() {
+        assertThrows(IOException.class,
+                () -> new LineStreamParser().parse("{\"message\":\"error\"}".getBytes(StandardCharsets.UTF_8)));
+    }
+}
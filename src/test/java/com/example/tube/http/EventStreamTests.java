@@ -0,0 +1,115 @@
+package com.example.tube.http;
+
+import com.example.tube.Fixtures.FakeExchange;
+import com.example.tube.dto.LineStatusResponse;
+import com.example.tube.otel.Metrics;
+import com.example.tube.service.LineSnapshot;
+import com.example.tube.service.LineStatusChanges;
+import com.example.tube.tfl.Line;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.example.tube.Fixtures.snapshot;
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventStreamTests {
+
+    @Test
+    void pushes_changes_once_and_drops_clients_that_fall_behind() throws Exception {
+        var changes = new LineStatusChanges("http://tfl", 1000, 0);
+        var events = new StatusEventStream(changes, Executors.newVirtualThreadPerTaskExecutor(), 10, 2, Metrics.noop());
+        changes.onSnapshot(snapshot("Good Service"));
+
+        var fast = new FakeExchange("GET", "/api/stream/status");
+        var stuck = new CountDownLatch(1);
+        var slow = new FakeExchange("GET", "/api/stream/status").stuckOn(stuck);
+        assertTrue(events.subscribe(fast));
+        assertTrue(events.subscribe(slow));
+
+        awaitFrames(fast, 1);
+        changes.onSnapshot(snapshot("Good Service")); // unchanged: no event
+        for (int i = 0; i < 4; i++) {
+            changes.onSnapshot(snapshot(i % 2 == 0 ? "Minor Delays" : "Good Service"));
+            awaitFrames(fast, i + 2); // changes are seconds apart in practice; a client that keeps up is never dropped
+        }
+
+        assertEquals(5, fast.frames.size(), "current state, then one event per change");
+        assertTrue(fast.frames.get(0).startsWith("id: 1\nevent: snapshot\n"));
+        assertTrue(fast.frames.get(1).startsWith("id: 2\nevent: status\ndata: [{\"lineId\":\"central\""));
+        assertTrue(fast.frames.get(4).startsWith("id: 5\nevent: status\n"));
+        assertTrue(slow.closed, "a client more than 2 events behind is disconnected");
+        assertFalse(fast.closed);
+        stuck.countDown();
+    }
+
+    @Test
+    void snapshot_is_never_followed_by_a_change_it_already_includes() throws Exception {
+        var changes = new LineStatusChanges("http://tfl", 1000, 0);
+        var late = new FakeExchange("GET", "/api/stream/status");
+        var stream = new AtomicReference<StatusEventStream>();
+        AtomicBoolean subscribeDuringPublish = new AtomicBoolean();
+        // registered before the stream's own listener: runs after version 2 is current but before it is broadcast
+        changes.addListener(c -> {
+            if (subscribeDuringPublish.getAndSet(false)) {
+                try { stream.get().subscribe(late); } catch (IOException e) { throw new AssertionError(e); }
+            }
+        });
+        var events = new StatusEventStream(changes, Executors.newVirtualThreadPerTaskExecutor(), 10, 4, Metrics.noop());
+        stream.set(events);
+        changes.onSnapshot(snapshot("Good Service"));
+
+        var early = new FakeExchange("GET", "/api/stream/status");
+        assertTrue(events.subscribe(early));
+        subscribeDuringPublish.set(true);
+        changes.onSnapshot(snapshot("Minor Delays"));
+        changes.onSnapshot(snapshot("Good Service"));
+        awaitFrames(early, 3);
+        awaitFrames(late, 2);
+
+        assertTrue(early.frames.get(1).startsWith("id: 2\nevent: status\n"));
+        assertEquals(2, late.frames.size(), late.frames.toString());
+        assertTrue(late.frames.get(0).startsWith("id: 2\nevent: snapshot\n"));
+        assertTrue(late.frames.get(1).startsWith("id: 3\nevent: status\n"), "version 2 is in the snapshot, not sent again");
+    }
+
+    @Test
+    void a_line_missing_from_a_snapshot_is_published_as_removed() throws Exception {
+        var changes = new LineStatusChanges("http://tfl", 1000, 0);
+        var events = new StatusEventStream(changes, Executors.newVirtualThreadPerTaskExecutor(), 10, 4, Metrics.noop());
+        var central = snapshot("Good Service").lines().getFirst();
+        var victoria = new Line();
+        victoria.id = "victoria";
+        victoria.name = "Victoria";
+        victoria.lineStatuses = central.lineStatuses;
+        changes.onSnapshot(new LineSnapshot(new Line[]{central, victoria}, System.nanoTime()));
+        var client = new FakeExchange("GET", "/api/stream/status");
+        assertTrue(events.subscribe(client));
+
+        changes.onSnapshot(new LineSnapshot(new Line[]{central}, System.nanoTime()));
+        awaitFrames(client, 2);
+        assertEquals(2, changes.current().version());
+        assertEquals(List.of("central"), changes.current().lines().stream().map(LineStatusResponse::lineId).toList());
+        assertEquals("id: 2\nevent: removed\ndata: [\"victoria\"]\n\n", client.frames.get(1));
+
+        var delta = changes.since(1).changes();
+        assertEquals(1, delta.size());
+        assertEquals("victoria", delta.getFirst().lineId());
+        assertTrue(delta.getFirst().removed());
+        assertNull(delta.getFirst().status());
+
+        changes.onSnapshot(new LineSnapshot(new Line[]{central, victoria}, System.nanoTime()));
+        assertFalse(changes.since(2).changes().getFirst().removed(), "a line that comes back is a normal change");
+    }
+
+    private static void awaitFrames(FakeExchange ex, int n) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+        while (ex.frames.size() < n && System.nanoTime() < deadline) Thread.sleep(2);
+    }
+}
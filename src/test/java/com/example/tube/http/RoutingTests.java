@@ -0,0 +1,178 @@
+package com.example.tube.http;
+
+import com.example.tube.Fixtures.FakeExchange;
+import com.example.tube.errors.BadRequestException;
+import com.example.tube.otel.Metrics;
+import com.example.tube.otel.Stage;
+import com.example.tube.ratelimit.IpRateLimiter;
+import com.example.tube.service.LineStatusChanges;
+import com.example.tube.slo.SloMonitor;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static com.example.tube.Fixtures.snapshot;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoutingTests {
+
+    @Test
+    void query_get_matches_query_parse() {
+        List<String> queries = Arrays.asList(
+                null, "", "from=2024-01-01", "from=2024-01-01&to=2024-01-02",
+                "from=1&from=2", "from", "from=", "from&from=3", "from=3&from",
+                "fr%6Fm=2024-01-01", "from=2024%2D01%2D01", "from=a+b", "a+b=1&from=x", "from=a=b",
+                "&&from=1&&", "to=1&xfrom=2&fromx=3", "from=%E2%9C%93", "=x&from=y");
+        for (String q : queries) {
+            Map<String, String> parsed = Query.parse(q);
+            for (String name : List.of("from", "to", "a b", "xfrom", "missing")) {
+                assertEquals(parsed.get(name), Query.get(q, name), "get(" + q + ", " + name + ")");
+            }
+        }
+    }
+
+    @Test
+    void route_table_matches_whole_paths_and_captures_variables() throws Exception {
+        Map<String, String> hits = new HashMap<>();
+        var table = new RouteTable()
+                .add("/healthz", (ex, vars) -> hits.put("health", ""))
+                .add("/api/line/{lineId}/status", (ex, vars) -> hits.put("line", vars[0]))
+                .add("/a/{x}/b/{y}", (ex, vars) -> hits.put("two", vars[0] + "," + vars[1]));
+
+        assertTrue(table.dispatch(new FakeExchange("GET", "/api/line/central/status")));
+        assertEquals("central", hits.get("line"));
+        assertTrue(table.dispatch(new FakeExchange("GET", "/API/Line/victoria/STATUS")), "literals ignore case");
+        assertEquals("victoria", hits.get("line"));
+        assertTrue(table.dispatch(new FakeExchange("GET", "/a/1/b/2")));
+        assertEquals("1,2", hits.get("two"));
+        assertTrue(table.dispatch(new FakeExchange("GET", "/healthz")));
+
+        for (String path : List.of("/api/line/central/status/extra", "/api/line//status", "/api/line/central",
+                "/healthz/", "/healthz/x", "/healthzz", "/", "", "/a/1/b")) {
+            assertFalse(table.dispatch(new FakeExchange("GET", path)), path);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new RouteTable().add("api", (ex, vars) -> {}));
+        assertThrows(IllegalArgumentException.class, () -> new RouteTable().add("/a//b", (ex, vars) -> {}));
+    }
+
+    @Test
+    void router_answers_404_405_and_400_before_calling_upstream() throws Exception {
+        // no service: every request here must be answered by routing or parsing alone
+        var router = new Router(null, new IpRateLimiter(100, Duration.ofMinutes(1)), Metrics.noop());
+
+        assertEquals(404, send(router, "GET", "/api/line/central/status/extra", null).status);
+        assertTrue(send(router, "GET", "/api/line/central", null).body().contains("/api/line/{lineId}/status"));
+        assertEquals(404, send(router, "GET", "/healthz/x", null).status);
+        assertEquals(404, send(router, "GET", "/nope", null).status);
+        assertEquals(405, send(router, "POST", "/api/line/central/status", null).status);
+        assertEquals(405, send(router, "DELETE", "/api/disruptions/unplanned", null).status);
+        assertEquals(400, send(router, "GET", "/api/line/Central!/status", null).status);
+        assertEquals(400, send(router, "GET", "/api/line/central/status", "from=2024-02-30").status);
+        assertEquals(400, send(router, "GET", "/api/changes", "since=abc").status);
+        assertEquals(200, send(router, "GET", "/healthz", null).status);
+    }
+
+    @Test
+    void change_feed_deltas_for_different_versions_do_not_evict_each_other() throws Exception {
+        var changes = new LineStatusChanges("http://tfl", 10, 0);
+        for (String status : List.of("Good Service", "Minor Delays", "Severe Delays")) changes.onSnapshot(snapshot(status));
+        var router = new Router(null, new IpRateLimiter(100, Duration.ofMinutes(1)), Metrics.noop(),
+                AdmissionControl.disabled(), SloMonitor.defaults(), changes, null);
+
+        var fromOne = send(router, "GET", "/api/changes", "since=1");
+        var fromTwo = send(router, "GET", "/api/changes", "since=2");
+        var fromOneAgain = send(router, "GET", "/api/changes", "since=1");
+
+        assertTrue(fromOne.body().contains("Minor Delays") && fromOne.body().contains("Severe Delays"), fromOne.body());
+        assertFalse(fromTwo.body().contains("Minor Delays"), fromTwo.body());
+        assertEquals(fromOne.body(), fromOneAgain.body());
+        assertSame(fromOne.sent.array(), fromOneAgain.sent.array(), "served from the cached body, not re-serialized");
+    }
+
+    @Test
+    void records_each_request_once_with_the_stages_it_ran() throws Exception {
+        var reader = InMemoryMetricReader.create();
+        try (var provider = SdkMeterProvider.builder().registerMetricReader(reader).build()) {
+            // three permits: the fourth request is rate limited
+            var router = new Router(null, new IpRateLimiter(3, Duration.ofMinutes(1)), new Metrics(provider.get("test")));
+            String line = "/api/line/{lineId}/status";
+
+            assertEquals(200, send(router, "GET", "/healthz", null).status);
+            assertEquals(405, send(router, "POST", "/api/line/central/status", null).status);
+            assertEquals(400, send(router, "GET", "/api/line/Central!/status", null).status);
+            assertEquals(429, send(router, "GET", "/api/line/central/status", null).status);
+
+            var metrics = reader.collectAllMetrics();
+            assertEquals(1, requests(metrics, "/healthz", "GET", 200));
+            assertEquals(1, requests(metrics, line, "POST", 405));
+            assertEquals(1, requests(metrics, line, "GET", 400));
+            assertEquals(1, requests(metrics, line, "GET", 429));
+            assertEquals(1, sum(metrics, "rate_limited_total"), "only the 429 counts as rate limited");
+
+            assertEquals(1, stageCount(metrics, "/healthz", Stage.RATE_LIMIT));
+            assertEquals(1, stageCount(metrics, "/healthz", Stage.WRITE));
+            assertEquals(0, stageCount(metrics, "/healthz", Stage.PARSE));
+            assertEquals(3, stageCount(metrics, line, Stage.ADMISSION));
+            assertEquals(3, stageCount(metrics, line, Stage.RATE_LIMIT));
+            assertEquals(2, stageCount(metrics, line, Stage.PARSE), "the 429 stops the chain before parsing");
+            assertEquals(3, stageCount(metrics, line, Stage.WRITE));
+            for (Stage s : List.of(Stage.CACHE, Stage.UPSTREAM, Stage.MAP, Stage.SERIALIZE)) {
+                assertEquals(0, stageCount(metrics, line, s), "no handler ran: " + s);
+            }
+        }
+    }
+
+    private static long requests(Collection<MetricData> metrics, String route, String method, int status) {
+        return metric(metrics, "http_server_requests_total").getLongSumData().getPoints().stream()
+                .filter(p -> route.equals(p.getAttributes().get(AttributeKey.stringKey("route")))
+                        && method.equals(p.getAttributes().get(AttributeKey.stringKey("method")))
+                        && Integer.toString(status).equals(p.getAttributes().get(AttributeKey.stringKey("status"))))
+                .mapToLong(LongPointData::getValue)
+                .sum();
+    }
+
+    private static long sum(Collection<MetricData> metrics, String name) {
+        return metric(metrics, name).getLongSumData().getPoints().stream().mapToLong(LongPointData::getValue).sum();
+    }
+
+    private static long stageCount(Collection<MetricData> metrics, String route, Stage stage) {
+        return metric(metrics, "http_server_stage_duration_ms").getHistogramData().getPoints().stream()
+                .filter(p -> p.getAttributes().equals(Metrics.stageAttrs(route, stage)))
+                .mapToLong(HistogramPointData::getCount)
+                .sum();
+    }
+
+    private static MetricData metric(Collection<MetricData> metrics, String name) {
+        return metrics.stream().filter(m -> m.getName().equals(name)).findFirst()
+                .orElseThrow(() -> new AssertionError("no metric " + name));
+    }
+
+    @Test
+    void parses_strict_iso_dates() {
+        assertNull(Router.parseDate(null));
+        assertNull(Router.parseDate(" "));
+        assertEquals(LocalDate.of(2024, 2, 29), Router.parseDate("2024-02-29"));
+        assertEquals(LocalDate.of(1, 1, 1), Router.parseDate("0001-01-01"));
+        for (String bad : List.of("2023-02-29", "2024-13-01", "2024-00-10", "2024-1-01", "2024/01/01",
+                "24-01-01", "2024-01-01T00:00", "+2024-01-01", "２０２４-01-01", "2024-0a-01")) {
+            assertThrows(BadRequestException.class, () -> Router.parseDate(bad), bad);
+        }
+    }
+
+    private static FakeExchange send(Router router, String method, String path, String query) throws Exception {
+        var ex = new FakeExchange(method, path, query);
+        router.handle(ex);
+        return ex;
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.tube.load;
+
+import com.example.tube.App;
+import com.example.tube.config.AppConfig;
+import com.example.tube.otel.LatencyHistogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load test of the full service ({@link App#start}) against a {@link TflStandIn}, with a
+ * pass/fail verdict against SLO_DEFINITION.md.
+ * <p>
+ * Requests are issued on a fixed schedule ({@code rps}) whether or not earlier ones have completed,
+ * and latency is measured from each request's <em>intended</em> send time, so a stall in the service
+ * (or in this generator) shows up in the percentiles instead of silently lowering the request rate
+ * (coordinated omission). Latency from the actual send time is reported alongside for comparison.
+ * <p>
+ * {@code mvn -Pload test-compile exec:exec -Dload.args="rps=300 duration=60 latency=lognormal:20:250 errorRate=0.02 outage=20:10:hang"}
+ * <br>Options ({@code key=value}): rps, duration and warmup (seconds), timeoutMs, clients (distinct
+ * X-Forwarded-For addresses), unplannedPercent, latency, errorRate, outage (see {@link TflStandIn}),
+ * slo (path), and {@code app.<key>=value} to override any application property.
+ */
+public final class LoadHarness {
+
+    record Options(double rps, Duration duration, Duration warmup, Duration timeout, int clients,
+                   int unplannedPercent, String latency, double errorRate, String outages, Path slo,
+                   Map<String, String> app) {
+
+        static Options parse(String... args) {
+            Map<String, String> kv = new HashMap<>();
+            Map<String, String> app = new HashMap<>();
+            for (String a : args) {
+                int eq = a.indexOf('=');
+                if (eq <= 0) throw new IllegalArgumentException("expected key=value: " + a);
+                String k = a.substring(0, eq), v = a.substring(eq + 1);
+                if (k.startsWith("app.")) app.put(k.substring(4), v);
+                else kv.put(k, v);
+            }
+            return new Options(
+                    Double.parseDouble(kv.getOrDefault("rps", "200")),
+                    Duration.ofMillis((long) (Double.parseDouble(kv.getOrDefault("duration", "30")) * 1000)),
+                    Duration.ofMillis((long) (Double.parseDouble(kv.getOrDefault("warmup", "5")) * 1000)),
+                    Duration.ofMillis(Long.parseLong(kv.getOrDefault("timeoutMs", "2000"))),
+                    Integer.parseInt(kv.getOrDefault("clients", "1000")),
+                    Integer.parseInt(kv.getOrDefault("unplannedPercent", "20")),
+                    kv.getOrDefault("latency", "lognormal:20:150"),
+                    Double.parseDouble(kv.getOrDefault("errorRate", "0")),
+                    kv.getOrDefault("outage", ""),
+                    Path.of(kv.getOrDefault("slo", "SLO_DEFINITION.md")),
+                    app);
+        }
+    }
+
+    /**
+     * Counts and latencies of the measured (post-warmup) requests. Requests with no response by the
+     * end of the run are recorded at their age then, a lower bound, so a hang cannot drop the slowest
+     * requests out of the percentiles.
+     */
+    static final class Result {
+        /** From intended send time: the numbers judged against the SLO. */
+        final LatencyHistogram ok = new LatencyHistogram();
+        /** From actual send time (what a closed-loop tool would report). */
+        final LatencyHistogram okUncorrected = new LatencyHistogram();
+        final LatencyHistogram all = new LatencyHistogram();
+        final LongAdder s2xx = new LongAdder();
+        final LongAdder s4xx = new LongAdder();
+        final LongAdder s429 = new LongAdder();
+        final LongAdder s5xx = new LongAdder();
+        /** Timeouts and connection failures: counted as unavailable. */
+        final LongAdder transport = new LongAdder();
+        long sent;
+        long unfinished;
+        double achievedRps;
+        long upstreamRequests;
+        long upstreamFaults;
+
+        void record(int status, long fromIntended, long fromSent) {
+            all.recordNanos(fromIntended);
+            if (status < 0) transport.increment();
+            else if (status == 429) s429.increment();
+            else if (status >= 500) s5xx.increment();
+            else if (status >= 400) s4xx.increment();
+            else if (status >= 200 && status < 300) {
+                s2xx.increment();
+                ok.recordNanos(fromIntended);
+                okUncorrected.recordNanos(fromSent);
+            }
+        }
+
+        /** A request still outstanding at the end of the run, {@code fromIntended} after it was due. */
+        void recordUnfinished(long fromIntended) {
+            unfinished++;
+            all.recordNanos(fromIntended);
+            ok.recordNanos(fromIntended);
+        }
+
+        /** 1 - (5xx + transport failures + unfinished) / (all - 4xx - 429), as in SLO_DEFINITION.md. */
+        double availabilityPercent() {
+            long bad = s5xx.sum() + transport.sum() + unfinished;
+            long counted = s2xx.sum() + s5xx.sum() + transport.sum() + unfinished;
+            return counted == 0 ? 0 : 100.0 * (counted - bad) / counted;
+        }
+    }
+
+    /** Outcome of one SLO check. */
+    record Check(String name, String actual, String objective, boolean pass) {}
+
+    private LoadHarness() {}
+
+    static Result run(Options o) throws Exception {
+        try (var tfl = new TflStandIn(TflStandIn.Latency.parse(o.latency()), o.errorRate(), TflStandIn.Outage.parseAll(o.outages()))) {
+            Map<String, String> props = new HashMap<>();
+            props.put("server.port", "0");
+            props.put("otel.prometheusPort", "0");
+            props.put("log.level", "WARN");
+            props.put("tfl.baseUrl", tfl.baseUrl().toString());
+            props.putAll(o.app());
+
+            try (App.Running app = App.start(new AppConfig("config/application.properties", props))) {
+                Result r = drive(o, URI.create("http://127.0.0.1:" + app.port()), tfl.lineIds(), tfl);
+                r.upstreamRequests = tfl.requests();
+                r.upstreamFaults = tfl.faults();
+                return r;
+            }
+        }
+    }
+
+    private static Result drive(Options o, URI base, List<String> lineIds, TflStandIn tfl) throws InterruptedException {
+        try (HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(o.timeout())
+                .build()) {
+            return drive(o, base, lineIds, tfl, client);
+        }
+    }
+
+    private static Result drive(Options o, URI base, List<String> lineIds, TflStandIn tfl, HttpClient client) throws InterruptedException {
+        SplittableRandom rnd = new SplittableRandom(42);
+        Result r = new Result();
+        AtomicLong outstanding = new AtomicLong();
+        // measured requests not yet recorded, by index: whoever removes one (response or deadline) records it
+        Map<Long, Long> pending = new ConcurrentHashMap<>();
+
+        long warmupNanos = o.warmup().toNanos();
+        long total = (long) (o.rps() * (o.warmup().toMillis() + o.duration().toMillis()) / 1000.0);
+        long start = System.nanoTime();
+        tfl.begin();
+
+        for (long i = 0; i < total; i++) {
+            long intended = start + (long) (i * 1e9 / o.rps());
+            for (long now = System.nanoTime(); now < intended; now = System.nanoTime()) {
+                LockSupport.parkNanos(intended - now);
+            }
+            boolean measured = intended - start >= warmupNanos;
+
+            String path = rnd.nextInt(100) < o.unplannedPercent()
+                    ? "/api/disruptions/unplanned"
+                    : "/api/line/" + lineIds.get(rnd.nextInt(lineIds.size())) + "/status";
+            int c = rnd.nextInt(o.clients());
+            HttpRequest req = HttpRequest.newBuilder(base.resolve(path))
+                    .timeout(o.timeout())
+                    .header("X-Forwarded-For", "198.18." + (c >> 8 & 0xff) + "." + (c & 0xff))
+                    .GET()
+                    .build();
+
+            long sentAt = System.nanoTime();
+            long index = i;
+            outstanding.incrementAndGet();
+            if (measured) {
+                r.sent++;
+                pending.put(index, intended);
+            }
+            client.sendAsync(req, HttpResponse.BodyHandlers.discarding()).whenComplete((resp, err) -> {
+                long done = System.nanoTime();
+                if (measured && pending.remove(index) != null) {
+                    r.record(err != null ? -1 : resp.statusCode(), done - intended, done - sentAt);
+                }
+                outstanding.decrementAndGet();
+            });
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long deadline = System.nanoTime() + o.timeout().toNanos() + TimeUnit.SECONDS.toNanos(1);
+        while (outstanding.get() > 0 && System.nanoTime() < deadline) Thread.sleep(10);
+        long end = System.nanoTime();
+        for (var e : pending.entrySet()) {
+            if (pending.remove(e.getKey()) != null) r.recordUnfinished(end - e.getValue());
+        }
+        r.achievedRps = total / (elapsed / 1e9);
+        return r;
+    }
+
+    static List<Check> evaluate(Result r, SloThresholds slo) {
+        boolean haveLatency = r.ok.count() > 0;
+        long p95 = r.ok.percentileNanos(95), p99 = r.ok.percentileNanos(99);
+        return List.of(
+                new Check("availability", "%.3f%%".formatted(r.availabilityPercent()), ">= " + slo.availabilityPercent() + "%",
+                        r.availabilityPercent() >= slo.availabilityPercent()),
+                new Check("p95 (2xx)", ms(p95), "< " + slo.p95Millis() + " ms",
+                        haveLatency && p95 < TimeUnit.MILLISECONDS.toNanos(slo.p95Millis())),
+                new Check("p99 (2xx)", ms(p99), "< " + slo.p99Millis() + " ms",
+                        haveLatency && p99 < TimeUnit.MILLISECONDS.toNanos(slo.p99Millis())));
+    }
+
+    static boolean passed(List<Check> checks) {
+        return checks.stream().allMatch(Check::pass);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options o = Options.parse(args);
+        SloThresholds slo = SloThresholds.read(o.slo());
+        Result r = run(o);
+        List<Check> checks = evaluate(r, slo);
+
+        System.out.printf("%nLoad: %.0f rps target, %.1f rps achieved, %d measured requests over %ds (+%ds warmup)%n",
+                o.rps(), r.achievedRps, r.sent, o.duration().toSeconds(), o.warmup().toSeconds());
+        System.out.printf("Status: 2xx=%d 4xx=%d 429=%d 5xx=%d timeout/io=%d unfinished=%d%n",
+                r.s2xx.sum(), r.s4xx.sum(), r.s429.sum(), r.s5xx.sum(), r.transport.sum(), r.unfinished);
+        System.out.printf("Upstream stand-in: %d requests, %d faults injected%n", r.upstreamRequests, r.upstreamFaults);
+        System.out.println("Latency               p50        p95        p99        max");
+        row("2xx", r.ok);
+        row("2xx, uncorrected", r.okUncorrected);
+        row("all responses", r.all);
+        System.out.println("SLO (" + o.slo() + ")");
+        for (Check c : checks) {
+            System.out.printf("  %-14s %-12s %-12s %s%n", c.name(), c.actual(), c.objective(), c.pass() ? "PASS" : "FAIL");
+        }
+        boolean pass = passed(checks);
+        System.out.println(pass ? "VERDICT: PASS" : "VERDICT: FAIL");
+        System.exit(pass ? 0 : 1);
+    }
+
+    private static void row(String name, LatencyHistogram h) {
+        System.out.printf("  %-18s %-10s %-10s %-10s %s%n", name,
+                ms(h.percentileNanos(50)), ms(h.percentileNanos(95)), ms(h.percentileNanos(99)), ms(h.maxNanos()));
+    }
+
+    private static String ms(long nanos) {
+        return "%.1f ms".formatted(nanos / 1e6);
+    }
+}
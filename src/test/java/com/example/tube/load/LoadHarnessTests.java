@@ -0,0 +1,67 @@
+package com.example.tube.load;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadHarnessTests {
+
+    private static final SloThresholds SLO = new SloThresholds(99.9, 200, 500);
+
+    @Test
+    void reads_thresholds_from_slo_definition() throws Exception {
+        assertEquals(SLO, SloThresholds.read(Path.of("SLO_DEFINITION.md")));
+    }
+
+    @Test
+    void evaluates_availability_and_latency_against_the_slo() {
+        var r = new LoadHarness.Result();
+        for (int i = 0; i < 998; i++) r.record(200, TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(10));
+        r.record(404, 1, 1);
+        r.record(429, 1, 1);
+        r.record(503, 1, 1);
+        assertEquals(100.0 * 998 / 999, r.availabilityPercent(), 1e-9, "4xx and 429 are not counted");
+        var checks = LoadHarness.evaluate(r, SLO);
+        assertFalse(checks.getFirst().pass(), checks.toString());
+        assertTrue(checks.get(1).pass() && checks.get(2).pass(), checks.toString());
+
+        r.recordUnfinished(TimeUnit.SECONDS.toNanos(3));
+        assertEquals(100.0 * 998 / 1000, r.availabilityPercent(), 1e-9, "unfinished requests count as unavailable");
+
+        var hung = new LoadHarness.Result();
+        for (int i = 0; i < 90; i++) hung.record(200, TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(10));
+        for (int i = 0; i < 10; i++) hung.recordUnfinished(TimeUnit.SECONDS.toNanos(3));
+        assertFalse(LoadHarness.evaluate(hung, SLO).get(1).pass(), "unfinished requests count toward p95");
+        assertFalse(LoadHarness.passed(LoadHarness.evaluate(new LoadHarness.Result(), SLO)), "no 2xx, no latency verdict");
+    }
+
+    /** Short fixed-rate run: checks that every request is sent and accounted for, not how fast. */
+    @Test
+    void smoke_run_accounts_for_every_request() throws Exception {
+        var r = LoadHarness.run(LoadHarness.Options.parse(
+                "rps=40", "duration=0.5", "warmup=0", "latency=fixed:1", "unplannedPercent=0"));
+        assertEquals(20, r.sent);
+        assertEquals(0, r.unfinished);
+        assertEquals(r.sent, r.s2xx.sum() + r.s4xx.sum() + r.s429.sum() + r.s5xx.sum() + r.transport.sum());
+        assertTrue(r.upstreamRequests > 0);
+    }
+
+    @Tag("load")
+    @Test
+    void healthy_upstream_passes_and_outage_without_cache_fails_availability() throws Exception {
+        var healthy = LoadHarness.run(LoadHarness.Options.parse(
+                "rps=100", "duration=2", "warmup=1", "latency=fixed:2"));
+        assertTrue(healthy.s2xx.sum() > 150, "2xx=" + healthy.s2xx.sum());
+        assertTrue(LoadHarness.passed(LoadHarness.evaluate(healthy, SLO)), LoadHarness.evaluate(healthy, SLO).toString());
+
+        var outage = LoadHarness.run(LoadHarness.Options.parse(
+                "rps=100", "duration=2", "warmup=0", "latency=fixed:2", "outage=0:10:error", "app.cache.enabled=false"));
+        var checks = LoadHarness.evaluate(outage, SLO);
+        assertFalse(checks.getFirst().pass(), checks.toString());
+        assertTrue(outage.s5xx.sum() > 0);
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.tube.load;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** The availability and 2xx latency objectives, read from the "SLOs" section of SLO_DEFINITION.md. */
+record SloThresholds(double availabilityPercent, long p95Millis, long p99Millis) {
+
+    private static final Pattern AVAILABILITY = Pattern.compile("Availability\\s+([0-9.]+)%");
+    private static final Pattern P95 = Pattern.compile("p95\\s*<\\s*([0-9]+)\\s*ms");
+    private static final Pattern P99 = Pattern.compile("p99\\s*<\\s*([0-9]+)\\s*ms");
+
+    static SloThresholds read(Path sloDefinition) throws IOException {
+        String md = Files.readString(sloDefinition);
+        return new SloThresholds(
+                Double.parseDouble(find(AVAILABILITY, md, sloDefinition)),
+                Long.parseLong(find(P95, md, sloDefinition)),
+                Long.parseLong(find(P99, md, sloDefinition)));
+    }
+
+    private static String find(Pattern p, String md, Path file) {
+        Matcher m = p.matcher(md);
+        if (!m.find()) throw new IllegalStateException("no match for " + p + " in " + file);
+        return m.group(1);
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.tube.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for the TfL API: serves the recorded tube status payload ({@code /tfl/tube-status.json})
+ * on {@code /Line/Mode/tube/Status} and {@code /Line/{id}/Status[...]}, with injected latency, random
+ * 500s and scheduled outages. Outage times are relative to {@link #begin()}.
+ */
+final class TflStandIn implements AutoCloseable {
+
+    /** Response delay distribution. */
+    interface Latency {
+        long sampleNanos(SplittableRandom rnd);
+
+        /**
+         * {@code fixed:MS}, {@code uniform:MIN_MS:MAX_MS} or {@code lognormal:MEDIAN_MS:P99_MS}
+         * (heavy right tail, the usual shape of a remote API).
+         */
+        static Latency parse(String spec) {
+            String[] p = spec.split(":");
+            return switch (p[0]) {
+                case "fixed" -> {
+                    long ns = millis(p[1]);
+                    yield rnd -> ns;
+                }
+                case "uniform" -> {
+                    long min = millis(p[1]), max = millis(p[2]);
+                    yield rnd -> min + (max > min ? rnd.nextLong(max - min) : 0);
+                }
+                case "lognormal" -> {
+                    double mu = Math.log(millis(p[1]));
+                    double sigma = (Math.log(millis(p[2])) - mu) / 2.326; // z(0.99)
+                    yield rnd -> (long) Math.exp(mu + sigma * gaussian(rnd));
+                }
+                default -> throw new IllegalArgumentException("latency must be fixed:MS, uniform:MIN:MAX or lognormal:MEDIAN:P99: " + spec);
+            };
+        }
+
+        private static long millis(String ms) {
+            return (long) (Double.parseDouble(ms) * 1_000_000);
+        }
+
+        private static double gaussian(SplittableRandom rnd) {
+            double u1 = 1.0 - rnd.nextDouble(), u2 = rnd.nextDouble();
+            return Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2);
+        }
+    }
+
+    /** Upstream down from {@code start} for {@code length}: answers 503 at once, or ({@code hang}) only after the outage ends. */
+    record Outage(Duration start, Duration length, boolean hang) {
+
+        /** {@code START_S:LENGTH_S:error|hang}, several separated by ';'. */
+        static List<Outage> parseAll(String spec) {
+            List<Outage> out = new ArrayList<>();
+            if (spec == null || spec.isBlank()) return out;
+            for (String one : spec.split(";")) {
+                String[] p = one.trim().split(":");
+                boolean hang = p.length > 2 && p[2].equals("hang");
+                if (p.length > 2 && !hang && !p[2].equals("error")) throw new IllegalArgumentException("outage kind must be error or hang: " + one);
+                out.add(new Outage(Duration.ofMillis((long) (Double.parseDouble(p[0]) * 1000)),
+                        Duration.ofMillis((long) (Double.parseDouble(p[1]) * 1000)), hang));
+            }
+            return out;
+        }
+
+        boolean covers(long sinceBeginNanos) {
+            return sinceBeginNanos >= start.toNanos() && sinceBeginNanos < start.plus(length).toNanos();
+        }
+    }
+
+    private static final String ALL_LINES = "/Line/Mode/tube/Status";
+    private static final byte[] EMPTY = "[]".getBytes(StandardCharsets.UTF_8);
+
+    private final Latency latency;
+    private final double errorRate;
+    private final List<Outage> outages;
+
+    private final byte[] allLines;
+    private final Map<String, byte[]> byLine = new HashMap<>();
+    private final List<String> lineIds = new ArrayList<>();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicLong begin = new AtomicLong(System.nanoTime());
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder faults = new LongAdder();
+
+    TflStandIn(Latency latency, double errorRate, List<Outage> outages) throws IOException {
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.outages = List.copyOf(outages);
+
+        ObjectMapper om = new ObjectMapper();
+        try (InputStream in = TflStandIn.class.getResourceAsStream("/tfl/tube-status.json")) {
+            allLines = in.readAllBytes();
+        }
+        for (JsonNode line : om.readTree(allLines)) {
+            String id = line.path("id").asText();
+            lineIds.add(id);
+            byLine.put(id, om.writeValueAsBytes(om.createArrayNode().add(line)));
+        }
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    URI baseUrl() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    List<String> lineIds() {
+        return List.copyOf(lineIds);
+    }
+
+    /** Starts the outage clock. */
+    void begin() {
+        begin.set(System.nanoTime());
+    }
+
+    long requests() {
+        return requests.sum();
+    }
+
+    /** Injected 500s and outage responses. */
+    long faults() {
+        return faults.sum();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        requests.increment();
+        try (ex) {
+            long since = System.nanoTime() - begin.get();
+            for (Outage o : outages) {
+                if (!o.covers(since)) continue;
+                faults.increment();
+                if (o.hang()) sleepNanos(o.start().plus(o.length()).toNanos() - since);
+                send(ex, 503, "{\"message\":\"outage\"}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            SplittableRandom rnd = new SplittableRandom(ThreadLocalRandom.current().nextLong());
+            sleepNanos(latency.sampleNanos(rnd));
+            if (errorRate > 0 && rnd.nextDouble() < errorRate) {
+                faults.increment();
+                send(ex, 500, "{\"message\":\"injected\"}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            send(ex, 200, body(ex.getRequestURI().getPath()));
+        }
+    }
+
+    private byte[] body(String path) {
+        if (path.equals(ALL_LINES)) return allLines;
+        if (path.startsWith("/Line/")) {
+            int end = path.indexOf('/', "/Line/".length());
+            String id = end < 0 ? path.substring("/Line/".length()) : path.substring("/Line/".length(), end);
+            return byLine.getOrDefault(id, EMPTY);
+        }
+        return EMPTY;
+    }
+
+    private static void send(HttpExchange ex, int status, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static void sleepNanos(long nanos) {
+        if (nanos <= 0) return;
+        try {
+            Thread.sleep(Duration.ofNanos(nanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.tube.log;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingBufferTests {
+
+    @Test
+    void polls_in_offer_order_and_is_empty_afterwards() {
+        var ring = new RingBuffer<Integer>(8);
+        assertNull(ring.poll());
+        for (int i = 0; i < 5; i++) assertTrue(ring.offer(i));
+        for (int i = 0; i < 5; i++) assertEquals(i, ring.poll());
+        assertNull(ring.poll());
+    }
+
+    @Test
+    void offer_fails_when_full_until_a_slot_is_drained() {
+        var ring = new RingBuffer<Integer>(4);
+        for (int i = 0; i < 4; i++) assertTrue(ring.offer(i));
+        assertFalse(ring.offer(4));
+        assertFalse(ring.offer(5), "still full");
+
+        assertEquals(0, ring.poll());
+        assertTrue(ring.offer(4));
+        assertFalse(ring.offer(5));
+        for (int i = 1; i <= 4; i++) assertEquals(i, ring.poll());
+        assertNull(ring.poll());
+    }
+
+    @Test
+    void slots_are_reused_across_many_laps() {
+        var ring = new RingBuffer<Integer>(4);
+        int next = 0, expected = 0;
+        for (int lap = 0; lap < 100; lap++) {
+            for (int i = 0; i < 3; i++) assertTrue(ring.offer(next++), "lap " + lap);
+            for (int i = 0; i < 3; i++) assertEquals(expected++, ring.poll(), "lap " + lap);
+        }
+        for (int i = 0; i < 4; i++) assertTrue(ring.offer(next++));
+        assertFalse(ring.offer(next));
+        for (int i = 0; i < 4; i++) assertEquals(expected++, ring.poll());
+        assertNull(ring.poll());
+    }
+
+    @Test
+    void concurrent_producers_lose_nothing_but_counted_drops() throws InterruptedException {
+        int producers = 4, perProducer = 200_000;
+        var ring = new RingBuffer<Long>(64);
+        var dropped = new AtomicLong();
+        var done = new AtomicBoolean();
+        var go = new CountDownLatch(1);
+        long[] lastSeen = new long[producers];
+        Arrays.fill(lastSeen, -1);
+        var outOfOrder = new AtomicBoolean();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long id = p;
+            threads.add(Thread.ofPlatform().start(() -> {
+                try { go.await(); } catch (InterruptedException e) { return; }
+                for (long i = 0; i < perProducer; i++) {
+                    if (!ring.offer(id << 32 | i)) dropped.incrementAndGet();
+                }
+            }));
+        }
+        long[] drained = new long[1];
+        Thread consumer = Thread.ofPlatform().start(() -> {
+            while (true) {
+                boolean finished = done.get();
+                Long e;
+                while ((e = ring.poll()) != null) {
+                    int producer = (int) (e >>> 32);
+                    long seq = e & 0xffffffffL;
+                    if (seq <= lastSeen[producer]) outOfOrder.set(true);
+                    lastSeen[producer] = seq;
+                    drained[0]++;
+                }
+                if (finished) return;
+                Thread.onSpinWait();
+            }
+        });
+
+        go.countDown();
+        for (Thread t : threads) t.join();
+        done.set(true);
+        consumer.join();
+
+        assertFalse(outOfOrder.get(), "each producer's elements are polled in offer order");
+        assertEquals((long) producers * perProducer, drained[0] + dropped.get());
+        assertTrue(drained[0] > 0);
+        assertNull(ring.poll());
+    }
+}
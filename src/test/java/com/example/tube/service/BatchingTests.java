@@ -0,0 +1,124 @@
+package com.example.tube.service;
+
+import com.example.tube.dto.LineError;
+import com.example.tube.dto.LineStatusResponse;
+import com.example.tube.otel.Metrics;
+import com.example.tube.resilience.CircuitBreaker;
+import com.example.tube.resilience.ConcurrencyLimiter;
+import com.example.tube.resilience.HedgePolicy;
+import com.example.tube.resilience.RetryPolicy;
+import com.example.tube.tfl.Line;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.example.tube.Fixtures.line;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchingTests {
+
+    @Test
+    void batch_status_uses_one_upstream_call_and_reports_per_line_errors() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    return switch (request.getPath()) {
+                        case "/Line/central,victoria/Status" -> new MockResponse().setBody("[" + line("central") + "," + line("victoria") + "]");
+                        case "/Line/central/Status" -> new MockResponse().setBody("[" + line("central") + "]");
+                        default -> new MockResponse().setResponseCode(404).setBody("unknown line");
+                    };
+                }
+            });
+            server.start();
+
+            var client = new TflClient(HttpClient.newHttpClient(), new CircuitBreaker(5, Duration.ofSeconds(30), 2),
+                    new RetryPolicy(1, 1), server.url("/").toString(), Metrics.noop());
+            var service = new TubeStatusService(client, server.url("/").toString());
+
+            var ok = service.getLinesStatusAsync(List.of("victoria", "central", "Bad!"), null, null).join();
+            assertEquals(1, server.getRequestCount(), "one round trip for all valid ids");
+            assertEquals(List.of("victoria", "central"), ok.lines().stream().map(LineStatusResponse::lineId).toList());
+            assertEquals(List.of(new LineError("Bad!", 400, "Bad Request", "lineId must be like 'central'")), ok.errors());
+
+            // TfL rejects the whole call for one unknown id; the batch falls back to per-line calls
+            var partial = service.getLinesStatusAsync(List.of("central", "nope"), null, null).join();
+            assertEquals(1, partial.count());
+            assertEquals("central", partial.lines().getFirst().lineId());
+            assertEquals("nope", partial.errors().getFirst().lineId());
+            assertEquals(404, partial.errors().getFirst().status());
+        }
+    }
+
+    @Test
+    void concurrent_line_fetches_are_micro_batched_into_one_call() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    return new MockResponse().setBody("[" + line("central") + "," + line("victoria") + "]");
+                }
+            });
+            server.start();
+            var scheduler = Executors.newSingleThreadScheduledExecutor();
+            try {
+                var client = new TflClient(HttpClient.newHttpClient(), new CircuitBreaker(5, Duration.ofSeconds(30), 2),
+                        new RetryPolicy(1, 1), server.url("/").toString(), Metrics.noop(), Duration.ofSeconds(2),
+                        HedgePolicy.disabled(), true, ConcurrencyLimiter.unlimited(),
+                        new BatchPolicy(Duration.ofMillis(50), 10, scheduler));
+
+                var central = client.getLineStatusAsync("central", null, null);
+                var victoria = client.getLineStatusAsync("victoria", null, null);
+                var centralAgain = client.getLineStatusAsync("central", null, null);
+                var unknown = client.getLineStatusAsync("dlr", null, null);
+
+                assertEquals("central", central.join()[0].id);
+                assertEquals("victoria", victoria.join()[0].id);
+                assertSame(central.join(), centralAgain.join());
+                assertEquals(0, unknown.join().length, "a line left out of the response is empty, as unbatched");
+                assertEquals(1, server.getRequestCount());
+                assertEquals("/Line/central,victoria,dlr/Status", server.takeRequest().getPath());
+            } finally {
+                scheduler.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    void batcher_fails_the_caller_instead_of_opening_a_batch_it_cannot_schedule() throws Exception {
+        var scheduler = Executors.newSingleThreadScheduledExecutor();
+        var calls = new AtomicInteger();
+        var batcher = new LineBatcher(new BatchPolicy(Duration.ofMillis(20), 10, scheduler),
+                ids -> {
+                    calls.incrementAndGet();
+                    return CompletableFuture.completedFuture(new Line[0]);
+                },
+                id -> {
+                    calls.incrementAndGet();
+                    return CompletableFuture.completedFuture(new Line[0]);
+                },
+                Metrics.noop());
+        scheduler.shutdownNow();
+
+        for (String id : new String[]{"central", "victoria"}) {
+            var f = batcher.get(id);
+            assertTrue(f.isDone(), "never left waiting on a batch that cannot be sent");
+            var e = assertThrows(CompletionException.class, f::join);
+            assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        }
+        assertEquals(0, calls.get());
+        assertTrue(scheduler.awaitTermination(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.tube.service;
+
+import com.example.tube.dto.LineStatusDelta;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.example.tube.Fixtures.snapshot;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeFeedTests {
+
+    @Test
+    void returns_deltas_since_a_version_and_resyncs_once_it_ages_out() {
+        var changes = new LineStatusChanges("http://tfl", 2, 0);
+        changes.onSnapshot(snapshot("Good Service"));
+        assertEquals(1, changes.current().version());
+        assertTrue(changes.since(0).resync(), "no version yet: start from the full state");
+        assertEquals("Good Service", changes.since(0).lines().getFirst().status());
+
+        changes.onSnapshot(snapshot("Minor Delays"));
+        changes.onSnapshot(snapshot("Minor Delays")); // no change, no version
+        changes.onSnapshot(snapshot("Severe Delays"));
+
+        var delta = changes.since(1);
+        assertFalse(delta.resync());
+        assertEquals(3, delta.version());
+        assertEquals(List.of(2L, 3L), delta.changes().stream().map(LineStatusDelta::version).toList());
+        assertEquals("Severe Delays", delta.changes().getLast().status());
+        assertTrue(delta.lines().isEmpty());
+
+        assertSame(changes.since(3), changes.since(3), "up-to-date polls share one response");
+        assertTrue(changes.since(3).changes().isEmpty());
+
+        changes.onSnapshot(snapshot("Good Service")); // log keeps versions 3 and 4 only
+        assertTrue(changes.since(1).resync());
+        assertEquals(List.of(4L), changes.since(3).changes().stream().map(LineStatusDelta::version).toList());
+        assertTrue(changes.since(99).resync(), "a version from before a restart");
+        assertSame(changes.since(0), changes.since(1), "resyncs share one response per version");
+    }
+
+    @Test
+    void versions_from_before_a_restart_get_a_resync() throws Exception {
+        var before = new LineStatusChanges("http://tfl", 10);
+        for (String status : List.of("Good Service", "Minor Delays", "Severe Delays")) before.onSnapshot(snapshot(status));
+        long clientVersion = before.current().version();
+
+        Thread.sleep(5); // restarted: more milliseconds than the old process published changes
+        var after = new LineStatusChanges("http://tfl", 10);
+        for (String status : List.of("Good Service", "Minor Delays", "Good Service", "Minor Delays")) after.onSnapshot(snapshot(status));
+
+        var r = after.since(clientVersion);
+        assertTrue(r.resync(), "versions " + clientVersion + " and " + after.current().version());
+        assertEquals(after.current().version(), r.version());
+        assertEquals("Minor Delays", r.lines().getFirst().status());
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.tube.slo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RollingCounterTests {
+
+    private static final long SLOT = 1_000;
+
+    @Test
+    void sums_the_last_slots_and_forgets_older_periods() {
+        var c = new RollingCounter(4, SLOT);
+        c.increment(0);
+        c.increment(SLOT);
+        c.increment(SLOT + 1);
+        c.increment(3 * SLOT);
+        assertEquals(4, c.sum(3 * SLOT, 4));
+        assertEquals(1, c.sum(3 * SLOT, 1));
+        assertEquals(3, c.sum(4 * SLOT, 4), "period 0 left the window");
+
+        c.increment(4 * SLOT); // reuses period 0's slot
+        assertEquals(1, c.sum(4 * SLOT, 1));
+        c.increment(0); // a caller that stalled for a whole ring
+        assertEquals(1, c.sum(4 * SLOT, 1), "late increment must not reset the newer period");
+        assertEquals(0, c.sum(100 * SLOT, 4));
+    }
+
+    @Test
+    void no_increment_is_lost_when_threads_race_a_slot_reset() throws InterruptedException {
+        for (int round = 1; round <= 200; round++) {
+            var c = new RollingCounter(2, SLOT);
+            for (int i = 0; i < 5; i++) c.increment(0); // slot 0 holds period 0
+            long now = 2 * SLOT * round;               // every thread finds slot 0 stale
+            var go = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                threads.add(Thread.ofPlatform().start(() -> {
+                    try { go.await(); } catch (InterruptedException e) { return; }
+                    for (int i = 0; i < 100; i++) c.increment(now);
+                }));
+            }
+            go.countDown();
+            for (Thread t : threads) t.join();
+            assertEquals(400, c.sum(now, 1), "round " + round);
+        }
+    }
+}
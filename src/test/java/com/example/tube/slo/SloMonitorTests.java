@@ -0,0 +1,39 @@
+package com.example.tube.slo;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SloMonitorTests {
+
+    @Test
+    void computes_burn_rates_and_multiwindow_alerts() {
+        var slo = SloMonitor.defaults();
+        var api = slo.route("/api/line/{lineId}/status", true);
+        var health = slo.route("/healthz", false);
+
+        for (int i = 0; i < 990; i++) api.record(200, Duration.ofMillis(10).toNanos());
+        for (int i = 0; i < 10; i++) api.record(503, Duration.ofMillis(1).toNanos());
+        for (int i = 0; i < 50; i++) api.record(429, 0);     // client errors don't count
+        for (int i = 0; i < 100; i++) health.record(500, 0); // non-SLO route
+
+        var availability = slo.report().objectives().getFirst();
+        var fiveMinutes = availability.windows().getFirst();
+        assertEquals(1000, fiveMinutes.total());
+        assertEquals(10, fiveMinutes.bad());
+        assertEquals(10.0, fiveMinutes.burnRate(), 1e-9); // 1% errors against a 0.1% budget
+        assertFalse(availability.alerts().get(0).firing(), "page needs > 14.4x");
+        assertTrue(availability.alerts().get(1).firing(), "ticket fires above 6x");
+
+        for (int i = 0; i < 60; i++) api.record(200, Duration.ofMillis(300).toNanos());
+        var p95 = slo.report().objectives().get(1);
+        assertEquals("latency_p95_200ms", p95.name());
+        assertEquals(60.0 / 1050 / 0.05, p95.windows().getFirst().burnRate(), 1e-9);
+
+        var routes = slo.report().routes();
+        assertEquals(1050, routes.getFirst().sinceStart().count());
+        assertEquals(300.0, routes.getFirst().sinceStart().maxMs(), 0.01);
+    }
+}